@@ -0,0 +1,121 @@
+package com.oselan.excelexporter;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/***
+ * A record of mixed property types exported by the benchmarks. Wide reports
+ * cycle over its properties so any number of columns can be defined.
+ */
+public class BenchmarkRecord {
+
+	public enum Status {
+		ACTIVE, SUSPENDED, CLOSED
+	}
+
+	public static class Owner {
+		private final String name;
+
+		public Owner(String name) {
+			this.name = name;
+		}
+
+		public String getName() {
+			return name;
+		}
+	}
+
+	/***
+	 * Properties cycled over by wide reports
+	 */
+	static final String[] PROPERTIES = { "id", "amount", "name", "day", "created", "price", "active", "status",
+			"count", "owner.name" };
+
+	private final long id;
+	private final double amount;
+	private final String name;
+	private final LocalDate day;
+	private final Instant created;
+	private final BigDecimal price;
+	private final boolean active;
+	private final Status status;
+	private final Integer count;
+	private final Owner owner;
+
+	private BenchmarkRecord(long id) {
+		this.id = id;
+		this.amount = id * 1.5;
+		this.name = "name " + id;
+		this.day = LocalDate.of(2020, 1, 1).plusDays(id % 1000);
+		this.created = Instant.ofEpochSecond(1_600_000_000L + id);
+		this.price = BigDecimal.valueOf(id, 2);
+		this.active = id % 2 == 0;
+		this.status = Status.values()[(int) (id % 3)];
+		this.count = (int) (id % 100);
+		this.owner = new Owner("owner " + id % 50);
+	}
+
+	static BenchmarkRecord of(long id) {
+		return new BenchmarkRecord(id);
+	}
+
+	static List<BenchmarkRecord> list(int size) {
+		List<BenchmarkRecord> records = new ArrayList<BenchmarkRecord>(size);
+		for (int i = 0; i < size; i++)
+			records.add(new BenchmarkRecord(i));
+		return records;
+	}
+
+	/***
+	 * Columns cycling over the record properties
+	 */
+	static List<ColumnDefinition> columns(int count) {
+		ColumnDefinition.ListBuilder builder = ColumnDefinition.listBuilder();
+		for (int c = 0; c < count; c++)
+			builder.withColumn("Column " + c, PROPERTIES[c % PROPERTIES.length]);
+		return builder.build();
+	}
+
+	public long getId() {
+		return id;
+	}
+
+	public double getAmount() {
+		return amount;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public LocalDate getDay() {
+		return day;
+	}
+
+	public Instant getCreated() {
+		return created;
+	}
+
+	public BigDecimal getPrice() {
+		return price;
+	}
+
+	public boolean isActive() {
+		return active;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public Integer getCount() {
+		return count;
+	}
+
+	public Owner getOwner() {
+		return owner;
+	}
+}
@@ -0,0 +1,96 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/***
+ * Cost of writing one cell per value type, through the per-value type check
+ * and through the writer chosen for the column. Cells go to a sheet consuming
+ * them in a black hole so only the dispatch and conversion are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellWriterBenchmark {
+
+	@Param({ "id", "amount", "name", "day", "created", "price", "active", "status", "count" })
+	public String property;
+
+	private BenchmarkRecord record;
+
+	private Object value;
+
+	private ColumnWriter writer;
+
+	private BlackholeSheetSink sheet;
+
+	@Setup
+	public void setup(Blackhole blackhole) {
+		record = BenchmarkRecord.of(42);
+		PropertyAccessor accessor = PropertyAccessor.of(BenchmarkRecord.class, property);
+		value = accessor.get(record);
+		writer = ColumnWriter.of(0, accessor, RowSink.DEFAULT_STYLE, 1, 2);
+		sheet = new BlackholeSheetSink(blackhole);
+	}
+
+	@Benchmark
+	public void valueDispatch() throws IOException {
+		ColumnWriter.writeValue(sheet, 0, value, RowSink.DEFAULT_STYLE, 1, 2);
+	}
+
+	@Benchmark
+	public void columnWriter() throws IOException {
+		writer.write(sheet, record);
+	}
+
+	/***
+	 * Sheet consuming the cells
+	 */
+	static final class BlackholeSheetSink implements SheetSink {
+		private final Blackhole blackhole;
+
+		BlackholeSheetSink(Blackhole blackhole) {
+			this.blackhole = blackhole;
+		}
+
+		@Override
+		public void startRow(int rowIndex) {
+			blackhole.consume(rowIndex);
+		}
+
+		@Override
+		public void writeString(int column, String value, int style) {
+			blackhole.consume(value);
+		}
+
+		@Override
+		public void writeNumber(int column, double value, int style) {
+			blackhole.consume(value);
+		}
+
+		@Override
+		public void writeBoolean(int column, boolean value, int style) {
+			blackhole.consume(value);
+		}
+
+		@Override
+		public void endRow() {
+		}
+	}
+}
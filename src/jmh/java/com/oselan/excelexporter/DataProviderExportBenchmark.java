@@ -0,0 +1,108 @@
+package com.oselan.excelexporter;
+
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+
+import com.oselan.sample.UserDTO;
+
+import lombok.SneakyThrows;
+
+/***
+ * A full export of a users table from an in-memory H2 database through
+ * generateReportFromDataProvider, paging with limit and offset like a
+ * repository would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class DataProviderExportBenchmark {
+
+	@Param({ "100000", "1000000" })
+	public int rows;
+
+	@Param({ "SXSSF", "STREAMING" })
+	public ExportEngine engine;
+
+	private Connection connection;
+
+	private List<ColumnDefinition> columns;
+
+	@Setup(Level.Trial)
+	public void setup() throws SQLException {
+		connection = DriverManager.getConnection("jdbc:h2:mem:benchmark;DB_CLOSE_DELAY=-1");
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("drop table if exists bench_user");
+			statement.execute(
+					"create table bench_user (id bigint primary key, first_name varchar(50), last_name varchar(50))");
+			statement.execute("insert into bench_user select x, 'first ' || x, 'last ' || x from system_range(1, "
+					+ rows + ")");
+		}
+		columns = ColumnDefinition.listBuilder().withColumn("Id", "id").withColumn("First Name", "firstName")
+				.withColumn("Last Name", "lastName").build();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		try (Statement statement = connection.createStatement()) {
+			statement.execute("drop table bench_user");
+		}
+		connection.close();
+	}
+
+	@Benchmark
+	public void generateReportFromDataProvider() throws Exception {
+		try (ExcelExporter<UserDTO> exporter = new ExcelExporter<UserDTO>(OutputStream.nullOutputStream(), columns,
+				"Users", UserDTO.class)) {
+			exporter.setEngine(engine);
+			exporter.open();
+			exporter.generateReportFromDataProvider(this::findUsers);
+		}
+	}
+
+	@SneakyThrows(SQLException.class)
+	private Slice<UserDTO> findUsers(Pageable pageable) {
+		try (PreparedStatement statement = connection
+				.prepareStatement("select id, first_name, last_name from bench_user order by id limit ? offset ?")) {
+			statement.setInt(1, pageable.getPageSize() + 1);
+			statement.setLong(2, pageable.getOffset());
+			List<UserDTO> users = new ArrayList<UserDTO>(pageable.getPageSize() + 1);
+			try (ResultSet resultSet = statement.executeQuery()) {
+				while (resultSet.next())
+					users.add(UserDTO.builder().id(resultSet.getLong(1)).firstName(resultSet.getString(2))
+							.lastName(resultSet.getString(3)).build());
+			}
+			boolean hasNext = users.size() > pageable.getPageSize();
+			if (hasNext)
+				users.remove(users.size() - 1);
+			return new SliceImpl<UserDTO>(users, pageable, hasNext);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ * Cost of reading a column property from a record: the cached accessor lookup,
+ * boxed and unboxed reads, a nested path and the exporter's getProperty.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyAccessorBenchmark {
+
+	private BenchmarkRecord record;
+
+	private PropertyAccessor idAccessor;
+
+	private PropertyAccessor amountAccessor;
+
+	private PropertyAccessor nestedAccessor;
+
+	private ExcelExporter<BenchmarkRecord> exporter;
+
+	@Setup
+	public void setup() {
+		record = BenchmarkRecord.of(42);
+		idAccessor = PropertyAccessor.of(BenchmarkRecord.class, "id");
+		amountAccessor = PropertyAccessor.of(BenchmarkRecord.class, "amount");
+		nestedAccessor = PropertyAccessor.of(BenchmarkRecord.class, "owner.name");
+		exporter = new ExcelExporter<BenchmarkRecord>(OutputStream.nullOutputStream(),
+				ColumnDefinition.listBuilder().withColumn("Id", "id").build());
+	}
+
+	@Benchmark
+	public PropertyAccessor resolveCached() {
+		return PropertyAccessor.of(BenchmarkRecord.class, "name");
+	}
+
+	@Benchmark
+	public Object getBoxed() {
+		return idAccessor.get(record);
+	}
+
+	@Benchmark
+	public double getUnboxed() {
+		return amountAccessor.getDouble(amountAccessor.getParent(record));
+	}
+
+	@Benchmark
+	public Object getNested() {
+		return nestedAccessor.get(record);
+	}
+
+	@Benchmark
+	public Object exporterGetProperty() throws IOException {
+		return exporter.getProperty(record, "name");
+	}
+}
@@ -0,0 +1,67 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ * Hand off of pages from a producer calling addRecords to the writer in
+ * export(). The report has no columns so little more than the queue and the
+ * empty rows are measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueueHandoffBenchmark {
+
+	private static final int ROWS = 100_000;
+
+	@Param({ "100", "1000", "10000" })
+	public int pageSize;
+
+	private List<List<BenchmarkRecord>> pages;
+
+	@Setup
+	public void setup() {
+		List<BenchmarkRecord> records = BenchmarkRecord.list(pageSize);
+		pages = Collections.nCopies(ROWS / pageSize, records);
+	}
+
+	@Benchmark
+	public void addRecordsExport() throws Exception {
+		try (ExcelExporter<BenchmarkRecord> exporter = new ExcelExporter<BenchmarkRecord>(
+				OutputStream.nullOutputStream(), ColumnDefinition.listBuilder().build(), "Report", BenchmarkRecord.class)) {
+			exporter.setEngine(ExportEngine.STREAMING);
+			exporter.open();
+			CompletableFuture<Void> producer = CompletableFuture.runAsync(() -> {
+				try {
+					for (int i = 0; i < pages.size(); i++)
+						exporter.addRecords(pages.get(i), i == pages.size() - 1);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+			exporter.export();
+			producer.join();
+		}
+	}
+}
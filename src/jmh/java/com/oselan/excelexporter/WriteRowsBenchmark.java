@@ -0,0 +1,62 @@
+package com.oselan.excelexporter;
+
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/***
+ * Writing rows of 10, 50 and 200 columns with each engine. The records are
+ * queued up front so the time is spent in writing the data lines and the
+ * workbook.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteRowsBenchmark {
+
+	private static final int ROWS = 10_000;
+
+	@Param({ "10", "50", "200" })
+	public int columnCount;
+
+	@Param({ "SXSSF", "STREAMING" })
+	public ExportEngine engine;
+
+	private List<ColumnDefinition> columns;
+
+	private List<BenchmarkRecord> records;
+
+	@Setup
+	public void setup() {
+		columns = BenchmarkRecord.columns(columnCount);
+		records = BenchmarkRecord.list(ROWS);
+	}
+
+	@Benchmark
+	public long writeDataLines() throws Exception {
+		try (ExcelExporter<BenchmarkRecord> exporter = new ExcelExporter<BenchmarkRecord>(
+				OutputStream.nullOutputStream(), columns, "Report", BenchmarkRecord.class)) {
+			exporter.setEngine(engine);
+			exporter.setMaxQueueSize(ROWS);
+			exporter.open();
+			exporter.addRecords(records, true);
+			exporter.export();
+			return exporter.getTempDiskBytes();
+		}
+	}
+}
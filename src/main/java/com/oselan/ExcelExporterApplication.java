@@ -8,6 +8,7 @@ import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 
+import com.oselan.excelexporter.ExportJob;
 import com.oselan.sample.UserService;
 
 import lombok.extern.slf4j.Slf4j;
@@ -34,7 +35,8 @@ public class ExcelExporterApplication implements CommandLineRunner {
         log.info("Generating report to : "+  file.getAbsolutePath());
 		FileOutputStream stream = new FileOutputStream(file);
 		 
-		userService.generateReport(stream); 
+		ExportJob<Void> job = userService.generateReport(stream); 
+		log.info("Report queued as job " + job.getId());
 		
 	}
 
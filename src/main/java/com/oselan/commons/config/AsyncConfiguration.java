@@ -2,11 +2,15 @@ package com.oselan.commons.config;
 
 import java.util.concurrent.Executor;
 
+import org.springframework.boot.task.TaskExecutorBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
+import com.oselan.excelexporter.ExportExecutors;
+import com.oselan.excelexporter.ExportJobScheduler;
+
 @Configuration
 @EnableAsync
 public class AsyncConfiguration {
@@ -23,5 +27,33 @@ public class AsyncConfiguration {
 //    return executor;
 //  }
 
+  /***
+   * Spring Boot's default executor of the @Async methods, built from the
+   * spring.task.execution properties. Boot backs off from it once any Executor
+   * bean exists, so it is declared here next to the exportExecutor.
+   */
+  @Bean(name = { "applicationTaskExecutor", "taskExecutor" })
+  public ThreadPoolTaskExecutor applicationTaskExecutor(TaskExecutorBuilder builder) {
+    return builder.build();
+  }
+
+  /***
+   * Runs the export jobs, 4 at a time within 512MB of heap for their records
+   * and 2GB of temp disk
+   */
+  @Bean
+  public ExportJobScheduler exportJobScheduler() {
+    return new ExportJobScheduler(4, 512L * 1024 * 1024, 2L * 1024 * 1024 * 1024);
+  }
+
+  /***
+   * Runs the excel exporters data producers, a virtual thread each on Java 21
+   * and a platform thread each before. The executor is shared by all exporters
+   * so it is not shut down with the context.
+   */
+  @Bean(name = "exportExecutor", destroyMethod = "")
+  public Executor exportExecutor() {
+    return ExportExecutors.virtualThreads();
+  }
 
 }
@@ -0,0 +1,236 @@
+package com.oselan.excelexporter;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.ToLongFunction;
+
+/***
+ * A bounded hand-off of batches between the data producers and the excel
+ * writer. Producers block while the queue is at capacity and the writer blocks
+ * while it is empty, both sides are woken by signals instead of polling.
+ * Capacity is expressed in the weight of the batches (e.g. number of records or
+ * estimated bytes) so a single page is never split. A batch is weighed once,
+ * on the producer thread, when added. Room can be reserved for batches still
+ * being fetched so they count against the capacity before they are added.
+ *
+ * @param <E> batch type
+ */
+class BoundedBatchQueue<E> {
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Condition notFull = lock.newCondition();
+
+	private final ArrayDeque<E> batches = new ArrayDeque<E>();
+	/***
+	 * Weights of the queued batches, weighed once when added
+	 */
+	private final ArrayDeque<Long> weights = new ArrayDeque<Long>();
+	private final ToLongFunction<E> weigher;
+	private final long capacity;
+
+	private long weight;
+	/***
+	 * Weight reserved for batches not added yet
+	 */
+	private long reserved;
+	/***
+	 * Weight of the last batch added
+	 */
+	private long lastWeight;
+	/***
+	 * Highest weight queued at once
+	 */
+	private long peakWeight;
+	/***
+	 * No more batches will be added, remaining ones can still be taken.
+	 */
+	private boolean closed;
+	/***
+	 * The consumer stopped, pending batches are discarded and producers released.
+	 */
+	private boolean aborted;
+
+	/***
+	 *
+	 * @param capacity max total weight held before producers block
+	 * @param weigher  function returning the weight of a batch
+	 */
+	BoundedBatchQueue(long capacity, ToLongFunction<E> weigher) {
+		this.capacity = capacity;
+		this.weigher = weigher;
+	}
+
+	/***
+	 * Adds a batch blocking until there is room for it besides the reserved
+	 * weight. A batch heavier than the capacity is accepted once the queue is
+	 * empty.
+	 *
+	 * @param batch
+	 * @return false if the queue was closed or aborted and the batch was not added
+	 * @throws InterruptedException
+	 */
+	boolean put(E batch) throws InterruptedException {
+		long batchWeight = weigher.applyAsLong(batch);
+		lock.lockInterruptibly();
+		try {
+			while (!closed && !aborted && weight > 0 && weight + reserved + batchWeight > capacity)
+				notFull.await();
+			if (closed || aborted)
+				return false;
+			batches.addLast(batch);
+			weights.addLast(batchWeight);
+			weight += batchWeight;
+			lastWeight = batchWeight;
+			peakWeight = Math.max(peakWeight, weight);
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * Reserves room for a batch being fetched without blocking. Release the
+	 * reservation before adding the batch.
+	 *
+	 * @param batchWeight expected weight of the batch
+	 * @return false if there is no room left, nothing is reserved
+	 */
+	boolean tryReserve(long batchWeight) {
+		lock.lock();
+		try {
+			if (closed || aborted || weight + reserved + batchWeight > capacity)
+				return false;
+			reserved += batchWeight;
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * Releases room reserved with tryReserve
+	 *
+	 * @param batchWeight
+	 */
+	void release(long batchWeight) {
+		if (batchWeight == 0)
+			return;
+		lock.lock();
+		try {
+			reserved -= batchWeight;
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * Takes the next batch waiting at most timeout for one to arrive.
+	 *
+	 * @param timeout
+	 * @param unit
+	 * @return the next batch or null once the queue is closed and drained
+	 * @throws InterruptedException
+	 * @throws TimeoutException     if no batch arrived in time
+	 */
+	E take(long timeout, TimeUnit unit) throws InterruptedException, TimeoutException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (batches.isEmpty() && !closed && !aborted) {
+				if (nanos <= 0)
+					throw new TimeoutException();
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+			E batch = batches.pollFirst();
+			if (batch != null) {
+				weight -= weights.pollFirst();
+				notFull.signalAll();
+			}
+			return batch;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * Signals end of data, the consumer drains what is left.
+	 */
+	void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * Discards pending batches and releases any blocked producer or consumer.
+	 */
+	void abort() {
+		lock.lock();
+		try {
+			aborted = true;
+			batches.clear();
+			weights.clear();
+			weight = 0;
+			notEmpty.signalAll();
+			notFull.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	boolean isClosed() {
+		lock.lock();
+		try {
+			return closed || aborted;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * @return total weight currently queued
+	 */
+	long weight() {
+		lock.lock();
+		try {
+			return weight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * @return weight of the last batch added, 0 before the first one
+	 */
+	long lastWeight() {
+		lock.lock();
+		try {
+			return lastWeight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * @return highest total weight queued at once
+	 */
+	long peakWeight() {
+		lock.lock();
+		try {
+			return peakWeight;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -11,8 +11,8 @@ import lombok.Setter;
 @AllArgsConstructor
 @Builder
 /***
- * A simple class to define columns in Excel other properties may be added in
- * the future like column format
+ * A simple class to define columns in Excel. The format is an Excel number
+ * format (e.g. "#,##0.00" or "yyyy-mm-dd") applied to the column cells.
  * 
  * @author Ahmad Hamid
  *
@@ -50,6 +50,16 @@ public class ColumnDefinition {
         columnsDef.add(ColumnDefinition.builder().index(index).header(header).property(property).build());
         return this; 
       }
+      public ListBuilder withColumn(String header,String property, String format)
+      {
+        columnsDef.add(ColumnDefinition.builder().index(columnsDef.size()).header(header).property(property).format(format).build());
+        return this; 
+      }
+      public ListBuilder withColumn(String header,String property, Integer index, String format)
+      {
+        columnsDef.add(ColumnDefinition.builder().index(index).header(header).property(property).format(format).build());
+        return this; 
+      }
       public List<ColumnDefinition> build()
       {
         return columnsDef;
@@ -0,0 +1,248 @@
+package com.oselan.excelexporter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.util.StringUtils;
+
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.Tuple;
+import jakarta.persistence.criteria.CriteriaBuilder;
+import jakarta.persistence.criteria.CriteriaQuery;
+import jakarta.persistence.criteria.From;
+import jakarta.persistence.criteria.JoinType;
+import jakarta.persistence.criteria.Path;
+import jakarta.persistence.criteria.Predicate;
+import jakarta.persistence.criteria.Root;
+import jakarta.persistence.criteria.Selection;
+import jakarta.persistence.metamodel.Attribute;
+import jakarta.persistence.metamodel.EntityType;
+import jakarta.persistence.metamodel.ManagedType;
+import jakarta.persistence.metamodel.SingularAttribute;
+import jakarta.persistence.metamodel.Type;
+
+/***
+ * A data provider selecting only the columns of a report from an entity,
+ * instead of whole entities with every column (blobs and long texts included)
+ * fetched and hydrated. A criteria tuple query selects the property of each
+ * column definition, each aliased with its dots replaced by underscores, and
+ * each row is returned as an array of the values in column order. Nested
+ * properties (e.g. address.city) are reached through left joins so a missing
+ * association reads as null, as for records. <br>
+ * Set Object[] as the exporter record class, arrays are written by position:
+ *
+ * <pre>
+ * ColumnProjection&lt;User&gt; projection = new ColumnProjection&lt;User&gt;(entityManager, User.class, columnsDef);
+ * ExcelExporter&lt;Object[]&gt; exporter = new ExcelExporter&lt;Object[]&gt;(stream, columnsDef, "Users", Object[].class);
+ * exporter.open();
+ * exporter.generateReportFromDataProvider(projection::findSlice);
+ * </pre>
+ *
+ * Slices are read with offset paging (setFirstResult), so the database skips
+ * all the rows before each slice and deep slices of large tables get slower,
+ * and rows inserted or deleted while exporting shift the following slices so
+ * rows may be skipped or repeated. Export a snapshot or use
+ * {@link ExcelExporter#generateReportFromKeysetProvider} when the table is
+ * large or written concurrently.
+ *
+ * @param <E> the entity
+ */
+public class ColumnProjection<E> {
+
+	private final EntityManager entityManager;
+
+	private final Class<E> entityClass;
+
+	/***
+	 * Column properties in column order, null for columns without property
+	 */
+	private final String[] properties;
+
+	private Specification<E> specification;
+
+	private Sort sort = Sort.unsorted();
+
+	/***
+	 *
+	 * @param entityManager
+	 * @param entityClass   the entity to select from
+	 * @param columns       the report columns, properties are paths on the entity
+	 * @throws IllegalArgumentException if the entity is not managed or a property
+	 *                                  is not an attribute path of the entity
+	 */
+	public ColumnProjection(EntityManager entityManager, Class<E> entityClass, List<ColumnDefinition> columns) {
+		this.entityManager = entityManager;
+		this.entityClass = entityClass;
+		// same order as the exporter columns
+		List<ColumnDefinition> ordered = new ArrayList<ColumnDefinition>(columns);
+		ordered.sort(Comparator.comparing(ColumnDefinition::getIndex));
+		this.properties = new String[ordered.size()];
+		ManagedType<E> entity = entityManager.getMetamodel().managedType(entityClass);
+		for (int c = 0; c < properties.length; c++) {
+			String property = ordered.get(c).getProperty();
+			properties[c] = StringUtils.hasText(property) ? property : null;
+			if (properties[c] != null)
+				validate(entity, properties[c]);
+		}
+	}
+
+	/***
+	 * Checks a property path against the metamodel so a misspelled column fails
+	 * here rather than on the first slice. Each segment but the last must be a
+	 * single valued association or embeddable, collections would repeat the rows.
+	 *
+	 * @param entity
+	 * @param property
+	 * @throws IllegalArgumentException
+	 */
+	private static void validate(ManagedType<?> entity, String property) {
+		ManagedType<?> type = entity;
+		String[] segments = property.split("\\.", -1);
+		for (int i = 0; i < segments.length; i++) {
+			if (type == null)
+				throw new IllegalArgumentException("Property " + property + " of " + entity.getJavaType().getName()
+						+ ": " + segments[i - 1] + " is not an association or embeddable");
+			Attribute<?, ?> attribute = attribute(type, segments[i]);
+			if (attribute == null)
+				throw new IllegalArgumentException("Property " + property + " of " + entity.getJavaType().getName()
+						+ ": no attribute " + segments[i] + " in " + type.getJavaType().getName());
+			if (attribute.isCollection())
+				throw new IllegalArgumentException("Property " + property + " of " + entity.getJavaType().getName()
+						+ ": " + segments[i] + " is a collection");
+			Type<?> attributeType = ((SingularAttribute<?, ?>) attribute).getType();
+			type = attributeType instanceof ManagedType ? (ManagedType<?>) attributeType : null;
+		}
+	}
+
+	private static Attribute<?, ?> attribute(ManagedType<?> type, String name) {
+		for (Attribute<?, ?> attribute : type.getAttributes())
+			if (attribute.getName().equals(name))
+				return attribute;
+		return null;
+	}
+
+	/***
+	 *
+	 * @return the filter of the rows
+	 */
+	public Specification<E> getSpecification() {
+		return specification;
+	}
+
+	/***
+	 * Filters the rows selected. Default is null to select all rows.
+	 *
+	 * @param specification
+	 */
+	public void setSpecification(Specification<E> specification) {
+		this.specification = specification;
+	}
+
+	/***
+	 *
+	 * @return the order of the rows
+	 */
+	public Sort getSort() {
+		return sort;
+	}
+
+	/***
+	 * Orders the rows when the page request is unsorted. Default is unsorted,
+	 * which orders by the entity id so pages are stable.
+	 *
+	 * @param sort
+	 */
+	public void setSort(Sort sort) {
+		this.sort = sort;
+	}
+
+	/***
+	 * Selects a slice of the column values, the data provider of
+	 * {@link ExcelExporter#generateReportFromDataProvider(java.util.function.Function)}
+	 *
+	 * @param pageable
+	 * @return the rows, one value per column in column order
+	 */
+	public Slice<Object[]> findSlice(PageRequest pageable) {
+		CriteriaBuilder builder = entityManager.getCriteriaBuilder();
+		CriteriaQuery<Tuple> query = builder.createTupleQuery();
+		Root<E> root = query.from(entityClass);
+		Map<String, From<?, ?>> joins = new HashMap<String, From<?, ?>>();
+		Map<String, Integer> aliases = new HashMap<String, Integer>();
+		List<Selection<?>> selections = new ArrayList<Selection<?>>();
+		// position of the value of each column in the tuple, -1 for blank columns
+		int[] positions = new int[properties.length];
+		for (int c = 0; c < properties.length; c++) {
+			if (properties[c] == null) {
+				positions[c] = -1;
+				continue;
+			}
+			String alias = properties[c].replace('.', '_');
+			Integer position = aliases.get(alias);
+			if (position == null) {
+				position = selections.size();
+				selections.add(path(root, joins, properties[c]).alias(alias));
+				aliases.put(alias, position);
+			}
+			positions[c] = position;
+		}
+		query.multiselect(selections);
+		if (specification != null) {
+			Predicate predicate = specification.toPredicate(root, query, builder);
+			if (predicate != null)
+				query.where(predicate);
+		}
+		Sort order = pageable.getSort().isSorted() ? pageable.getSort() : sort.isSorted() ? sort : idSort();
+		query.orderBy(QueryUtils.toOrders(order, root, builder));
+		// one more row tells if there is a next slice
+		List<Tuple> tuples = entityManager.createQuery(query).setFirstResult((int) pageable.getOffset())
+				.setMaxResults(pageable.getPageSize() + 1).getResultList();
+		boolean hasNext = tuples.size() > pageable.getPageSize();
+		int size = hasNext ? pageable.getPageSize() : tuples.size();
+		List<Object[]> rows = new ArrayList<Object[]>(size);
+		for (int i = 0; i < size; i++) {
+			Tuple tuple = tuples.get(i);
+			Object[] row = new Object[positions.length];
+			for (int c = 0; c < positions.length; c++)
+				if (positions[c] >= 0)
+					row[c] = tuple.get(positions[c]);
+			rows.add(row);
+		}
+		return new SliceImpl<Object[]>(rows, pageable, hasNext);
+	}
+
+	/***
+	 * Resolves a property path, joining the associations along it
+	 */
+	private static Path<?> path(Root<?> root, Map<String, From<?, ?>> joins, String property) {
+		String[] segments = property.split("\\.");
+		From<?, ?> from = root;
+		String joined = "";
+		for (int i = 0; i < segments.length - 1; i++) {
+			joined = joined.isEmpty() ? segments[i] : joined + "." + segments[i];
+			From<?, ?> parent = from;
+			String segment = segments[i];
+			from = joins.computeIfAbsent(joined, key -> parent.join(segment, JoinType.LEFT));
+		}
+		return from.get(segments[segments.length - 1]);
+	}
+
+	/***
+	 * Orders by the id of the entity, unsorted for composite ids
+	 */
+	private Sort idSort() {
+		EntityType<E> entity = entityManager.getMetamodel().entity(entityClass);
+		if (!entity.hasSingleIdAttribute())
+			return Sort.unsorted();
+		return Sort.by(entity.getId(entity.getIdType().getJavaType()).getName());
+	}
+}
@@ -0,0 +1,372 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Date;
+
+/***
+ * Writes the cell of one column. A writer is chosen once per column from the
+ * declared type of its property so writing a cell is a direct call without
+ * type checks: numeric primitives are read without boxing, numbers and
+ * decimals are written as numbers, dates and times as date cells and enums by
+ * name. Longs, big integers and decimals a double can not hold exactly (beyond
+ * 2^53 or with more significant digits) are written as text so no digit is
+ * lost, such a column then mixes number and text cells. Properties declared as
+ * Object or an unknown type are checked per value.
+ */
+abstract class ColumnWriter {
+
+	/***
+	 * Largest magnitude up to which every long is exactly a double
+	 */
+	private static final long MAX_EXACT_LONG = 1L << 53;
+
+	protected final int column;
+
+	protected final int style;
+
+	private ColumnWriter(int column, int style) {
+		this.column = column;
+		this.style = style;
+	}
+
+	/***
+	 * Writes the cell of this column of a record
+	 *
+	 * @param sheet
+	 * @param record
+	 * @throws IOException
+	 */
+	abstract void write(SheetSink sheet, Object record) throws IOException;
+
+	/***
+	 * Chooses the writer of a column.
+	 *
+	 * @param column        column index
+	 * @param accessor      property accessor or null for a column without property
+	 * @param style         style of the column format
+	 * @param dateStyle     style of dates in a column without a format
+	 * @param dateTimeStyle style of date times in a column without a format
+	 * @return the writer
+	 */
+	static ColumnWriter of(int column, PropertyAccessor accessor, int style, int dateStyle, int dateTimeStyle) {
+		if (accessor == null)
+			return new BlankWriter(column, style);
+		Class<?> type = accessor.getType();
+		// a long is read as a long to be checked against the largest exact double
+		if (accessor.isPrimitiveLong())
+			return new PrimitiveLongWriter(column, style, accessor);
+		if (accessor.isPrimitiveNumber())
+			return new PrimitiveNumberWriter(column, style, accessor);
+		boolean defaultStyle = style == RowSink.DEFAULT_STYLE;
+		if (type == String.class)
+			return new StringWriter(column, style, accessor);
+		if (type == boolean.class || type == Boolean.class)
+			return new BooleanWriter(column, style, accessor);
+		if (Number.class.isAssignableFrom(type))
+			return new NumberWriter(column, style, accessor);
+		if (type == LocalDate.class)
+			return new LocalDateWriter(column, defaultStyle ? dateStyle : style, accessor);
+		if (type == LocalDateTime.class || type == Instant.class || type == OffsetDateTime.class
+				|| type == ZonedDateTime.class || Date.class.isAssignableFrom(type))
+			return new DateTimeWriter(column, defaultStyle ? dateTimeStyle : style, accessor);
+		if (type.isEnum())
+			return new EnumWriter(column, style, accessor);
+		return new ValueWriter(column, style, dateStyle, dateTimeStyle, accessor);
+	}
+
+	/***
+	 * Chooses the writer of a column of Object[] records, reading the element at
+	 * the column index.
+	 *
+	 * @param column        column index
+	 * @param style         style of the column format
+	 * @param dateStyle     style of dates in a column without a format
+	 * @param dateTimeStyle style of date times in a column without a format
+	 * @return the writer
+	 */
+	static ColumnWriter ofElement(int column, int style, int dateStyle, int dateTimeStyle) {
+		return new ElementWriter(column, style, dateStyle, dateTimeStyle);
+	}
+
+	/***
+	 * Writes a value of any type, used for the values of properties declared as
+	 * Object or an unknown type.
+	 *
+	 * @param sheet
+	 * @param column
+	 * @param value         the value, nothing is written for null
+	 * @param style         style of the column format
+	 * @param dateStyle     style of dates in a column without a format
+	 * @param dateTimeStyle style of date times in a column without a format
+	 * @throws IOException
+	 */
+	static void writeValue(SheetSink sheet, int column, Object value, int style, int dateStyle, int dateTimeStyle)
+			throws IOException {
+		boolean defaultStyle = style == RowSink.DEFAULT_STYLE;
+		if (value instanceof String) {
+			sheet.writeString(column, (String) value, style);
+		} else if (value instanceof Number) {
+			writeNumber(sheet, column, (Number) value, style);
+		} else if (value instanceof Boolean) {
+			sheet.writeBoolean(column, (Boolean) value, style);
+		} else if (value instanceof LocalDate) {
+			sheet.writeDate(column, ((LocalDate) value).atStartOfDay(), defaultStyle ? dateStyle : style);
+		} else if (value instanceof Date || value instanceof LocalDateTime || value instanceof Instant
+				|| value instanceof OffsetDateTime || value instanceof ZonedDateTime) {
+			sheet.writeDate(column, toLocalDateTime(value), defaultStyle ? dateTimeStyle : style);
+		} else if (value instanceof Enum) {
+			sheet.writeString(column, ((Enum<?>) value).name(), style);
+		} else if (value != null) {
+			sheet.writeString(column, value.toString(), style);
+		}
+	}
+
+	/***
+	 * Writes a number as a number cell, or as text if a double can not hold it
+	 * exactly
+	 */
+	static void writeNumber(SheetSink sheet, int column, Number value, int style) throws IOException {
+		if (value instanceof Long) {
+			writeLong(sheet, column, (Long) value, style);
+		} else if (value instanceof BigInteger) {
+			BigInteger integer = (BigInteger) value;
+			if (integer.bitLength() <= 53)
+				sheet.writeNumber(column, integer.doubleValue(), style);
+			else
+				sheet.writeString(column, integer.toString(), style);
+		} else if (value instanceof BigDecimal) {
+			BigDecimal decimal = (BigDecimal) value;
+			double number = decimal.doubleValue();
+			// the shortest decimal reading of the double must be the value itself
+			if (Double.isFinite(number) && BigDecimal.valueOf(number).compareTo(decimal) == 0)
+				sheet.writeNumber(column, number, style);
+			else
+				sheet.writeString(column, decimal.toPlainString(), style);
+		} else {
+			sheet.writeNumber(column, value.doubleValue(), style);
+		}
+	}
+
+	/***
+	 * Writes a long as a number cell, or as text beyond 2^53 where a double would
+	 * round it
+	 */
+	static void writeLong(SheetSink sheet, int column, long value, int style) throws IOException {
+		if (value >= -MAX_EXACT_LONG && value <= MAX_EXACT_LONG)
+			sheet.writeNumber(column, value, style);
+		else
+			sheet.writeString(column, Long.toString(value), style);
+	}
+
+	/***
+	 * Converts a date time value to the local date time it reads as in the system
+	 * time zone
+	 */
+	private static LocalDateTime toLocalDateTime(Object value) {
+		if (value instanceof LocalDateTime)
+			return (LocalDateTime) value;
+		if (value instanceof ZonedDateTime)
+			return ((ZonedDateTime) value).withZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+		if (value instanceof OffsetDateTime)
+			return ((OffsetDateTime) value).atZoneSameInstant(ZoneId.systemDefault()).toLocalDateTime();
+		if (value instanceof java.sql.Date)
+			return ((java.sql.Date) value).toLocalDate().atStartOfDay();
+		Instant instant = value instanceof Date ? Instant.ofEpochMilli(((Date) value).getTime()) : (Instant) value;
+		return LocalDateTime.ofInstant(instant, ZoneId.systemDefault());
+	}
+
+	/***
+	 * Column without a property, an empty cell
+	 */
+	private static final class BlankWriter extends ColumnWriter {
+		private BlankWriter(int column, int style) {
+			super(column, style);
+		}
+
+		@Override
+		void write(SheetSink sheet, Object record) throws IOException {
+			sheet.writeString(column, "", style);
+		}
+	}
+
+	private static final class PrimitiveNumberWriter extends ColumnWriter {
+		private final PropertyAccessor accessor;
+
+		private PrimitiveNumberWriter(int column, int style, PropertyAccessor accessor) {
+			super(column, style);
+			this.accessor = accessor;
+		}
+
+		@Override
+		void write(SheetSink sheet, Object record) throws IOException {
+			Object parent = accessor.getParent(record);
+			if (parent != null)
+				sheet.writeNumber(column, accessor.getDouble(parent), style);
+		}
+	}
+
+	private static final class PrimitiveLongWriter extends ColumnWriter {
+		private final PropertyAccessor accessor;
+
+		private PrimitiveLongWriter(int column, int style, PropertyAccessor accessor) {
+			super(column, style);
+			this.accessor = accessor;
+		}
+
+		@Override
+		void write(SheetSink sheet, Object record) throws IOException {
+			Object parent = accessor.getParent(record);
+			if (parent != null)
+				writeLong(sheet, column, accessor.getLong(parent), style);
+		}
+	}
+
+	private static final class StringWriter extends ColumnWriter {
+		private final PropertyAccessor accessor;
+
+		private StringWriter(int column, int style, PropertyAccessor accessor) {
+			super(column, style);
+			this.accessor = accessor;
+		}
+
+		@Override
+		void write(SheetSink sheet, Object record) throws IOException {
+			String value = (String) accessor.get(record);
+			if (value != null)
+				sheet.writeString(column, value, style);
+		}
+	}
+
+	private static final class BooleanWriter extends ColumnWriter {
+		private final PropertyAccessor accessor;
+
+		private BooleanWriter(int column, int style, PropertyAccessor accessor) {
+			super(column, style);
+			this.accessor = accessor;
+		}
+
+		@Override
+		void write(SheetSink sheet, Object record) throws IOException {
+			Boolean value = (Boolean) accessor.get(record);
+			if (value != null)
+				sheet.writeBoolean(column, value, style);
+		}
+	}
+
+	/***
+	 * Boxed numbers and decimals
+	 */
+	private static final class NumberWriter extends ColumnWriter {
+		private final PropertyAccessor accessor;
+
+		private NumberWriter(int column, int style, PropertyAccessor accessor) {
+			super(column, style);
+			this.accessor = accessor;
+		}
+
+		@Override
+		void write(SheetSink sheet, Object record) throws IOException {
+			Number value = (Number) accessor.get(record);
+			if (value != null)
+				writeNumber(sheet, column, value, style);
+		}
+	}
+
+	private static final class LocalDateWriter extends ColumnWriter {
+		private final PropertyAccessor accessor;
+
+		private LocalDateWriter(int column, int style, PropertyAccessor accessor) {
+			super(column, style);
+			this.accessor = accessor;
+		}
+
+		@Override
+		void write(SheetSink sheet, Object record) throws IOException {
+			LocalDate value = (LocalDate) accessor.get(record);
+			if (value != null)
+				sheet.writeDate(column, value.atStartOfDay(), style);
+		}
+	}
+
+	private static final class DateTimeWriter extends ColumnWriter {
+		private final PropertyAccessor accessor;
+
+		private DateTimeWriter(int column, int style, PropertyAccessor accessor) {
+			super(column, style);
+			this.accessor = accessor;
+		}
+
+		@Override
+		void write(SheetSink sheet, Object record) throws IOException {
+			Object value = accessor.get(record);
+			if (value != null)
+				sheet.writeDate(column, toLocalDateTime(value), style);
+		}
+	}
+
+	private static final class EnumWriter extends ColumnWriter {
+		private final PropertyAccessor accessor;
+
+		private EnumWriter(int column, int style, PropertyAccessor accessor) {
+			super(column, style);
+			this.accessor = accessor;
+		}
+
+		@Override
+		void write(SheetSink sheet, Object record) throws IOException {
+			Enum<?> value = (Enum<?>) accessor.get(record);
+			if (value != null)
+				sheet.writeString(column, value.name(), style);
+		}
+	}
+
+	/***
+	 * Properties of any other type, checked per value
+	 */
+	private static final class ValueWriter extends ColumnWriter {
+		private final PropertyAccessor accessor;
+		private final int dateStyle;
+		private final int dateTimeStyle;
+
+		private ValueWriter(int column, int style, int dateStyle, int dateTimeStyle, PropertyAccessor accessor) {
+			super(column, style);
+			this.accessor = accessor;
+			this.dateStyle = dateStyle;
+			this.dateTimeStyle = dateTimeStyle;
+		}
+
+		@Override
+		void write(SheetSink sheet, Object record) throws IOException {
+			writeValue(sheet, column, accessor.get(record), style, dateStyle, dateTimeStyle);
+		}
+	}
+
+	/***
+	 * Element of an Object[] record, checked per value
+	 */
+	private static final class ElementWriter extends ColumnWriter {
+		private final int dateStyle;
+		private final int dateTimeStyle;
+
+		private ElementWriter(int column, int style, int dateStyle, int dateTimeStyle) {
+			super(column, style);
+			this.dateStyle = dateStyle;
+			this.dateTimeStyle = dateTimeStyle;
+		}
+
+		@Override
+		void write(SheetSink sheet, Object record) throws IOException {
+			Object[] values = (Object[]) record;
+			if (column < values.length)
+				writeValue(sheet, column, values[column], style, dateStyle, dateTimeStyle);
+		}
+	}
+}
@@ -0,0 +1,198 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+
+/***
+ * A batch of rows held as one primitive array per column, for producers of
+ * large numeric exports that would otherwise allocate an object per row and box
+ * every value. Columns are aligned by index with the exporter's column
+ * definitions, each column is created on first use with the kind of array
+ * requested. A column never requested, or past the columns of the batch, is
+ * written as an empty cell like a column without property. <br>
+ * Example:
+ *
+ * <pre>
+ * ColumnarBatch batch = new ColumnarBatch(3, 1000);
+ * long[] ids = batch.longColumn(0);
+ * double[] values = batch.doubleColumn(1);
+ * String[] names = batch.stringColumn(2);
+ * // fill the arrays then
+ * batch.setRowCount(filled);
+ * exporter.addBatch(batch);
+ * </pre>
+ *
+ * A batch is queued as is and must not be modified once added.
+ */
+public final class ColumnarBatch implements RowBatch {
+
+	private static final byte BLANK = 0;
+	private static final byte LONG = 1;
+	private static final byte DOUBLE = 2;
+	private static final byte INT = 3;
+	private static final byte STRING = 4;
+
+	private final int capacity;
+
+	private final byte[] kinds;
+
+	private final Object[] columns;
+
+	private int rowCount;
+
+	/***
+	 *
+	 * @param columnCount number of columns
+	 * @param capacity    number of rows, also the initial row count
+	 */
+	public ColumnarBatch(int columnCount, int capacity) {
+		this.capacity = capacity;
+		this.kinds = new byte[columnCount];
+		this.columns = new Object[columnCount];
+		this.rowCount = capacity;
+	}
+
+	/***
+	 * @param column
+	 * @return the long values of the column
+	 * @throws IllegalStateException if the column was created with another kind
+	 */
+	public long[] longColumn(int column) {
+		return (long[]) column(column, LONG);
+	}
+
+	/***
+	 * @param column
+	 * @return the double values of the column
+	 * @throws IllegalStateException if the column was created with another kind
+	 */
+	public double[] doubleColumn(int column) {
+		return (double[]) column(column, DOUBLE);
+	}
+
+	/***
+	 * @param column
+	 * @return the int values of the column
+	 * @throws IllegalStateException if the column was created with another kind
+	 */
+	public int[] intColumn(int column) {
+		return (int[]) column(column, INT);
+	}
+
+	/***
+	 * @param column
+	 * @return the string values of the column, null values are left blank
+	 * @throws IllegalStateException if the column was created with another kind
+	 */
+	public String[] stringColumn(int column) {
+		return (String[]) column(column, STRING);
+	}
+
+	/***
+	 *
+	 * @return number of rows to export
+	 */
+	@Override
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/***
+	 * Sets the number of rows to export, the first rowCount entries of each column
+	 * are exported. Default is the capacity.
+	 *
+	 * @param rowCount
+	 */
+	public void setRowCount(int rowCount) {
+		if (rowCount < 0 || rowCount > capacity)
+			throw new IllegalArgumentException("Row count " + rowCount + " out of capacity " + capacity);
+		this.rowCount = rowCount;
+	}
+
+	/***
+	 *
+	 * @return number of columns
+	 */
+	public int getColumnCount() {
+		return columns.length;
+	}
+
+	/***
+	 * Estimates the heap taken by the batch, strings from a sample
+	 *
+	 * @return estimated bytes
+	 */
+	long estimateBytes() {
+		long bytes = 16L * (columns.length + 1);
+		for (int c = 0; c < columns.length; c++) {
+			switch (kinds[c]) {
+			case LONG:
+			case DOUBLE:
+				bytes += 8L * capacity;
+				break;
+			case INT:
+				bytes += 4L * capacity;
+				break;
+			case STRING:
+				bytes += 8L * capacity + RecordSizeEstimator.estimateValues((String[]) columns[c], rowCount);
+				break;
+			default:
+				break;
+			}
+		}
+		return bytes;
+	}
+
+	private Object column(int column, byte kind) {
+		if (kinds[column] == BLANK) {
+			switch (kind) {
+			case LONG:
+				columns[column] = new long[capacity];
+				break;
+			case DOUBLE:
+				columns[column] = new double[capacity];
+				break;
+			case INT:
+				columns[column] = new int[capacity];
+				break;
+			default:
+				columns[column] = new String[capacity];
+			}
+			kinds[column] = kind;
+		} else if (kinds[column] != kind)
+			throw new IllegalStateException("Column " + column + " already created with another kind");
+		return columns[column];
+	}
+
+	/***
+	 * Writes the cells of a row
+	 *
+	 * @param sheet
+	 * @param row    row of the batch
+	 * @param styles styles of the columns
+	 * @throws IOException
+	 */
+	void writeRow(SheetSink sheet, int row, int[] styles) throws IOException {
+		for (int c = 0; c < styles.length; c++) {
+			switch (c < columns.length ? kinds[c] : BLANK) {
+			case LONG:
+				ColumnWriter.writeLong(sheet, c, ((long[]) columns[c])[row], styles[c]);
+				break;
+			case DOUBLE:
+				sheet.writeNumber(c, ((double[]) columns[c])[row], styles[c]);
+				break;
+			case INT:
+				sheet.writeNumber(c, ((int[]) columns[c])[row], styles[c]);
+				break;
+			case STRING:
+				String value = ((String[]) columns[c])[row];
+				if (value != null)
+					sheet.writeString(c, value, styles[c]);
+				break;
+			default:
+				// same empty cell as a column without property of the record path
+				sheet.writeString(c, "", styles[c]);
+				break;
+			}
+		}
+	}
+}
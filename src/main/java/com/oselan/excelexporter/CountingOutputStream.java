@@ -0,0 +1,81 @@
+package com.oselan.excelexporter;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Consumer;
+
+/***
+ * Counts the bytes written to the underlying stream, the count may be read
+ * from another thread
+ */
+class CountingOutputStream extends FilterOutputStream {
+
+	private volatile long count;
+
+	/***
+	 * Told of the first failed write or flush, null if not needed
+	 */
+	private final Consumer<IOException> failureListener;
+
+	private boolean failed;
+
+	CountingOutputStream(OutputStream out) {
+		this(out, null);
+	}
+
+	/***
+	 *
+	 * @param out
+	 * @param failureListener told of the first failed write or flush, e.g. a
+	 *                        client disconnect
+	 */
+	CountingOutputStream(OutputStream out, Consumer<IOException> failureListener) {
+		super(out);
+		this.failureListener = failureListener;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		try {
+			out.write(b);
+		} catch (IOException e) {
+			throw failed(e);
+		}
+		count++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		try {
+			out.write(b, off, len);
+		} catch (IOException e) {
+			throw failed(e);
+		}
+		count += len;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		try {
+			out.flush();
+		} catch (IOException e) {
+			throw failed(e);
+		}
+	}
+
+	private IOException failed(IOException e) {
+		if (failureListener != null && !failed) {
+			failed = true;
+			failureListener.accept(e);
+		}
+		return e;
+	}
+
+	/***
+	 * @return bytes written so far
+	 */
+	long getCount() {
+		return count;
+	}
+}
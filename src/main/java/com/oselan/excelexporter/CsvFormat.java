@@ -0,0 +1,131 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import lombok.Builder;
+import lombok.Getter;
+
+/***
+ * Writes an export as delimited text (CSV or TSV) instead of xlsx, set it as
+ * the exporter's row sink factory. Text costs a fraction of the CPU and bytes
+ * of a workbook for consumers loading the file into another system. <br>
+ * Columns, data providers and the queue work as for a workbook. The header is
+ * the first line, numbers are written plainly, columns with a date format as
+ * ISO dates (yyyy-MM-dd or yyyy-MM-dd HH:mm:ss) and other formats are ignored.
+ * All rows go to one file whatever maxRowsPerSheet is.
+ *
+ * <pre>
+ * exporter.setRowSinkFactory(CsvFormat.tsv().toBuilder().gzip(true).build());
+ * </pre>
+ */
+@Builder(toBuilder = true)
+@Getter
+public class CsvFormat implements RowSinkFactory {
+
+	public enum QuoteMode {
+		/***
+		 * Quote every field
+		 */
+		ALL,
+		/***
+		 * Quote fields containing the delimiter, the quote or a line break
+		 */
+		MINIMAL,
+		/***
+		 * Quote every text field and the fields needing it
+		 */
+		NON_NUMERIC,
+		/***
+		 * Never quote, the values must not contain the delimiter or line breaks
+		 */
+		NONE
+	}
+
+	/***
+	 * Field delimiter. Default is ','
+	 */
+	@Builder.Default
+	private final char delimiter = ',';
+
+	/***
+	 * Quote character, doubled inside quoted fields. Default is '"'
+	 */
+	@Builder.Default
+	private final char quote = '"';
+
+	/***
+	 * Default is MINIMAL
+	 */
+	@Builder.Default
+	private final QuoteMode quoteMode = QuoteMode.MINIMAL;
+
+	/***
+	 * Encoding of the text. Default is UTF-8
+	 */
+	@Builder.Default
+	private final Charset charset = StandardCharsets.UTF_8;
+
+	/***
+	 * Default is CRLF as in RFC 4180
+	 */
+	@Builder.Default
+	private final String lineSeparator = "\r\n";
+
+	/***
+	 * Writes the column headers as the first line. Default is true
+	 */
+	@Builder.Default
+	private final boolean header = true;
+
+	/***
+	 * Starts the text with a byte order mark, which Excel needs to open UTF-8
+	 * files correctly. Default is false
+	 */
+	@Builder.Default
+	private final boolean byteOrderMark = false;
+
+	/***
+	 * Gzip compresses the output. Default is false
+	 */
+	@Builder.Default
+	private final boolean gzip = false;
+
+	/***
+	 * Size of the buffer the text is encoded into before it is written to the
+	 * stream. Default is 1MB
+	 */
+	@Builder.Default
+	private final int bufferSize = 1024 * 1024;
+
+	/***
+	 * @return comma separated values quoted when needed
+	 */
+	public static CsvFormat csv() {
+		return CsvFormat.builder().build();
+	}
+
+	/***
+	 * @return tab separated values quoted when needed
+	 */
+	public static CsvFormat tsv() {
+		return CsvFormat.builder().delimiter('\t').build();
+	}
+
+	@Override
+	public RowSink create(OutputStream stream) throws IOException {
+		return new CsvRowSink(stream, this);
+	}
+
+	@Override
+	public String getName() {
+		return delimiter == '\t' ? "TSV" : "CSV";
+	}
+
+	@Override
+	public String getFileExtension() {
+		return (delimiter == '\t' ? "tsv" : "csv") + (gzip ? ".gz" : "");
+	}
+}
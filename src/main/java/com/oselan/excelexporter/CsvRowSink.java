@@ -0,0 +1,278 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.poi.ss.usermodel.DateUtil;
+
+/***
+ * Row sink writing delimited text. Each row is built in a reusable char buffer
+ * and encoded into a large byte buffer that is written to the stream when full,
+ * through gzip if set. Dates are written as ISO text, the styles only tell
+ * date columns from date time columns.
+ */
+class CsvRowSink implements RowSink {
+
+	private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+	private static final byte NUMBER = 0;
+	private static final byte DATE = 1;
+	private static final byte DATE_TIME = 2;
+
+	private final CsvFormat format;
+
+	private final OutputStream out;
+
+	private final GZIPOutputStream gzip;
+
+	private final CharsetEncoder encoder;
+
+	private final ByteBuffer bytes;
+
+	private final StringBuilder line = new StringBuilder(256);
+
+	private char[] chars = new char[256];
+
+	/***
+	 * Kind of each style, index 0 is the default style
+	 */
+	private final List<Byte> styleKinds = new ArrayList<Byte>(List.of(NUMBER));
+
+	private final Map<String, Integer> styleIndexes = new HashMap<String, Integer>();
+
+	private CsvSheetSink sheet;
+
+	/***
+	 *
+	 * @param stream output stream to write to, it is not closed
+	 * @param format
+	 * @throws IOException
+	 */
+	CsvRowSink(OutputStream stream, CsvFormat format) throws IOException {
+		this.format = format;
+		this.gzip = format.isGzip() ? new GZIPOutputStream(new NonClosingOutputStream(stream), 64 * 1024) : null;
+		this.out = gzip != null ? gzip : stream;
+		this.encoder = format.getCharset().newEncoder().onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+		this.bytes = ByteBuffer.allocate(Math.max(format.getBufferSize(), 1024));
+		if (format.isByteOrderMark()) {
+			line.append('\uFEFF');
+			encodeLine();
+		}
+	}
+
+	@Override
+	public int resolveStyle(String format) {
+		if (format == null || format.isEmpty())
+			return DEFAULT_STYLE;
+		Integer index = styleIndexes.get(format);
+		if (index == null) {
+			if (styleKinds.size() > MAX_FORMATS)
+				return DEFAULT_STYLE;
+			byte kind = NUMBER;
+			if (DateUtil.isADateFormat(-1, format)) {
+				String lower = format.toLowerCase(Locale.ROOT);
+				kind = lower.indexOf('h') >= 0 || lower.indexOf('s') >= 0 ? DATE_TIME : DATE;
+			}
+			index = styleKinds.size();
+			styleKinds.add(kind);
+			styleIndexes.put(format, index);
+		}
+		return index;
+	}
+
+	@Override
+	public SheetSink openSheet(String name) throws IOException {
+		if (sheet == null)
+			sheet = new CsvSheetSink();
+		return sheet;
+	}
+
+	@Override
+	public boolean supportsConcurrentSheets() {
+		return false;
+	}
+
+	@Override
+	public boolean isSingleSheet() {
+		return true;
+	}
+
+	@Override
+	public void moveSheet(String name, int position) {
+		throw new UnsupportedOperationException("Delimited text has a single sheet");
+	}
+
+	@Override
+	public void finish() throws IOException {
+		CharBuffer empty = CharBuffer.allocate(0);
+		while (encoder.encode(empty, bytes, true).isOverflow())
+			drain();
+		while (encoder.flush(bytes).isOverflow())
+			drain();
+		drain();
+		if (gzip != null)
+			gzip.finish();
+		out.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		// releases the deflater, the underlying stream is left open
+		if (gzip != null)
+			gzip.close();
+	}
+
+	/***
+	 * Encodes the line into the byte buffer, writing the buffer out whenever it
+	 * fills up
+	 */
+	private void encodeLine() throws IOException {
+		int length = line.length();
+		if (chars.length < length)
+			chars = new char[Math.max(length, chars.length * 2)];
+		line.getChars(0, length, chars, 0);
+		line.setLength(0);
+		CharBuffer text = CharBuffer.wrap(chars, 0, length);
+		CoderResult result;
+		while ((result = encoder.encode(text, bytes, false)).isOverflow())
+			drain();
+		if (result.isError())
+			result.throwException();
+	}
+
+	private void drain() throws IOException {
+		if (bytes.position() == 0)
+			return;
+		out.write(bytes.array(), bytes.arrayOffset(), bytes.position());
+		bytes.clear();
+	}
+
+	private final class CsvSheetSink implements SheetSink {
+		// delimiters written on the current line
+		private int delimiters;
+		private int columns;
+		private boolean skipRow;
+
+		@Override
+		public void startRow(int rowIndex) throws IOException {
+			skipRow = rowIndex == 0 && !format.isHeader();
+			delimiters = 0;
+		}
+
+		/***
+		 * Adds the delimiters of the columns skipped before this one
+		 */
+		private void startField(int column) {
+			while (delimiters < column) {
+				line.append(format.getDelimiter());
+				delimiters++;
+			}
+			if (column >= columns)
+				columns = column + 1;
+		}
+
+		@Override
+		public void writeString(int column, String value, int style) throws IOException {
+			startField(column);
+			appendText(value, true);
+		}
+
+		@Override
+		public void writeNumber(int column, double value, int style) throws IOException {
+			startField(column);
+			appendText(formatNumber(value), false);
+		}
+
+		@Override
+		public void writeDate(int column, LocalDateTime value, int style) throws IOException {
+			startField(column);
+			byte kind = style < styleKinds.size() ? styleKinds.get(style) : NUMBER;
+			appendText(kind == DATE ? value.toLocalDate().toString() : DATE_TIME_FORMAT.format(value), false);
+		}
+
+		@Override
+		public void writeBoolean(int column, boolean value, int style) throws IOException {
+			startField(column);
+			appendText(value ? "true" : "false", false);
+		}
+
+		@Override
+		public void endRow() throws IOException {
+			if (skipRow) {
+				line.setLength(0);
+				return;
+			}
+			// pad rows missing trailing columns
+			startField(columns - 1);
+			line.append(format.getLineSeparator());
+			encodeLine();
+		}
+
+		private void appendText(String value, boolean text) {
+			char quote = format.getQuote();
+			switch (format.getQuoteMode()) {
+			case ALL:
+				break;
+			case NON_NUMERIC:
+				// text is always quoted, numbers as in MINIMAL
+				if (!text && !needsQuotes(value)) {
+					line.append(value);
+					return;
+				}
+				break;
+			case MINIMAL:
+				if (!needsQuotes(value)) {
+					line.append(value);
+					return;
+				}
+				break;
+			case NONE:
+				line.append(value);
+				return;
+			}
+			line.append(quote);
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == quote)
+					line.append(quote);
+				line.append(c);
+			}
+			line.append(quote);
+		}
+
+		private boolean needsQuotes(String value) {
+			char delimiter = format.getDelimiter();
+			char quote = format.getQuote();
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == delimiter || c == quote || c == '\n' || c == '\r')
+					return true;
+			}
+			return false;
+		}
+	}
+
+	private static String formatNumber(double value) {
+		if (value == Math.rint(value) && Math.abs(value) < 1e15)
+			return Long.toString((long) value);
+		String text = Double.toString(value);
+		if (Double.isFinite(value) && text.indexOf('E') >= 0)
+			return BigDecimal.valueOf(value).toPlainString();
+		return text;
+	}
+}
@@ -0,0 +1,40 @@
+package com.oselan.excelexporter;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+
+/***
+ * Converts dates to the serial numbers xlsx stores them as, days since the
+ * Excel epoch with the time of day as the fraction.
+ */
+final class ExcelDates {
+
+	/***
+	 * Day zero of the Excel 1900 date system (shifted by the 1900 leap year bug)
+	 */
+	private static final long EXCEL_EPOCH_DAY = LocalDate.of(1899, 12, 30).toEpochDay();
+	private static final long FIRST_LEAP_BUG_FREE_DAY = LocalDate.of(1900, 3, 1).toEpochDay();
+	private static final long FIRST_EXCEL_DAY = LocalDate.of(1900, 1, 1).toEpochDay();
+
+	private ExcelDates() {
+	}
+
+	/***
+	 * @return false for dates Excel can not represent, before 1900
+	 */
+	static boolean isRepresentable(LocalDateTime value) {
+		return value.toLocalDate().toEpochDay() >= FIRST_EXCEL_DAY;
+	}
+
+	/***
+	 * @param value a representable date
+	 * @return the Excel serial number of the date
+	 */
+	static double toSerial(LocalDateTime value) {
+		long epochDay = value.toLocalDate().toEpochDay();
+		// Excel counts a 29th of February 1900 that did not exist
+		long days = epochDay - EXCEL_EPOCH_DAY - (epochDay < FIRST_LEAP_BUG_FREE_DAY ? 1 : 0);
+		return days + value.toLocalTime().toNanoOfDay() / (double) ChronoUnit.DAYS.getDuration().toNanos();
+	}
+}
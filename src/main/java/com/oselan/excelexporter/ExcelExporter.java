@@ -1,31 +1,63 @@
 package com.oselan.excelexporter;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
-import java.lang.reflect.Method;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CompletionException;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
 import java.util.function.Function;
-import java.util.stream.Collectors;
-
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.CellStyle;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import javax.sql.DataSource;
+
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Slice;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.util.StringUtils;
 
 import com.oselan.commons.exceptions.ConflictException;
 import com.oselan.commons.exceptions.NotFoundException;
 
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.observation.ObservationRegistry;
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
 
@@ -41,18 +73,66 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public class ExcelExporter<T> implements AutoCloseable {
 
-	private Workbook workbook = null;
+	/***
+	 * Writer of the workbook, SXSSF or streaming depending on the engine
+	 */
+	private RowSink rowSink = null;
+	/***
+	 * false for partition exporters writing sheets into their parent's workbook
+	 */
+	private boolean ownsWorkbook = true;
 	/***
 	 * Sheet to write to
 	 */
-	private Sheet activeSheet;
+	private SheetSink activeSheet;
+	/***
+	 * Index of the next row on the active sheet
+	 */
+	private int activeRowCount;
+	/***
+	 * Number of sheets opened by this exporter, used to suffix sheet names
+	 */
+	private int sheetsOpened;
+	/***
+	 * false for partitions which may legitimately be empty
+	 */
+	private boolean failOnNoData = true;
 
 	private OutputStream stream;
 
-	private ConcurrentLinkedQueue<T> dataRecordsQueue = new ConcurrentLinkedQueue<T>();
+	/***
+	 * Pages of records and columnar batches handed from the data provider to the
+	 * writer
+	 */
+	private BoundedBatchQueue<RowBatch> dataRecordsQueue;
 
 	private List<ColumnDefinition> columns;
 
+	/***
+	 * Class of the exported records, when known the column writers are chosen at
+	 * open()
+	 */
+	private Class<? extends T> recordClass;
+
+	/***
+	 * Writers of the column cells chosen from the property types, aligned with
+	 * columns
+	 */
+	private ColumnWriter[] writers;
+
+	/***
+	 * Styles of the column formats resolved at open(), aligned with columns
+	 */
+	private int[] columnStyles;
+	/***
+	 * Style of dates in columns without a format
+	 */
+	private int dateStyle;
+	/***
+	 * Style of date times in columns without a format
+	 */
+	private int dateTimeStyle;
+
 	/***
 	 * Report name
 	 */
@@ -68,11 +148,112 @@ public class ExcelExporter<T> implements AutoCloseable {
 	private static final int DEFAULT_MAX_QUEUE_SIZE = 10000;
 	// wait 5mins for data before timeout.
 	private static final long DEFAULT_DATA_WAIT_TIMEOUT = 5 * 60 * 1000;
+	// pages fetched one after the other
+	private static final int DEFAULT_PREFETCH_DEPTH = 1;
+	// pages mapped on the producer thread
+	private static final int DEFAULT_MAPPING_PARALLELISM = 1;
+
+	private static final int DEFAULT_COMPRESSION_THREADS = 1;
+	// format of dates and date times in columns without a format
+	private static final String DEFAULT_DATE_FORMAT = "yyyy-mm-dd";
+	private static final String DEFAULT_DATE_TIME_FORMAT = "yyyy-mm-dd hh:mm:ss";
 
 	private int maxRowsPerSheet = DEFAULT_MAX_ROWS_PER_SHEET;
+	/***
+	 * Rows per sheet of the open sink, unbounded for single sheet sinks
+	 */
+	private int sheetRowLimit;
 	private long dataWaitTimeout = DEFAULT_DATA_WAIT_TIMEOUT;
 	private int maxQueueSize = DEFAULT_MAX_QUEUE_SIZE;
+	private long maxQueueBytes = 0;
+	private ToLongFunction<T> recordSizeEstimator = null;
+	/***
+	 * Exported properties read to estimate the records, aligned with columns
+	 */
+	private String[] sizeProperties;
+	/***
+	 * Highest weight queued by the last export
+	 */
+	private long queuePeak;
 	private int dataFetchSize = DEFAULT_DATA_FETCH_SIZE;
+	private int prefetchDepth = DEFAULT_PREFETCH_DEPTH;
+	private int mappingParallelism = DEFAULT_MAPPING_PARALLELISM;
+	private ExportEngine engine = ExportEngine.SXSSF;
+	private RowSinkFactory rowSinkFactory = null;
+	private int rowAccessWindowSize = DEFAULT_BATCH_SIZE;
+	private boolean compressTempFiles = false;
+	private boolean useSharedStringsTable = false;
+	private int compressionLevel = Deflater.DEFAULT_COMPRESSION;
+	private int compressionThreads = DEFAULT_COMPRESSION_THREADS;
+	private Path tempDirectory = null;
+	/***
+	 * Temp disk used by the last export
+	 */
+	private long tempDiskBytes;
+	/***
+	 * Bytes written to the output stream by the last export
+	 */
+	private long bytesWritten;
+	/***
+	 * Runs the data producers
+	 */
+	private Executor executor = ExportExecutors.threadPerTask();
+	private MeterRegistry meterRegistry = Metrics.globalRegistry;
+	private ObservationRegistry observationRegistry = ObservationRegistry.NOOP;
+	/***
+	 * Meters and observation of the current export, shared with partitions
+	 */
+	private ExportMetrics metrics;
+	/***
+	 * The output stream as handed to the row sink
+	 */
+	private CountingOutputStream countingStream;
+	/***
+	 * Rows written by this exporter
+	 */
+	private long rowsWritten;
+
+	/***
+	 * Maps pages on a pool of workers when mappingParallelism is more than 1
+	 */
+	private OrderedMappingStage<T> mappingStage;
+
+	/***
+	 * Fires the deadlines of the running exports
+	 */
+	private static final ScheduledExecutorService DEADLINE_TIMER = createDeadlineTimer();
+	/***
+	 * Maximum duration of an export from open(), null for none
+	 */
+	private Duration deadline;
+	private ScheduledFuture<?> deadlineExpiry;
+	/***
+	 * Why the export was cancelled, null unless cancelled
+	 */
+	private volatile String cancelReason;
+	/***
+	 * true once the workbook of a cancelled export was discarded
+	 */
+	private boolean workbookDiscarded;
+	/***
+	 * Query of a JDBC report being read, cancelled with the export
+	 */
+	private volatile Statement runningStatement;
+	/***
+	 * Exporters of the partitions being generated, cancelled with the export
+	 */
+	private volatile List<ExcelExporter<T>> runningPartitions = List.of();
+	/***
+	 * Pages being prefetched, interrupted with the export
+	 */
+	private volatile Deque<? extends Future<?>> runningPrefetches = new ArrayDeque<Future<?>>();
+
+	/***
+	 * @return the number of columns of the report
+	 */
+	int getColumnCount() {
+		return columns.size();
+	}
 
 	/***
 	 * 
@@ -118,7 +299,7 @@ public class ExcelExporter<T> implements AutoCloseable {
 
 	/***
 	 * Control the number of records to keep in queue before fetching new data
-	 * Default is 10000
+	 * Default is 10000. Must be set before calling open().
 	 * 
 	 * @param maxQueueSize
 	 */
@@ -126,6 +307,59 @@ public class ExcelExporter<T> implements AutoCloseable {
 		this.maxQueueSize = maxQueueSize;
 	}
 
+	/***
+	 * @return The heap budget of the queue in bytes, 0 if the queue is bounded by
+	 *         maxQueueSize
+	 */
+	public long getMaxQueueBytes() {
+		return maxQueueBytes;
+	}
+
+	/***
+	 * Bounds the queue by the estimated heap taken by the queued records instead
+	 * of their number, so reports of wide records (e.g. long texts) queue fewer of
+	 * them without tuning maxQueueSize per report. Producers block once the
+	 * budget is reached, a page larger than the budget is still accepted into an
+	 * empty queue. Records are estimated from a sample of each page, see
+	 * setRecordSizeEstimator. maxQueueSize then only bounds the pages prefetched.
+	 * Default is 0, bounded by maxQueueSize. Must be set before calling open().
+	 * 
+	 * @param maxQueueBytes
+	 */
+	public void setMaxQueueBytes(long maxQueueBytes) {
+		this.maxQueueBytes = maxQueueBytes;
+	}
+
+	/***
+	 * @return The function estimating the bytes of a record, null for the
+	 *         sampled estimate
+	 */
+	public ToLongFunction<T> getRecordSizeEstimator() {
+		return recordSizeEstimator;
+	}
+
+	/***
+	 * A function returning the heap bytes taken by a record, applied to every
+	 * queued record when maxQueueBytes is set. Default is null, a sample of each
+	 * page is estimated from the values of the record fields and of the nested
+	 * exported properties. Objects referenced by the fields are not walked, set
+	 * a function for records holding large object graphs (e.g. loaded
+	 * collections). Must be set before calling open().
+	 * 
+	 * @param recordSizeEstimator
+	 */
+	public void setRecordSizeEstimator(ToLongFunction<T> recordSizeEstimator) {
+		this.recordSizeEstimator = recordSizeEstimator;
+	}
+
+	/***
+	 * @return Highest number of records, or estimated bytes with maxQueueBytes,
+	 *         queued at once by the last export. Known after close().
+	 */
+	public long getQueuePeak() {
+		return queuePeak;
+	}
+
 	/***
 	 * 
 	 * @return Page size of date fetched from db.
@@ -144,396 +378,1538 @@ public class ExcelExporter<T> implements AutoCloseable {
 	}
 
 	/***
-	 * Flag to indicate the no more records are read from the data provider.
+	 * 
+	 * @return Number of pages fetched concurrently from the data provider.
 	 */
-	private AtomicBoolean isEndOfData = new AtomicBoolean();
+	public int getPrefetchDepth() {
+		return prefetchDepth;
+	}
 
 	/***
-	 * Flag to indicate exporting to the stream completed
+	 * The number of pages fetched concurrently from the paged data provider, each
+	 * on its own thread (and connection). Pages are still handed to the writer in
+	 * page order. Pages ahead of the next one reserve room in the queue
+	 * (maxQueueSize or maxQueueBytes) and are only fetched while there is room, so
+	 * prefetching holds no more records than the queue bound allows. Fetches run
+	 * on the executor, a page not started when it is needed is fetched on the
+	 * producer thread. Default is 1, pages are fetched one after the other.
+	 * 
+	 * @param prefetchDepth
 	 */
-	private AtomicBoolean isWritingCompleted = new AtomicBoolean();
+	public void setPrefetchDepth(int prefetchDepth) {
+		this.prefetchDepth = prefetchDepth;
+	}
 
 	/***
 	 * 
-	 * @param stream  output stream to write to
-	 * @param headers optional ordered list of headers to add to the sheet.
-	 * @param ordered list of column definitions
+	 * @return The engine writing the workbook.
 	 */
-	public ExcelExporter(OutputStream stream, List<ColumnDefinition> columns) {
-		this.stream = stream;
-		this.columns = columns;
-		this.columns.sort(new Comparator<ColumnDefinition>() {
-			@Override
-			public int compare(ColumnDefinition o1, ColumnDefinition o2) {
-				return o1.getIndex().compareTo(o2.getIndex());
-			}
-		});
+	public ExportEngine getEngine() {
+		return engine;
 	}
 
 	/***
+	 * The engine writing the workbook. SXSSF (Default) buffers rows in temp files
+	 * and writes the workbook once all rows are in, STREAMING writes the xlsx
+	 * straight to the output stream as rows arrive. Must be set before calling
+	 * open().
 	 * 
-	 * @param stream
-	 * @param columns
-	 * @param sheetName
+	 * @param engine
 	 */
-	public ExcelExporter(OutputStream stream, List<ColumnDefinition> columns, String sheetName) {
-		this(stream, columns);
-		this.sheetName = sheetName;
+	public void setEngine(ExportEngine engine) {
+		this.engine = engine;
 	}
 
 	/***
-	 * Adds a list of data records to the queue to be exported to the excel sheet.
 	 * 
-	 * @param dataRecords
-	 * @throws IOException
+	 * @return The factory of the row sink replacing the engine or null.
 	 */
-	public void addRecords(List<T> dataRecords) throws IOException {
-		addRecords(dataRecords, false);
+	public RowSinkFactory getRowSinkFactory() {
+		return rowSinkFactory;
 	}
 
-	/**
-	 * Adds a list of data records to the queue and signals that there are more data
+	/***
+	 * Writes the export with another output format than the xlsx engines, e.g.
+	 * {@link CsvFormat#csv()}. Default is null, the engine writes the workbook.
+	 * Must be set before calling open().
 	 * 
-	 * @param dataRecords
-	 * @param isEndOfData true if no more records available false otherwise.
-	 * @throws IOException
+	 * @param rowSinkFactory
 	 */
-	@SneakyThrows(InterruptedException.class)
-	public void addRecords(List<T> dataRecords, boolean isEndOfData) throws IOException {
-		if (!isOpen())
-			throw new IOException("Exporter not open - call open() before attempting to send data ");
-		if (this.isEndOfData.get() || this.isWritingCompleted.get())
-			throw new IOException("Attempting to add data after exporter was closed");
-		// mem-safte wait until queue size goes belo max-queue-size
-		while (dataRecordsQueue.size() + dataRecords.size() > maxQueueSize) {
-			log.info("Waiting for queue to be written to excel.");
-			TimeUnit.MILLISECONDS.sleep(100);
-		}
-		log.info("Adding data records, size {}", dataRecordsQueue.size());
-		dataRecordsQueue.addAll(dataRecords);
-		if (isEndOfData)
-			closeData();
+	public void setRowSinkFactory(RowSinkFactory rowSinkFactory) {
+		this.rowSinkFactory = rowSinkFactory;
 	}
 
-	/**
-	 * Indicate that no more data are available
+	/***
+	 * 
+	 * @return Number of rows per sheet kept in memory by the SXSSF engine.
 	 */
-	public void closeData() {
-		this.isEndOfData.compareAndSet(false, true);
+	public int getRowAccessWindowSize() {
+		return rowAccessWindowSize;
 	}
 
 	/***
-	 * Create a cell
+	 * Number of rows per sheet kept in memory by the SXSSF engine before flushing
+	 * them to temp files. Larger windows use more memory and less disk writes.
+	 * Default is 100. Must be set before calling open().
 	 * 
-	 * @param row
-	 * @param columnCount
-	 * @param value
-	 * @param style
+	 * @param rowAccessWindowSize
 	 */
-	private void createCell(Row row, int columnCount, Object value, CellStyle style) {
-		Cell cell = row.createCell(columnCount);
-		if (value instanceof Integer) {
-			cell.setCellValue((Integer) value);
-		} else if (value instanceof Boolean) {
-			cell.setCellValue((Boolean) value);
-		} else if (value instanceof Double) {
-			cell.setCellValue((Double) value);
-		} else {
-			cell.setCellValue((String) value);
-		}
-		cell.setCellStyle(style);
+	public void setRowAccessWindowSize(int rowAccessWindowSize) {
+		this.rowAccessWindowSize = rowAccessWindowSize;
 	}
 
 	/***
-	 * Create a cell in a specific row , column with a value
 	 * 
-	 * @param row
-	 * @param columnCount
-	 * @param value
+	 * @return true if the SXSSF temp files are gzip compressed.
 	 */
-	private void createCell(Row row, int columnCount, Object value) {
-		Cell cell = row.createCell(columnCount);
-		if (value instanceof Integer) {
-			cell.setCellValue((Integer) value);
-		} else if (value instanceof Boolean) {
-			cell.setCellValue((Boolean) value);
-		} else if (value instanceof Double) {
-			cell.setCellValue((Double) value);
-		} else if (value instanceof Long) {
-			cell.setCellValue((Long) value);
-		} else if (value instanceof String) {
-			cell.setCellValue((String) value);
-		} else if (value != null) {
-			cell.setCellValue(value.toString());
-		}
+	public boolean isCompressTempFiles() {
+		return compressTempFiles;
 	}
 
 	/***
-	 * Creates a header if headers list is found and has values
+	 * Gzip the SXSSF sheet temp files, trading CPU for a fraction of the temp disk
+	 * used. Default is false. Must be set before calling open().
 	 * 
-	 * @param sheet
+	 * @param compressTempFiles
 	 */
-	private void writeHeaderLine(Sheet sheet) {
-
-		Row row = sheet.createRow(0);
-		int c = 0;
-		for (ColumnDefinition colDef : columns) {
-			createCell(row, c++, colDef.getHeader());
-		}
+	public void setCompressTempFiles(boolean compressTempFiles) {
+		this.compressTempFiles = compressTempFiles;
 	}
 
 	/***
-	 * Blocks until excel data is available or timeout Starts writing to the excel
-	 * sheet When done writes the workbook to the output stream and signals
-	 * completion.
 	 * 
-	 * @throws IOException
-	 * @throws ConflictException
-	 * @throws InterruptedException
-	 * @throws NotFoundException
+	 * @return true if the SXSSF engine writes strings to a shared strings table.
 	 */
-	@SneakyThrows(InterruptedException.class)
-	public void export() throws ConflictException {
-		try {
-			if (!isOpen())
-				throw new ConflictException("Exporter not open - call open() before attempting to send data ");
-			long startTime = System.currentTimeMillis();
-			// wait until we have data then create the workbook
-			log.info("Waiting for initial records to write ... {} sec remaining.", (dataWaitTimeout) / 1000);
-			while (dataRecordsQueue.isEmpty() && !isEndOfData.get()
-					&& (System.currentTimeMillis() - startTime) <= dataWaitTimeout) {
-				TimeUnit.MILLISECONDS.sleep(100);
-			}
-
-			if (dataRecordsQueue.isEmpty() && !isEndOfData.get()) {
-				throw new ConflictException("Timed out after " + dataWaitTimeout + " ms and no data provided!");
-			}
-			// write while user is not done or more records are available
-			while (!isEndOfData.get() || !dataRecordsQueue.isEmpty()) {
-				int rowCount = writeDataLines(activeSheet);
-				if (!isEndOfData.get() && rowCount >= maxRowsPerSheet)
-					openSheet();
-				if (!isEndOfData.get() && dataRecordsQueue.isEmpty()) {
-					log.info("Waiting for more records to write...");
-					TimeUnit.MILLISECONDS.sleep(50);
-				}
-			}
-			log.info("Writing workbook to stream {} rows ", activeSheet.getPhysicalNumberOfRows());
-			workbook.write(stream);
-		} catch (IOException ex) {
-			throw new ConflictException("Failure during export", ex);
-		} finally {
-			// stream writing completed
-			isWritingCompleted.set(true);
-		}
+	public boolean isUseSharedStringsTable() {
+		return useSharedStringsTable;
 	}
 
 	/***
-	 * Writes data records
+	 * Write strings to a shared strings table instead of inline. Repeated values
+	 * are stored once, giving smaller files, but the table is held in memory and
+	 * can not be shared by partitions written in parallel. Default is false. Must
+	 * be set before calling open().
 	 * 
-	 * @param sheet
-	 * @throws IOException
-	 * @returns rowCount on sheet
-	 */
-	private int writeDataLines(Sheet sheet) throws IOException {
-
-		int rowCount = sheet.getLastRowNum() + 1;
-		T dto;
-		while (rowCount <= maxRowsPerSheet && (dto = dataRecordsQueue.poll()) != null) {
-			Row row = sheet.createRow(rowCount++);
-			int currentColumnCount = 0;
-			for (ColumnDefinition colDef : columns) {
-				if (StringUtils.hasText(colDef.getProperty())) {
-					createCell(row, currentColumnCount++, getProperty(dto, colDef.getProperty()));
-				} else
-					createCell(row, currentColumnCount++, "");
-			}
-			if (rowCount % 100 == 0)
-				log.info("Writing data records {} , remaining in queue {}", rowCount, dataRecordsQueue.size());
-		}
-		return rowCount;
+	 * @param useSharedStringsTable
+	 */
+	public void setUseSharedStringsTable(boolean useSharedStringsTable) {
+		this.useSharedStringsTable = useSharedStringsTable;
 	}
 
-	/**
-	 * Create the workbook and sheet and writes header.
+	/***
+	 * 
+	 * @return The Deflater level the xlsx entries are compressed with.
 	 */
-	public void open() {
-		if (workbook != null)
-			return;
-		isEndOfData.set(false);
-		isWritingCompleted.set(false);
-		// create workbook
-		workbook = new SXSSFWorkbook(DEFAULT_BATCH_SIZE);
-		openSheet();
+	public int getCompressionLevel() {
+		return compressionLevel;
 	}
 
 	/***
-	 * Creates a new sheet with sheet name and sets active sheet. Every time this
-	 * function is called it creates a new sheet with same name suffixed by a number
+	 * The Deflater level the xlsx entries are compressed with, from 0 (stored
+	 * blocks, no compression) through 1 (fastest) to 9 (smallest). Low levels
+	 * suit internal consumers waiting on the file, the workbook is larger but
+	 * written in a fraction of the time. Default is -1, the Deflater default
+	 * (6). Must be set before calling open().
+	 * 
+	 * @param compressionLevel
 	 */
-	private void openSheet() {
-		int sheetsCount = workbook.getNumberOfSheets();
-		String genSheetName = sheetsCount == 0 ? sheetName : sheetName + "_" + sheetsCount;
-		activeSheet = workbook.createSheet(genSheetName);
-		writeHeaderLine(activeSheet);
+	public void setCompressionLevel(int compressionLevel) {
+		this.compressionLevel = compressionLevel;
 	}
 
-	private boolean isOpen() {
-		return (workbook != null  || !isWritingCompleted.get() );
+	/***
+	 * 
+	 * @return Number of threads compressing the SXSSF sheets.
+	 */
+	public int getCompressionThreads() {
+		return compressionThreads;
 	}
 
 	/***
-	 * Waits until excel is generated and written to the stream and closes the
-	 * workbook
+	 * Number of threads compressing the sheets when the SXSSF workbook is
+	 * written, the sheets are cut in chunks compressed in parallel. 1 compresses
+	 * on the writing thread. Default is 1. Must be set before calling open().
 	 * 
-	 * @throws ConflictException
-	 * @throws IOException
+	 * @param compressionThreads
 	 */
-	@Override
-	@SneakyThrows(InterruptedException.class)
-	public void close() {
-		// consumer closed so no more records will be added.
-		log.info("Closing exporter after all pending records are written.");
-		if (!isOpen()) {
-			log.warn("Exporter already closed! nothing to do.");
-			return;
-		}
-		int sleeping = 0;
-		while (!isEndOfData.get() || !isWritingCompleted.get()) {
-			// sleep while more records are available or not all records are written out.
-			if ((sleeping--) % 100 == 0)
-				log.info("Waiting for records to be written and data stream to be closed to close ...");
-			TimeUnit.MILLISECONDS.sleep(50);
-		}
-		try {
-			workbook.close();
-		} catch (IOException e) {
-			// throw new ConflictException(e);
-			log.error("Unexpected exception ", e);
-		}
-		// free file resources
-		if (workbook instanceof SXSSFWorkbook)
-			((SXSSFWorkbook) workbook).dispose();
-		workbook = null;
+	public void setCompressionThreads(int compressionThreads) {
+		this.compressionThreads = compressionThreads;
 	}
 
-	/**
-	 * Fetch a property from an object. For example of you wanted to get the foo
-	 * property on a bar object you would normally call {@code bar.getFoo()}. This
-	 * method lets you call it like {@code BeanUtil.getProperty(bar, "foo")}
+	/***
 	 * 
-	 * @param obj      The object who's property you want to fetch
-	 * @param property The property name
-	 * @return The value of the property or null if it does not exist.
-	 * @throws IOException
+	 * @return Executor the data producers run on.
 	 */
-	@SuppressWarnings("unchecked")
-	public Object getProperty(T obj, String property) throws IOException {
-		Object returnValue = null;
-
-		try {
-			String methodName = "get" + property.substring(0, 1).toUpperCase()
-					+ property.substring(1, property.length());
-			Class<T> clazz = (Class<T>) obj.getClass();
-			Method method = clazz.getMethod(methodName);
-			returnValue = method.invoke(obj);
-		} catch (Exception e) {
-			throw new IOException("Error reading property " + property, e);
-		}
-
-		return returnValue;
+	public Executor getExecutor() {
+		return executor;
 	}
 
 	/***
-	 * Asyncronously generate a report
+	 * Executor the data producers run on, one task per report (and per partition
+	 * of a partitioned report) that mostly waits on the data provider. Prefetched
+	 * pages and the partition writers run on it too, a bounded executor should
+	 * leave room for a writer and a producer per partition. Use
+	 * ExportExecutors.virtualThreads() for a virtual thread per export on Java 21.
+	 * Default is a platform thread per producer, off the common fork join pool.
 	 * 
-	 * @param A function that takes as parameter a Pageable and provides a slice.
-	 *          Typically a repository method of the format: Slice<T>
-	 *          methodName(....params, Pageable pageable)
-	 * @throws ConflictException
+	 * @param executor
 	 */
-	public void generateReportFromDataProvider(Function<PageRequest, Slice<T>> pagedDataProvider)
-			throws ConflictException {
-		generateReportFromDataProvider(pagedDataProvider, null);
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
 	}
 
 	/***
-	 * Asyncronously generate a report
 	 * 
-	 * @param A      function that takes as parameter a Pageable and provides a
-	 *               slice. Typically a repository method of the format: Slice<T>
-	 *               methodName(....params, Pageable pageable)
-	 * @param mapper A function that maps the data from provider to record data type
-	 *               or null if both are the same.
-	 * @throws ConflictException
+	 * @return Registry the export meters are registered in.
 	 */
-	public <D> void generateReportFromDataProvider(Function<PageRequest, Slice<D>> pagedDataProvider,
-			Function<D, T> mapper) throws ConflictException {
-		CompletableFuture<Integer> runner = CompletableFuture.supplyAsync(() -> {
-			try {
-				return generateReport(pagedDataProvider, mapper);
-			} catch (ConflictException e) {
-				throw new CompletionException(e);
-			}
-		});
-		this.export();
-
-		try {
-			Integer numberOfRecords = runner.join();
-			log.info("Report generated for {} records ", numberOfRecords);
-		} catch (CompletionException ex) {
-			// convert the inner exception to a conflict exception
-			log.error("Report generation failed", ex.getCause());
-			if (ex.getCause() instanceof ConflictException)
-				throw (ConflictException) ex.getCause();
-			else
-				throw new ConflictException("Unknown exception occured while generating the report", ex.getCause());
-		}
-
+	public MeterRegistry getMeterRegistry() {
+		return meterRegistry;
 	}
 
 	/***
-	 * Scrolls through the data provider and builds the excel report. NOTE: This
-	 * method is running asyncrhonously
+	 * Registry the export meters are registered in, tagged with the report name
+	 * and engine. Default is the Micrometer global registry. Must be set before
+	 * calling open().
 	 * 
-	 * @param pagedDataProvider
-	 * @return
-	 * @throws ConflictException
+	 * @param meterRegistry
 	 */
-	@SuppressWarnings("unchecked")
-	private <D> Integer generateReport(Function<PageRequest, Slice<D>> pagedDataProvider, Function<D, T> mapper)
-			throws ConflictException {
+	public void setMeterRegistry(MeterRegistry meterRegistry) {
+		this.meterRegistry = meterRegistry;
+	}
 
-		int totalCount = 0;
+	/***
+	 * 
+	 * @return Registry of the export observations.
+	 */
+	public ObservationRegistry getObservationRegistry() {
+		return observationRegistry;
+	}
+
+	/***
+	 * Registry of the export observations, each export is observed from open() to
+	 * close() (e.g. as a tracing span). Default is a no-op registry. Must be set
+	 * before calling open().
+	 * 
+	 * @param observationRegistry
+	 */
+	public void setObservationRegistry(ObservationRegistry observationRegistry) {
+		this.observationRegistry = observationRegistry;
+	}
+
+	/***
+	 * 
+	 * @return Bytes written to the output stream by the last export, known once
+	 *         the exporter is closed.
+	 */
+	public long getBytesWritten() {
+		return bytesWritten;
+	}
+
+	/***
+	 * 
+	 * @return Directory the SXSSF temp files are created in, null for
+	 *         java.io.tmpdir.
+	 */
+	public Path getTempDirectory() {
+		return tempDirectory;
+	}
+
+	/***
+	 * Directory the SXSSF temp files are created in (e.g. a tmpfs mount). Each
+	 * export uses a directory of its own under it that is deleted on close.
+	 * Default is null for java.io.tmpdir. Must be set before calling open().
+	 * 
+	 * @param tempDirectory
+	 */
+	public void setTempDirectory(Path tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	/***
+	 * 
+	 * @return Bytes of temp disk used by the export, accounted once the workbook
+	 *         is written.
+	 */
+	public long getTempDiskBytes() {
+		return rowSink != null ? Math.max(tempDiskBytes, rowSink.getTempDiskBytes()) : tempDiskBytes;
+	}
+
+	/***
+	 * 
+	 * @return Number of pages mapped concurrently.
+	 */
+	public int getMappingParallelism() {
+		return mappingParallelism;
+	}
+
+	/***
+	 * The number of workers mapping pages from the data provider type to the
+	 * record type. With more than 1 pages are mapped on a pool of workers,
+	 * overlapping fetching and writing, and still handed to the writer in order.
+	 * Useful for heavy mappers. Default is 1, pages are mapped on the producer
+	 * thread.
+	 * 
+	 * @param mappingParallelism
+	 */
+	public void setMappingParallelism(int mappingParallelism) {
+		this.mappingParallelism = mappingParallelism;
+	}
+
+	/***
+	 * 
+	 * @return Maximum duration of an export.
+	 */
+	public Duration getDeadline() {
+		return deadline;
+	}
+
+	/***
+	 * The maximum duration of an export counted from open(), once passed the
+	 * export is cancelled. Default is null, no deadline. Must be set before
+	 * calling open().
+	 * 
+	 * @param deadline
+	 */
+	public void setDeadline(Duration deadline) {
+		this.deadline = deadline;
+	}
+
+	/***
+	 * Released when exporting to the stream completed
+	 */
+	private CountDownLatch writingCompleted = new CountDownLatch(1);
+
+	/***
+	 * 
+	 * @param stream  output stream to write to
+	 * @param headers optional ordered list of headers to add to the sheet.
+	 * @param ordered list of column definitions
+	 */
+	public ExcelExporter(OutputStream stream, List<ColumnDefinition> columns) {
+		this.stream = stream;
+		this.columns = columns;
+		this.columns.sort(new Comparator<ColumnDefinition>() {
+			@Override
+			public int compare(ColumnDefinition o1, ColumnDefinition o2) {
+				return o1.getIndex().compareTo(o2.getIndex());
+			}
+		});
+	}
+
+	/***
+	 * 
+	 * @param stream
+	 * @param columns
+	 * @param sheetName
+	 */
+	public ExcelExporter(OutputStream stream, List<ColumnDefinition> columns, String sheetName) {
+		this(stream, columns);
+		this.sheetName = sheetName;
+	}
+
+	/***
+	 * 
+	 * @param stream
+	 * @param columns
+	 * @param sheetName
+	 * @param recordClass class of the records used to resolve the column
+	 *                    properties on open()
+	 */
+	public ExcelExporter(OutputStream stream, List<ColumnDefinition> columns, String sheetName,
+			Class<? extends T> recordClass) {
+		this(stream, columns, sheetName);
+		this.recordClass = recordClass;
+	}
+
+	/***
+	 * @return The class of the exported records or null if resolved from the first
+	 *         record
+	 */
+	public Class<? extends T> getRecordClass() {
+		return recordClass;
+	}
+
+	/***
+	 * The class of the exported records. When set the column properties are
+	 * resolved on open() and a misspelled property fails there, otherwise they are
+	 * resolved from the class of the first record written.
+	 * 
+	 * @param recordClass
+	 */
+	public void setRecordClass(Class<? extends T> recordClass) {
+		this.recordClass = recordClass;
+	}
+
+	/***
+	 * Adds a list of data records to the queue to be exported to the excel sheet.
+	 * 
+	 * @param dataRecords
+	 * @throws IOException
+	 */
+	public void addRecords(List<T> dataRecords) throws IOException {
+		addRecords(dataRecords, false);
+	}
+
+	/**
+	 * Adds a list of data records to the queue and signals that there are more
+	 * data. Blocks while the queue is full until the writer frees up space. The
+	 * list is queued as is and must not be modified afterwards.
+	 * 
+	 * @param dataRecords
+	 * @param isEndOfData true if no more records available false otherwise.
+	 * @throws IOException
+	 */
+	@SneakyThrows(InterruptedException.class)
+	public void addRecords(List<T> dataRecords, boolean isEndOfData) throws IOException {
+		if (!isOpen() || dataRecordsQueue == null)
+			throw new IOException("Exporter not open - call open() before attempting to send data ");
+		if (!dataRecords.isEmpty()) {
+			log.debug("Adding data records, size {}", dataRecords.size());
+			// mem-safe wait until queue size goes below max-queue-size
+			long start = System.nanoTime();
+			if (!dataRecordsQueue.put(new RecordBatch<T>(dataRecords)))
+				throw closedQueueException();
+			metrics.producerBlocked(System.nanoTime() - start);
+		} else if (dataRecordsQueue.isClosed())
+			throw new IOException("Attempting to add data after exporter was closed");
+		if (isEndOfData)
+			closeData();
+	}
+
+	/***
+	 * Adds a columnar batch to the queue to be exported to the excel sheet.
+	 * 
+	 * @param batch
+	 * @throws IOException
+	 */
+	public void addBatch(ColumnarBatch batch) throws IOException {
+		addBatch(batch, false);
+	}
+
+	/***
+	 * Adds a columnar batch to the queue, its cells are written straight from the
+	 * column arrays without a record per row. Blocks while the queue is full until
+	 * the writer frees up space. The batch is queued as is and must not be
+	 * modified afterwards.
+	 * 
+	 * @param batch
+	 * @param isEndOfData true if no more records available false otherwise.
+	 * @throws IOException
+	 */
+	public void addBatch(ColumnarBatch batch, boolean isEndOfData) throws IOException {
+		if (!isOpen() || dataRecordsQueue == null)
+			throw new IOException("Exporter not open - call open() before attempting to send data ");
+		if (batch.getColumnCount() > columns.size())
+			throw new IOException(
+					"Batch has " + batch.getColumnCount() + " columns, only " + columns.size() + " are defined");
+		if (batch.getRowCount() > 0) {
+			log.debug("Adding columnar batch, size {}", batch.getRowCount());
+			putBatch(batch);
+		} else if (dataRecordsQueue.isClosed())
+			throw new IOException("Attempting to add data after exporter was closed");
+		if (isEndOfData)
+			closeData();
+	}
+
+	/***
+	 * Adds a batch to the queue, blocking while the queue is full
+	 * 
+	 * @param batch
+	 * @throws IOException
+	 */
+	@SneakyThrows(InterruptedException.class)
+	private void putBatch(RowBatch batch) throws IOException {
+		long start = System.nanoTime();
+		if (!dataRecordsQueue.put(batch))
+			throw closedQueueException();
+		metrics.producerBlocked(System.nanoTime() - start);
+	}
+
+	private IOException closedQueueException() {
+		String reason = cancelReason;
+		return reason != null ? new InterruptedIOException("Export cancelled: " + reason)
+				: new IOException("Attempting to add data after exporter was closed");
+	}
+
+	/**
+	 * Indicate that no more data are available
+	 */
+	public void closeData() {
+		if (dataRecordsQueue != null)
+			dataRecordsQueue.close();
+	}
+
+	/***
+	 * Creates a header if headers list is found and has values
+	 * 
+	 * @param sheet
+	 */
+	private void writeHeaderLine(SheetSink sheet) throws IOException {
+
+		sheet.startRow(0);
+		int c = 0;
+		for (ColumnDefinition colDef : columns) {
+			if (colDef.getHeader() != null)
+				sheet.writeString(c, colDef.getHeader(), RowSink.DEFAULT_STYLE);
+			c++;
+		}
+		sheet.endRow();
+	}
+
+	/***
+	 * Blocks until excel data is available or timeout Starts writing to the excel
+	 * sheet When done writes the workbook to the output stream and signals
+	 * completion. The writer wakes as soon as a page is queued and waits at most
+	 * dataWaitTimeout for each page.
+	 * 
+	 * @throws IOException
+	 * @throws ConflictException
+	 * @throws InterruptedException
+	 * @throws NotFoundException
+	 */
+	@SuppressWarnings("unchecked")
+	@SneakyThrows(InterruptedException.class)
+	public void export() throws ConflictException {
+		try {
+			if (!isOpen() || dataRecordsQueue == null)
+				throw new ConflictException("Exporter not open - call open() before attempting to send data ");
+			log.info("Waiting for initial records to write ... {} sec remaining.", (dataWaitTimeout) / 1000);
+			// write while user is not done or more records are available
+			RowBatch batch;
+			long waitStart = System.nanoTime();
+			while ((batch = dataRecordsQueue.take(dataWaitTimeout, TimeUnit.MILLISECONDS)) != null) {
+				metrics.writerStarved(System.nanoTime() - waitStart);
+				metrics.queueDepth(dataRecordsQueue.weight());
+				if (batch instanceof ColumnarBatch)
+					writeColumnarLines((ColumnarBatch) batch);
+				else if (batch instanceof ResultSetBatch)
+					writeResultSetLines((ResultSetBatch) batch);
+				else
+					writeDataLines(((RecordBatch<T>) batch).records);
+				rowsWritten += batch.getRowCount();
+				metrics.rowsWritten(batch.getRowCount());
+				waitStart = System.nanoTime();
+			}
+			// a cancel aborts the queue, ending the loop early
+			if (cancelReason != null)
+				throw cancellation();
+			if (ownsWorkbook)
+				writeWorkbook();
+		} catch (TimeoutException ex) {
+			ConflictException timeout = new ConflictException(
+					"Timed out after " + dataWaitTimeout + " ms and no data provided!");
+			metrics.error(timeout);
+			throw timeout;
+		} catch (IOException ex) {
+			if (cancelReason != null)
+				throw cancellation();
+			metrics.error(ex);
+			throw new ConflictException("Failure during export", ex);
+		} finally {
+			// release any producer still waiting on a queue that will not be read
+			if (dataRecordsQueue != null)
+				dataRecordsQueue.abort();
+			// stream writing completed
+			writingCompleted.countDown();
+		}
+	}
+
+	/***
+	 * Writes the workbook to the output stream
+	 * 
+	 * @throws IOException
+	 */
+	private void writeWorkbook() throws IOException {
+		log.info("Writing workbook to stream {} rows ", activeRowCount);
+		long start = System.nanoTime();
+		rowSink.finish();
+		metrics.workbookWrite(System.nanoTime() - start);
+		tempDiskBytes = rowSink.getTempDiskBytes();
+	}
+
+	/***
+	 * Writes data records to the active sheet, opening new sheets whenever the
+	 * active one reaches maxRowsPerSheet
+	 * 
+	 * @param dataRecords
+	 * @throws IOException
+	 * @returns rowCount on the active sheet
+	 */
+	private int writeDataLines(List<T> dataRecords) throws IOException {
+
+		if (writers == null && !dataRecords.isEmpty()) {
+			try {
+				writers = createWriters(dataRecords.get(0).getClass());
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Error resolving column properties", e);
+			}
+		}
+		for (T dto : dataRecords) {
+			if (cancelReason != null)
+				throw new InterruptedIOException("Export cancelled: " + cancelReason);
+			if (activeRowCount > sheetRowLimit)
+				openSheet();
+			activeSheet.startRow(activeRowCount++);
+			for (ColumnWriter writer : writers)
+				writer.write(activeSheet, dto);
+			activeSheet.endRow();
+		}
+		log.debug("Wrote {} data records, {} on the active sheet", dataRecords.size(), activeRowCount);
+		return activeRowCount;
+	}
+
+	/***
+	 * Writes the rows of a columnar batch to the active sheet, opening new sheets
+	 * whenever the active one reaches maxRowsPerSheet
+	 * 
+	 * @param batch
+	 * @throws IOException
+	 */
+	private void writeColumnarLines(ColumnarBatch batch) throws IOException {
+		for (int row = 0; row < batch.getRowCount(); row++) {
+			if (cancelReason != null)
+				throw new InterruptedIOException("Export cancelled: " + cancelReason);
+			if (activeRowCount > sheetRowLimit)
+				openSheet();
+			activeSheet.startRow(activeRowCount++);
+			batch.writeRow(activeSheet, row, columnStyles);
+			activeSheet.endRow();
+		}
+		log.debug("Wrote columnar batch of {} rows, {} on the active sheet", batch.getRowCount(), activeRowCount);
+	}
+
+	/***
+	 * Writes the rows read from a result set to the active sheet, opening new
+	 * sheets whenever the active one reaches maxRowsPerSheet
+	 * 
+	 * @param batch
+	 * @throws IOException
+	 */
+	private void writeResultSetLines(ResultSetBatch batch) throws IOException {
+		for (int row = 0; row < batch.getRowCount(); row++) {
+			if (cancelReason != null)
+				throw new InterruptedIOException("Export cancelled: " + cancelReason);
+			if (activeRowCount > sheetRowLimit)
+				openSheet();
+			activeSheet.startRow(activeRowCount++);
+			batch.writeRow(activeSheet, row, columnStyles, dateStyle, dateTimeStyle);
+			activeSheet.endRow();
+		}
+		log.debug("Wrote result set batch of {} rows, {} on the active sheet", batch.getRowCount(), activeRowCount);
+	}
+
+	/***
+	 * Resolves the accessors of the column properties on the record class and
+	 * chooses the column writers from their types. Object[] records hold the
+	 * value of each column at its position.
+	 * 
+	 * @param clazz
+	 * @return writers aligned with the columns
+	 * @throws IllegalArgumentException if a property is not found
+	 */
+	private ColumnWriter[] createWriters(Class<?> clazz) {
+		ColumnWriter[] created = new ColumnWriter[columns.size()];
+		for (int c = 0; c < created.length; c++) {
+			String property = columns.get(c).getProperty();
+			if (clazz == Object[].class) {
+				// arrays of column values, e.g. rows of a ColumnProjection
+				created[c] = StringUtils.hasText(property)
+						? ColumnWriter.ofElement(c, columnStyles[c], dateStyle, dateTimeStyle)
+						: ColumnWriter.of(c, null, columnStyles[c], dateStyle, dateTimeStyle);
+				continue;
+			}
+			PropertyAccessor accessor = StringUtils.hasText(property) ? PropertyAccessor.of(clazz, property) : null;
+			created[c] = ColumnWriter.of(c, accessor, columnStyles[c], dateStyle, dateTimeStyle);
+		}
+		return created;
+	}
+
+	/***
+	 * Resolves the styles of the column formats, once per workbook
+	 */
+	private void resolveColumnStyles() {
+		columnStyles = new int[columns.size()];
+		for (int c = 0; c < columnStyles.length; c++)
+			columnStyles[c] = rowSink.resolveStyle(columns.get(c).getFormat());
+		dateStyle = rowSink.resolveStyle(DEFAULT_DATE_FORMAT);
+		dateTimeStyle = rowSink.resolveStyle(DEFAULT_DATE_TIME_FORMAT);
+	}
+
+	/**
+	 * Create the workbook and sheet and writes header. Resolves the column
+	 * properties when the record class is known and the column formats.
+	 * 
+	 * @throws ConflictException if a column property is not found on the record
+	 *                           class
+	 */
+	public void open() throws ConflictException {
+		if (rowSink != null)
+			return;
+		writers = null;
+		if (recordClass != null && recordClass != Object[].class) {
+			// fail before creating the workbook, writers are chosen once styles are known
+			try {
+				for (ColumnDefinition column : columns)
+					if (StringUtils.hasText(column.getProperty()))
+						PropertyAccessor.of(recordClass, column.getProperty());
+			} catch (IllegalArgumentException e) {
+				throw new ConflictException("Invalid column definition: " + e.getMessage(), e);
+			}
+		}
+		dataRecordsQueue = createQueue();
+		writingCompleted = new CountDownLatch(1);
+		cancelReason = null;
+		workbookDiscarded = false;
+		metrics = new ExportMetrics(meterRegistry, observationRegistry, sheetName,
+				rowSinkFactory != null ? rowSinkFactory.getName() : engine.name(), maxQueueBytes > 0);
+		metrics.start();
+		// a failing write, typically the client going away, cancels the export
+		countingStream = new CountingOutputStream(stream,
+				e -> cancel("Writing to the output stream failed: " + e.getMessage()));
+		rowsWritten = 0;
+		// create workbook
+		try {
+			if (rowSinkFactory != null)
+				rowSink = rowSinkFactory.create(countingStream);
+			else
+				rowSink = engine == ExportEngine.STREAMING ? new StreamingXlsxSink(compressionLevel, countingStream)
+						: new SxssfRowSink(rowAccessWindowSize, compressTempFiles, useSharedStringsTable,
+								tempDirectory, compressionLevel, compressionThreads, countingStream);
+			sheetRowLimit = rowSink.isSingleSheet() ? Integer.MAX_VALUE : maxRowsPerSheet;
+			resolveColumnStyles();
+			if (recordClass != null)
+				writers = createWriters(recordClass);
+			sheetsOpened = 0;
+			openSheet();
+		} catch (IOException e) {
+			metrics.error(e);
+			metrics.stop(0, 0, 0);
+			throw new ConflictException("Failed to open the workbook", e);
+		}
+		if (deadline != null)
+			deadlineExpiry = DEADLINE_TIMER.schedule(() -> cancel("Deadline of " + deadline + " exceeded"),
+					deadline.toNanos(), TimeUnit.NANOSECONDS);
+	}
+
+	/***
+	 * Opens a partition exporter on the parent's workbook
+	 * 
+	 * @param parent
+	 * @param firstSheet sheet to start writing to or null to create one
+	 */
+	private void openPartition(ExcelExporter<T> parent, SheetSink firstSheet) throws IOException {
+		maxRowsPerSheet = parent.maxRowsPerSheet;
+		sheetRowLimit = parent.sheetRowLimit;
+		dataWaitTimeout = parent.dataWaitTimeout;
+		maxQueueSize = parent.maxQueueSize;
+		maxQueueBytes = parent.maxQueueBytes;
+		recordSizeEstimator = parent.recordSizeEstimator;
+		dataFetchSize = parent.dataFetchSize;
+		prefetchDepth = parent.prefetchDepth;
+		executor = parent.executor;
+		mappingParallelism = parent.mappingParallelism;
+		writers = parent.writers;
+		columnStyles = parent.columnStyles;
+		dateStyle = parent.dateStyle;
+		dateTimeStyle = parent.dateTimeStyle;
+		metrics = parent.metrics;
+		ownsWorkbook = false;
+		failOnNoData = false;
+		dataRecordsQueue = createQueue();
+		writingCompleted = new CountDownLatch(1);
+		rowSink = parent.rowSink;
+		sheetsOpened = 0;
+		if (firstSheet != null) {
+			activeSheet = firstSheet;
+			activeRowCount = parent.activeRowCount;
+			sheetsOpened++;
+		} else
+			openSheet();
+	}
+
+	/***
+	 * Creates a new sheet with sheet name and sets active sheet. Every time this
+	 * function is called it creates a new sheet with same name suffixed by a number
+	 */
+	private void openSheet() throws IOException {
+		String genSheetName = sheetsOpened == 0 ? sheetName : sheetName + "_" + sheetsOpened;
+		activeSheet = rowSink.openSheet(genSheetName);
+		sheetsOpened++;
+		writeHeaderLine(activeSheet);
+		activeRowCount = 1;
+	}
+
+	private boolean isOpen() {
+		return (rowSink != null  || writingCompleted.getCount() > 0 );
+	}
+
+	/***
+	 * Waits until excel is generated and written to the stream and closes the
+	 * workbook
+	 * 
+	 * @throws ConflictException
+	 * @throws IOException
+	 */
+	@Override
+	@SneakyThrows(InterruptedException.class)
+	public void close() {
+		// consumer closed so no more records will be added.
+		log.info("Closing exporter after all pending records are written.");
+		if (rowSink == null || !isOpen()) {
+			log.warn("Exporter already closed! nothing to do.");
+			return;
+		}
+		// wait while not all records are written out.
+		while (!writingCompleted.await(dataWaitTimeout, TimeUnit.MILLISECONDS)) {
+			log.info("Waiting for records to be written and data stream to be closed to close ...");
+		}
+		if (deadlineExpiry != null) {
+			deadlineExpiry.cancel(false);
+			deadlineExpiry = null;
+		}
+		if (ownsWorkbook) {
+			if (!workbookDiscarded)
+				tempDiskBytes = rowSink.getTempDiskBytes();
+			try {
+				// free file resources
+				if (!workbookDiscarded)
+					rowSink.close();
+			} catch (IOException e) {
+				// throw new ConflictException(e);
+				log.error("Unexpected exception ", e);
+			}
+			bytesWritten = countingStream.getCount();
+			queuePeak = dataRecordsQueue.peakWeight();
+			metrics.stop(queuePeak, bytesWritten, tempDiskBytes);
+			log.info("Export of {} closed, {} bytes written, {} bytes of temp disk used, queue peaked at {} {}",
+					sheetName, bytesWritten, tempDiskBytes, queuePeak, maxQueueBytes > 0 ? "bytes" : "records");
+		}
+		rowSink = null;
+	}
+
+	/**
+	 * Fetch a property from an object. For example of you wanted to get the foo
+	 * property on a bar object you would normally call {@code bar.getFoo()}. This
+	 * method lets you call it like {@code BeanUtil.getProperty(bar, "foo")}. The
+	 * accessor is resolved once per class and property and then cached.
+	 * 
+	 * @param obj      The object who's property you want to fetch
+	 * @param property The property name or a dot separated path
+	 * @return The value of the property
+	 * @throws IOException if the property does not exist or can not be read
+	 */
+	public Object getProperty(T obj, String property) throws IOException {
+		try {
+			return PropertyAccessor.of(obj.getClass(), property).get(obj);
+		} catch (Exception e) {
+			throw new IOException("Error reading property " + property, e);
+		}
+	}
+
+	/***
+	 * Cancels the running export. The data provider stops before its next page,
+	 * a running JDBC query is cancelled and the writer stops before its next row
+	 * and deletes the temp files without writing the workbook, so connections and
+	 * disk are released right away. The generate methods and export() then fail
+	 * with a ConflictException. May be called from any thread, it is called on
+	 * its own when writing to the output stream fails (e.g. the client went away)
+	 * or the deadline passes.
+	 * 
+	 * @param reason logged and reported by the failure
+	 * @return false if the export was not running or already cancelled
+	 */
+	public boolean cancel(String reason) {
+		synchronized (this) {
+			if (cancelReason != null || writingCompleted.getCount() == 0 || dataRecordsQueue == null)
+				return false;
+			cancelReason = reason;
+		}
+		log.warn("Cancelling export of {}: {}", sheetName, reason);
+		// wakes a writer waiting for data and fails producers waiting for room
+		dataRecordsQueue.abort();
+		Statement statement = runningStatement;
+		if (statement != null) {
+			try {
+				statement.cancel();
+			} catch (SQLException e) {
+				log.warn("Failed to cancel the query", e);
+			}
+		}
+		for (ExcelExporter<T> partition : runningPartitions)
+			partition.cancel(reason);
+		// wakes a producer waiting on a page still being fetched
+		runningPrefetches.forEach(page -> page.cancel(true));
+		return true;
+	}
+
+	/***
+	 * Cancels the running export
+	 * 
+	 * @return false if the export was not running or already cancelled
+	 * @see #cancel(String)
+	 */
+	public boolean cancel() {
+		return cancel("Cancelled");
+	}
+
+	/***
+	 * 
+	 * @return true if the export was cancelled
+	 */
+	public boolean isCancelled() {
+		return cancelReason != null;
+	}
+
+	/***
+	 * Stops a data provider of a cancelled export between pages
+	 * 
+	 * @throws ConflictException if the export was cancelled
+	 */
+	private void checkCancelled() throws ConflictException {
+		if (cancelReason != null)
+			throw new ConflictException("Export cancelled: " + cancelReason);
+	}
+
+	/***
+	 * Discards the workbook of a cancelled export, deleting its temp files
+	 * 
+	 * @return the failure to report
+	 */
+	private ConflictException cancellation() {
+		ConflictException cancelled = new ConflictException("Export cancelled: " + cancelReason);
+		metrics.error(cancelled);
+		if (ownsWorkbook && !workbookDiscarded) {
+			tempDiskBytes = rowSink.getTempDiskBytes();
+			workbookDiscarded = true;
+			try {
+				rowSink.close();
+			} catch (IOException e) {
+				log.error("Failed to discard the workbook", e);
+			}
+		}
+		return cancelled;
+	}
+
+	/***
+	 * Asyncronously generate a report
+	 * 
+	 * @param A function that takes as parameter a Pageable and provides a slice.
+	 *          Typically a repository method of the format: Slice<T>
+	 *          methodName(....params, Pageable pageable)
+	 * @throws ConflictException
+	 */
+	public void generateReportFromDataProvider(Function<PageRequest, Slice<T>> pagedDataProvider)
+			throws ConflictException {
+		generateReportFromDataProvider(pagedDataProvider, null);
+	}
+
+	/***
+	 * Asyncronously generate a report
+	 * 
+	 * @param A      function that takes as parameter a Pageable and provides a
+	 *               slice. Typically a repository method of the format: Slice<T>
+	 *               methodName(....params, Pageable pageable)
+	 * @param mapper A function that maps the data from provider to record data type
+	 *               or null if both are the same.
+	 * @throws ConflictException
+	 */
+	public <D> void generateReportFromDataProvider(Function<PageRequest, Slice<D>> pagedDataProvider,
+			Function<D, T> mapper) throws ConflictException {
+		runReport(() -> generateReport(pagedDataProvider, mapper));
+	}
+
+	/***
+	 * Generate a report from partitions of the data (e.g. key ranges) exported in
+	 * parallel. Each partition has its own producer and its own writer filling its
+	 * own sheet(s) at the same time, the sheets are written as one workbook once
+	 * all partitions are done. Each partition queues up to maxQueueSize records.
+	 * 
+	 * @param partitions            the partitions, one sheet each in order. The
+	 *                              first partition is written to the report
+	 *                              sheet, others to the report sheet name
+	 *                              suffixed by _P and the partition number.
+	 * @param partitionDataProvider A function that takes a partition and a
+	 *                              Pageable and provides a slice of the partition
+	 *                              data.
+	 * @param mapper                A function that maps the data from provider to
+	 *                              record data type or null if both are the same.
+	 * @throws ConflictException
+	 */
+	public <P, D> void generateReportFromPartitions(List<P> partitions,
+			BiFunction<P, PageRequest, Slice<D>> partitionDataProvider, Function<D, T> mapper)
+			throws ConflictException {
+		if (!isOpen() || dataRecordsQueue == null)
+			throw new ConflictException("Exporter not open - call open() before attempting to send data ");
+		List<ExcelExporter<T>> partitionExporters = new ArrayList<ExcelExporter<T>>();
+		List<FutureTask<Integer>> runs = new ArrayList<FutureTask<Integer>>();
+		try {
+			if (!rowSink.supportsConcurrentSheets())
+				throw new ConflictException(
+						"Partitioned export needs concurrent sheets, not supported by the streaming engine, a shared strings table or delimited text");
+			// sheets are created upfront so they appear in partition order
+			for (int i = 0; i < partitions.size(); i++) {
+				ExcelExporter<T> partitionExporter = new ExcelExporter<T>(stream, columns,
+						i == 0 ? sheetName : sheetName + "_P" + i);
+				partitionExporter.openPartition(this, i == 0 ? activeSheet : null);
+				partitionExporters.add(partitionExporter);
+			}
+			runningPartitions = partitionExporters;
+			if (cancelReason != null)
+				throw cancellation();
+			// the partition writers run on the executor, each starting its producer there
+			for (int i = 0; i < partitions.size(); i++) {
+				P partition = partitions.get(i);
+				ExcelExporter<T> partitionExporter = partitionExporters.get(i);
+				FutureTask<Integer> run = new FutureTask<Integer>(() -> partitionExporter.runReport(
+						() -> partitionExporter.generateReport(
+								pageable -> partitionDataProvider.apply(partition, pageable), mapper)));
+				runs.add(run);
+				executor.execute(run);
+			}
+			int totalCount = 0;
+			ConflictException failure = null;
+			for (FutureTask<Integer> run : runs) {
+				// written here when the executor has not started it yet
+				run.run();
+				try {
+					totalCount += run.get();
+				} catch (ExecutionException ex) {
+					if (failure == null)
+						failure = ex.getCause() instanceof ConflictException ? (ConflictException) ex.getCause()
+								: new ConflictException("Partition export failed", ex.getCause());
+				}
+			}
+			if (cancelReason != null)
+				throw cancellation();
+			if (failure != null) {
+				metrics.error(failure);
+				throw failure;
+			}
+			if (totalCount == 0)
+				throw new ConflictException("No data found to generate report.");
+			log.info("Partitioned report generated for {} records in {} partitions", totalCount, partitions.size());
+			// group the overflow sheets created on the fly with their partition
+			int position = 0;
+			for (ExcelExporter<T> partitionExporter : partitionExporters) {
+				for (int k = 0; k < partitionExporter.sheetsOpened; k++)
+					rowSink.moveSheet(k == 0 ? partitionExporter.sheetName : partitionExporter.sheetName + "_" + k,
+							position++);
+			}
+			writeWorkbook();
+		} catch (IOException ex) {
+			if (cancelReason != null)
+				throw cancellation();
+			throw new ConflictException("Failure during export", ex);
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new ConflictException("Interrupted waiting for the partitions", ex);
+		} finally {
+			// partitions still writing after a failure are interrupted
+			runs.forEach(run -> run.cancel(true));
+			runningPartitions = List.of();
+			for (ExcelExporter<T> partitionExporter : partitionExporters) {
+				// partitions that never started writing
+				if (partitionExporter.writingCompleted.getCount() > 0) {
+					partitionExporter.dataRecordsQueue.abort();
+					partitionExporter.writingCompleted.countDown();
+				}
+				partitionExporter.close();
+			}
+			closeData();
+			dataRecordsQueue.abort();
+			writingCompleted.countDown();
+		}
+	}
+
+	/***
+	 * Asyncronously generate a report using keyset (seek) pagination. Each page is
+	 * fetched with the key of the last record of the previous page so every fetch
+	 * costs the same however deep into the data it is, unlike offset pages.
+	 * 
+	 * @param keysetDataProvider A function that takes the last key read (null for
+	 *                           the first page) and the page size and returns the
+	 *                           next records ordered by key. Typically a
+	 *                           repository method of the format: List<T>
+	 *                           findByKeyGreaterThanOrderByKey(key, Pageable)
+	 * @param keyExtractor       A function returning the sort key of a record
+	 * @param mapper             A function that maps the data from provider to
+	 *                           record data type or null if both are the same.
+	 * @throws ConflictException
+	 */
+	public <K, D> void generateReportFromKeysetProvider(BiFunction<K, Integer, List<D>> keysetDataProvider,
+			Function<D, K> keyExtractor, Function<D, T> mapper) throws ConflictException {
+		runReport(() -> generateKeysetReport(keysetDataProvider, keyExtractor, mapper, new AtomicReference<K>()));
+	}
+
+	/***
+	 * Generates a delta report of the records added since the last run. The
+	 * records are read with keyset pagination starting after the watermark saved
+	 * for the report, and the key of the last record exported is saved as the new
+	 * watermark once the workbook is written. The first run exports everything
+	 * and a run with no new records writes the headers only. <br>
+	 * The key must be unique and increasing for new records, e.g. an identity
+	 * column. An updated-at column can be used as part of a composite key with
+	 * the id to break ties.
+	 * 
+	 * @param watermarkStore     store of the watermarks
+	 * @param reportId           stable name the watermark is saved under, e.g.
+	 *                           "users-delta". A changed name starts over from
+	 *                           the first record, so it should not be derived
+	 *                           from the columns or headers.
+	 * @param keyParser          A function parsing a watermark saved as the
+	 *                           string form of a key, e.g. Long::valueOf
+	 * @param keysetDataProvider A function that takes the last key read (null for
+	 *                           the first page) and the page size and returns the
+	 *                           next records ordered by key.
+	 * @param keyExtractor       A function returning the sort key of a record
+	 * @param mapper             A function that maps the data from provider to
+	 *                           record data type or null if both are the same.
+	 * @return number of records exported
+	 * @throws ConflictException
+	 */
+	public <K, D> int generateDeltaReportFromKeysetProvider(WatermarkStore watermarkStore, String reportId,
+			Function<String, K> keyParser, BiFunction<K, Integer, List<D>> keysetDataProvider,
+			Function<D, K> keyExtractor, Function<D, T> mapper) throws ConflictException {
+		String saved;
+		try {
+			saved = watermarkStore.load(reportId);
+		} catch (IOException e) {
+			throw new ConflictException("Failed to load the watermark of " + reportId, e);
+		}
+		K watermark = saved == null ? null : keyParser.apply(saved);
+		log.info("Exporting delta of {} after watermark {}", reportId, watermark);
+		AtomicReference<K> lastKey = new AtomicReference<K>(watermark);
+		// no new records is an empty delta rather than an error, for this report only
+		boolean failOnNoData = this.failOnNoData;
+		this.failOnNoData = false;
+		int count;
+		try {
+			count = runReport(() -> generateKeysetReport(keysetDataProvider, keyExtractor, mapper, lastKey));
+		} finally {
+			this.failOnNoData = failOnNoData;
+		}
+		if (count > 0) {
+			try {
+				watermarkStore.save(reportId, String.valueOf(lastKey.get()));
+			} catch (IOException e) {
+				throw new ConflictException("Failed to save the watermark of " + reportId, e);
+			}
+			log.info("Delta of {} records exported, watermark of {} is now {}", count, reportId, lastKey.get());
+		}
+		return count;
+	}
+
+	/***
+	 * Asyncronously generate a report from a stream of data read in a single pass,
+	 * typically a server side cursor. The stream is consumed in batches of
+	 * dataFetchSize records and closed when done.
+	 * 
+	 * @param streamProvider A function that takes the JDBC fetch size
+	 *                       (dataFetchSize) and opens the stream. Typically a
+	 *                       Spring Data repository method returning Stream<T> or
+	 *                       a query getResultStream() with a fetch size hint.
+	 * @param mapper         A function that maps the data from provider to record
+	 *                       data type or null if both are the same.
+	 * @throws ConflictException
+	 */
+	public <D> void generateReportFromStream(IntFunction<Stream<D>> streamProvider, Function<D, T> mapper)
+			throws ConflictException {
+		generateReportFromStream(streamProvider, mapper, null);
+	}
+
+	/***
+	 * Asyncronously generate a report from a stream of data read in a single pass
+	 * inside a read-only transaction, as required to stream from a repository.
+	 * 
+	 * @param streamProvider     A function that takes the JDBC fetch size
+	 *                           (dataFetchSize) and opens the stream.
+	 * @param mapper             A function that maps the data from provider to
+	 *                           record data type or null if both are the same.
+	 * @param transactionManager used to read the stream in a read-only
+	 *                           transaction or null if the caller manages it.
+	 * @throws ConflictException
+	 */
+	public <D> void generateReportFromStream(IntFunction<Stream<D>> streamProvider, Function<D, T> mapper,
+			PlatformTransactionManager transactionManager) throws ConflictException {
+		if (transactionManager == null) {
+			runReport(() -> generateStreamReport(streamProvider, mapper));
+			return;
+		}
+		TransactionTemplate readOnlyTransaction = new TransactionTemplate(transactionManager);
+		readOnlyTransaction.setReadOnly(true);
+		runReport(() -> {
+			try {
+				return readOnlyTransaction.execute(status -> {
+					try {
+						return generateStreamReport(streamProvider, mapper);
+					} catch (ConflictException e) {
+						throw new CompletionException(e);
+					}
+				});
+			} catch (CompletionException e) {
+				throw (ConflictException) e.getCause();
+			}
+		});
+	}
+
+	/***
+	 * Asyncronously generate a report from a SQL query read with plain JDBC,
+	 * bypassing the entity hydration, persistence context and per row mapping of
+	 * JPA. The query runs on a forward-only, read-only cursor fetching
+	 * dataFetchSize rows per round trip (inside a read-only transaction, as
+	 * PostgreSQL needs to stream), and values go from the result set to the
+	 * cells without a record per row. <br>
+	 * Each column property names a column label of the query, matched ignoring
+	 * case, columns without property are left blank. The record class is not
+	 * used.
+	 * 
+	 * @param dataSource data source to read from, a connection is borrowed for
+	 *                   the duration of the export
+	 * @param sql        the query, with ? placeholders
+	 * @param params     values of the placeholders in order
+	 * @throws ConflictException
+	 */
+	public void generateReportFromJdbc(DataSource dataSource, String sql, Object... params) throws ConflictException {
+		runReport(() -> generateJdbcReport(dataSource, sql, params));
+	}
+
+	/***
+	 * Runs the data producer asynchronously on the executor while exporting on the
+	 * calling thread and waits for both to complete.
+	 * 
+	 * @param producer returns the number of records produced
+	 * @return the number of records produced
+	 * @throws ConflictException
+	 */
+	private Integer runReport(Callable<Integer> producer) throws ConflictException {
+		// no producer is started for an exporter that will not write
+		if (!isOpen() || dataRecordsQueue == null)
+			throw new ConflictException("Exporter not open - call open() before attempting to send data ");
+		CompletableFuture<Integer> runner;
+		try {
+			runner = CompletableFuture.supplyAsync(() -> {
+				try {
+					return producer.call();
+				} catch (Exception e) {
+					throw new CompletionException(e);
+				} finally {
+					if (mappingStage != null) {
+						mappingStage.close();
+						mappingStage = null;
+					}
+				}
+			}, executor);
+		} catch (RejectedExecutionException e) {
+			// nothing will write, release close() waiting for the writer
+			dataRecordsQueue.abort();
+			writingCompleted.countDown();
+			metrics.error(e);
+			throw new ConflictException("The executor rejected the data producer", e);
+		}
+		this.export();
+
+		try {
+			Integer numberOfRecords = runner.join();
+			log.info("Report generated for {} records ", numberOfRecords);
+			return numberOfRecords;
+		} catch (CompletionException ex) {
+			// convert the inner exception to a conflict exception
+			log.error("Report generation failed", ex.getCause());
+			metrics.error(ex.getCause());
+			if (ex.getCause() instanceof ConflictException)
+				throw (ConflictException) ex.getCause();
+			else
+				throw new ConflictException("Unknown exception occured while generating the report", ex.getCause());
+		}
+
+	}
+
+	/***
+	 * Maps a page of data and adds it to the queue, on the mapping stage when
+	 * mappingParallelism is more than 1.
+	 * 
+	 * @param content
+	 * @param mapper  null if data and record types are the same
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	@SneakyThrows(InterruptedException.class)
+	private <D> void addPage(List<D> content, Function<D, T> mapper) throws IOException {
+		if (mapper == null) // Assume Record type and mapper type are the same.
+			this.addRecords((List<T>) content);
+		else if (mappingParallelism <= 1)
+			this.addRecords(OrderedMappingStage.map(content, mapper, metrics));
+		else {
+			if (mappingStage == null)
+				mappingStage = new OrderedMappingStage<T>(mappingParallelism, metrics, this::addRecords);
+			mappingStage.submit(content, mapper);
+		}
+	}
+
+	/***
+	 * Calls the data provider recording the fetch latency
+	 */
+	private <R> R fetch(Supplier<R> provider) {
+		long start = System.nanoTime();
+		try {
+			return provider.get();
+		} finally {
+			metrics.fetch(System.nanoTime() - start);
+		}
+	}
+
+	/***
+	 * Waits for pages still being mapped to be added to the queue
+	 * 
+	 * @throws IOException
+	 */
+	private void flushPages() throws IOException {
+		if (mappingStage != null)
+			mappingStage.flush();
+	}
+
+	/***
+	 * Scrolls through the data provider and builds the excel report. NOTE: This
+	 * method is running asyncrhonously
+	 * 
+	 * @param pagedDataProvider
+	 * @return
+	 * @throws ConflictException
+	 */
+	private <D> Integer generateReport(Function<PageRequest, Slice<D>> pagedDataProvider, Function<D, T> mapper)
+			throws ConflictException {
+
+		int totalCount = 0;
+		int depth = Math.max(1, prefetchDepth);
+		Deque<FutureTask<Slice<D>>> pagesInFlight = new ConcurrentLinkedDeque<FutureTask<Slice<D>>>();
+		runningPrefetches = pagesInFlight;
+		// queue room reserved by each page in flight, 0 for the next page
+		Deque<Long> reservations = new ArrayDeque<Long>();
 		boolean hasMore = true;
 		PageRequest pageable = PageRequest.of(0, dataFetchSize);
+		int pageNumber = 0;
 //    		  Pageable.ofSize(dataFetchSize).withPage(0);
 		try {
 			while (hasMore) {
-
-				log.info("Retrieving next batch of {} records", dataFetchSize);
-				Slice<D> pageOfRecords = pagedDataProvider.apply(pageable);
+				checkCancelled();
+				Slice<D> pageOfRecords;
+				if (depth == 1) {
+					log.debug("Retrieving next batch of {} records", dataFetchSize);
+					PageRequest page = pageable;
+					pageOfRecords = fetch(() -> pagedDataProvider.apply(page));
+				} else {
+					// pages ahead of the next one are fetched while the queue has room for them
+					while (pagesInFlight.size() < depth) {
+						long reservation = 0;
+						if (!pagesInFlight.isEmpty()) {
+							reservation = pageWeight();
+							if (reservation <= 0 || !dataRecordsQueue.tryReserve(reservation))
+								break;
+						}
+						PageRequest nextPage = pageable.withPage(pageNumber + pagesInFlight.size());
+						log.debug("Prefetching page {} of {} records", nextPage.getPageNumber(), dataFetchSize);
+						FutureTask<Slice<D>> fetchTask = new FutureTask<Slice<D>>(
+								() -> fetch(() -> pagedDataProvider.apply(nextPage)));
+						pagesInFlight.addLast(fetchTask);
+						reservations.addLast(reservation);
+						executor.execute(fetchTask);
+					}
+					// left in flight while awaited so a cancel interrupts it
+					FutureTask<Slice<D>> nextPage = pagesInFlight.peekFirst();
+					// fetched here when the executor has not started it yet
+					nextPage.run();
+					pageOfRecords = nextPage.get();
+					pagesInFlight.pollFirst();
+					dataRecordsQueue.release(reservations.pollFirst());
+				}
 
 				hasMore = pageOfRecords.hasNext();
 
 				totalCount += pageOfRecords.getNumberOfElements();
-				log.info("Retrieved {} records , sending to exporter, total {} ", pageOfRecords.getNumberOfElements(),
+				log.debug("Retrieved {} records , sending to exporter, total {} ", pageOfRecords.getNumberOfElements(),
 						totalCount);
 				if (pageOfRecords.hasContent()) {
-					if (mapper != null) {
-						List<T> recordList = pageOfRecords.getContent().stream().map(mapper)
-								.collect(Collectors.toList());
-						this.addRecords(recordList);
-					} else // Assume Record type and mapper type are the same.
-						this.addRecords((List<T>) pageOfRecords.getContent());
+					addPage(pageOfRecords.getContent(), mapper);
 
 					if (hasMore)
-						pageable = pageable.withPage(pageable.getPageNumber() + 1);
-				} else if (pageable.getPageNumber() == 0) { // first page and has no content
+						pageable = pageable.withPage(++pageNumber);
+				} else if (pageNumber == 0 && failOnNoData) { // first page and has no content
 					throw new ConflictException("No data found to generate report.");
 				}
 
 			}
+			flushPages();
+		} catch (IOException e) {
+			throw new ConflictException("Failed to add data to report ", e);
+		} catch (ConflictException e) {
+			throw e;
+		} catch (ExecutionException e) {
+			throw new ConflictException("Failed to provide data ", e.getCause());
+		} catch (Exception e) {
+			throw new ConflictException("Failed to provide data ", e);
+		} finally {
+			closeData();
+			// pages fetched beyond the last one are discarded, running fetches interrupted
+			pagesInFlight.forEach(page -> page.cancel(true));
+			reservations.forEach(dataRecordsQueue::release);
+			runningPrefetches = new ArrayDeque<Future<?>>();
+		}
+		return totalCount;
+	}
+
+	/***
+	 * Queue weight reserved for a prefetched page, the last page weighed when the
+	 * queue is bounded in bytes
+	 */
+	private long pageWeight() {
+		return maxQueueBytes > 0 ? dataRecordsQueue.lastWeight() : dataFetchSize;
+	}
+
+	/***
+	 * Seeks through the keyset data provider and builds the excel report. A page
+	 * shorter than the fetch size is the last one. NOTE: This method is running
+	 * asyncrhonously
+	 * 
+	 * @param keysetDataProvider
+	 * @param keyExtractor
+	 * @param mapper
+	 * @param watermark key to start after, updated with the key of each page read
+	 * @return
+	 * @throws ConflictException
+	 */
+	private <K, D> Integer generateKeysetReport(BiFunction<K, Integer, List<D>> keysetDataProvider,
+			Function<D, K> keyExtractor, Function<D, T> mapper, AtomicReference<K> watermark)
+			throws ConflictException {
+		int totalCount = 0;
+		boolean hasMore = true;
+		K lastKey = watermark.get();
+		try {
+			while (hasMore) {
+				checkCancelled();
+				log.debug("Retrieving next batch of {} records after key {}", dataFetchSize, lastKey);
+				K key = lastKey;
+				List<D> records = fetch(() -> keysetDataProvider.apply(key, dataFetchSize));
+				hasMore = records.size() >= dataFetchSize;
+				totalCount += records.size();
+				log.debug("Retrieved {} records , sending to exporter, total {} ", records.size(), totalCount);
+				if (!records.isEmpty()) {
+					lastKey = keyExtractor.apply(records.get(records.size() - 1));
+					addPage(records, mapper);
+					watermark.set(lastKey);
+				} else if (totalCount == 0 && failOnNoData) {
+					throw new ConflictException("No data found to generate report.");
+				}
+			}
+			flushPages();
+		} catch (IOException e) {
+			throw new ConflictException("Failed to add data to report ", e);
+		} catch (ConflictException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ConflictException("Failed to provide data ", e);
+		} finally {
+			closeData();
+		}
+		return totalCount;
+	}
+
+	/***
+	 * Reads the stream in one pass and builds the excel report. NOTE: This method
+	 * is running asyncrhonously
+	 * 
+	 * @param streamProvider
+	 * @param mapper
+	 * @return
+	 * @throws ConflictException
+	 */
+	private <D> Integer generateStreamReport(IntFunction<Stream<D>> streamProvider, Function<D, T> mapper)
+			throws ConflictException {
+		int totalCount = 0;
+		log.info("Opening data stream with fetch size {}", dataFetchSize);
+		try (Stream<D> stream = streamProvider.apply(dataFetchSize)) {
+			Iterator<D> records = stream.iterator();
+			List<D> batch = new ArrayList<D>(dataFetchSize);
+			long readStart = System.nanoTime();
+			while (records.hasNext()) {
+				batch.add(records.next());
+				if (batch.size() >= dataFetchSize || !records.hasNext()) {
+					checkCancelled();
+					metrics.fetch(System.nanoTime() - readStart);
+					totalCount += batch.size();
+					log.debug("Read {} records , sending to exporter, total {} ", batch.size(), totalCount);
+					addPage(batch, mapper);
+					batch = new ArrayList<D>(dataFetchSize);
+					readStart = System.nanoTime();
+				}
+			}
+			if (totalCount == 0 && failOnNoData)
+				throw new ConflictException("No data found to generate report.");
+			flushPages();
+		} catch (IOException e) {
+			throw new ConflictException("Failed to add data to report ", e);
+		} catch (ConflictException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new ConflictException("Failed to provide data ", e);
+		} finally {
+			closeData();
+		}
+		return totalCount;
+	}
+
+	/***
+	 * Runs the query and reads the result set in batches of dataFetchSize rows.
+	 * NOTE: This method is running asyncrhonously
+	 * 
+	 * @param dataSource
+	 * @param sql
+	 * @param params
+	 * @return
+	 * @throws ConflictException
+	 */
+	private Integer generateJdbcReport(DataSource dataSource, String sql, Object[] params) throws ConflictException {
+		int totalCount = 0;
+		log.info("Running query with fetch size {}", dataFetchSize);
+		try (Connection connection = dataSource.getConnection()) {
+			boolean autoCommit = connection.getAutoCommit();
+			boolean readOnly = connection.isReadOnly();
+			connection.setAutoCommit(false);
+			connection.setReadOnly(true);
+			try (PreparedStatement statement = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY)) {
+				statement.setFetchSize(dataFetchSize);
+				for (int i = 0; i < params.length; i++)
+					statement.setObject(i + 1, params[i]);
+				runningStatement = statement;
+				checkCancelled();
+				long readStart = System.nanoTime();
+				try (ResultSet resultSet = statement.executeQuery()) {
+					byte[] kinds = new byte[columns.size()];
+					int[] resultSetColumns = new int[columns.size()];
+					mapResultSetColumns(resultSet.getMetaData(), kinds, resultSetColumns);
+					boolean hasMore = true;
+					while (hasMore) {
+						checkCancelled();
+						// a new batch each time, queued batches are still being written
+						ResultSetBatch batch = new ResultSetBatch(kinds, resultSetColumns, dataFetchSize);
+						hasMore = batch.fill(resultSet);
+						metrics.fetch(System.nanoTime() - readStart);
+						if (batch.getRowCount() > 0) {
+							totalCount += batch.getRowCount();
+							log.debug("Read {} rows , sending to exporter, total {} ", batch.getRowCount(), totalCount);
+							putBatch(batch);
+						}
+						readStart = System.nanoTime();
+					}
+				}
+			} finally {
+				runningStatement = null;
+				connection.rollback();
+				connection.setReadOnly(readOnly);
+				connection.setAutoCommit(autoCommit);
+			}
+			if (totalCount == 0 && failOnNoData)
+				throw new ConflictException("No data found to generate report.");
 		} catch (IOException e) {
 			throw new ConflictException("Failed to add data to report ", e);
 		} catch (ConflictException e) {
@@ -545,4 +1921,88 @@ public class ExcelExporter<T> implements AutoCloseable {
 		}
 		return totalCount;
 	}
-}
\ No newline at end of file
+
+	/***
+	 * Maps each column property to the index of the result set column of the same
+	 * label and chooses how it is read from its SQL type
+	 * 
+	 * @param metaData
+	 * @param kinds            filled with the kind of each column
+	 * @param resultSetColumns filled with the result set index of each column
+	 * @throws SQLException
+	 * @throws ConflictException if a property is not a column of the query
+	 */
+	private void mapResultSetColumns(ResultSetMetaData metaData, byte[] kinds, int[] resultSetColumns)
+			throws SQLException, ConflictException {
+		Map<String, Integer> labels = new HashMap<String, Integer>();
+		for (int i = metaData.getColumnCount(); i > 0; i--)
+			labels.put(metaData.getColumnLabel(i).toLowerCase(Locale.ROOT), i);
+		for (int c = 0; c < columns.size(); c++) {
+			String property = columns.get(c).getProperty();
+			if (!StringUtils.hasText(property))
+				continue;
+			Integer index = labels.get(property.toLowerCase(Locale.ROOT));
+			if (index == null)
+				throw new ConflictException(
+						"Column " + property + " not found in the query columns " + labels.keySet());
+			resultSetColumns[c] = index;
+			kinds[c] = ResultSetBatch.kindOf(metaData, index);
+		}
+	}
+
+	/***
+	 * Creates the queue, bounded by records or by estimated bytes
+	 */
+	private BoundedBatchQueue<RowBatch> createQueue() {
+		sizeProperties = new String[columns.size()];
+		for (int c = 0; c < sizeProperties.length; c++)
+			if (StringUtils.hasText(columns.get(c).getProperty()))
+				sizeProperties[c] = columns.get(c).getProperty();
+		if (maxQueueBytes > 0)
+			return new BoundedBatchQueue<RowBatch>(maxQueueBytes, this::estimateBytes);
+		return new BoundedBatchQueue<RowBatch>(maxQueueSize, RowBatch::getRowCount);
+	}
+
+	/***
+	 * Estimates the heap taken by a queued batch. Called on the producer thread.
+	 */
+	@SuppressWarnings("unchecked")
+	private long estimateBytes(RowBatch batch) {
+		if (batch instanceof ColumnarBatch)
+			return ((ColumnarBatch) batch).estimateBytes();
+		if (batch instanceof ResultSetBatch)
+			return ((ResultSetBatch) batch).estimateBytes();
+		List<T> records = ((RecordBatch<T>) batch).records;
+		if (recordSizeEstimator != null) {
+			long bytes = 0;
+			for (T record : records)
+				bytes += recordSizeEstimator.applyAsLong(record);
+			return bytes;
+		}
+		return RecordSizeEstimator.estimatePage(records, sizeProperties);
+	}
+
+	private static ScheduledExecutorService createDeadlineTimer() {
+		ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1,
+				ExportExecutors.daemonThreads("excel-export-deadline"));
+		// exports finishing in time do not leave their deadline behind
+		timer.setRemoveOnCancelPolicy(true);
+		return timer;
+	}
+
+	/***
+	 * A page of records on the queue
+	 */
+	private static final class RecordBatch<T> implements RowBatch {
+		private final List<T> records;
+
+		private RecordBatch(List<T> records) {
+			this.records = records;
+		}
+
+		@Override
+		public int getRowCount() {
+			return records.size();
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package com.oselan.excelexporter;
+
+/***
+ * The engine writing the rows to the output.
+ */
+public enum ExportEngine {
+	/***
+	 * POI streaming workbook, rows are buffered in temp files and the workbook is
+	 * written to the stream once all rows are in.
+	 */
+	SXSSF,
+	/***
+	 * Writes the xlsx parts straight to the stream as rows arrive with inline
+	 * strings and no temp files. The first bytes reach the client right away.
+	 * Sheets are written one at a time so partitioned exports are not supported.
+	 */
+	STREAMING
+}
@@ -0,0 +1,100 @@
+package com.oselan.excelexporter;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import lombok.extern.slf4j.Slf4j;
+
+/***
+ * Executors to run the exporter data producers on. Producers spend most of their
+ * time blocked on the database so they are kept off the common fork join pool,
+ * where they would starve parallel streams and cap concurrent exports at the
+ * number of cores. <br>
+ * On Java 21 and later virtualThreads() runs each producer on a virtual thread
+ * so hundreds of concurrent exports blocked on the database cost next to
+ * nothing. The exporter queue hands off with locks rather than monitors so a
+ * producer waiting on the writer does not pin its carrier thread.
+ */
+@Slf4j
+public final class ExportExecutors {
+
+	private static final Executor THREAD_PER_TASK = Executors
+			.newCachedThreadPool(new NamedThreadFactory("excel-export-producer-"));
+
+	private static final ExecutorService VIRTUAL_THREADS = createVirtualThreadExecutor();
+
+	private ExportExecutors() {
+	}
+
+	/***
+	 * Runs each task on a platform thread of its own, idle threads are reused for
+	 * a minute. The default executor of the exporters.
+	 *
+	 * @return a shared executor
+	 */
+	public static Executor threadPerTask() {
+		return THREAD_PER_TASK;
+	}
+
+	/***
+	 * Runs each task on a new virtual thread, or on a platform thread of its own
+	 * when the runtime has no virtual threads (before Java 21).
+	 *
+	 * @return a shared executor
+	 */
+	public static Executor virtualThreads() {
+		if (VIRTUAL_THREADS == null) {
+			log.warn("Virtual threads need Java 21, running producers on platform threads");
+			return THREAD_PER_TASK;
+		}
+		return VIRTUAL_THREADS;
+	}
+
+	/***
+	 * @return true if the runtime supports virtual threads
+	 */
+	public static boolean isVirtualThreadsSupported() {
+		return VIRTUAL_THREADS != null;
+	}
+
+	/***
+	 * @param prefix thread name prefix
+	 * @return a factory of daemon threads numbered after the prefix
+	 */
+	static ThreadFactory daemonThreads(String prefix) {
+		return new NamedThreadFactory(prefix);
+	}
+
+	/***
+	 * Looked up reflectively so the exporter still builds and runs on Java 17
+	 */
+	private static ExecutorService createVirtualThreadExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		}
+	}
+
+	/***
+	 * Daemon threads numbered after a prefix
+	 */
+	private static final class NamedThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		private NamedThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable task) {
+			Thread thread = new Thread(task, prefix + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
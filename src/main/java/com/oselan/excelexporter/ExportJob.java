@@ -0,0 +1,176 @@
+package com.oselan.excelexporter;
+
+import java.time.Instant;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/***
+ * Handle of an export submitted to the {@link ExportJobScheduler}, giving its
+ * status and result. The result completes with the value returned by the export
+ * task, exceptionally if it failed or with a cancellation.
+ *
+ * @param <R> result type of the export task
+ */
+public final class ExportJob<R> {
+
+	public enum Status {
+		/***
+		 * Waiting for a worker and budget
+		 */
+		QUEUED,
+		/***
+		 * Running on a worker
+		 */
+		RUNNING,
+		SUCCEEDED,
+		FAILED,
+		CANCELLED
+	}
+
+	private final ExportJobScheduler scheduler;
+	private final String id;
+	private final String tenant;
+	private final int priority;
+	private final long sequence;
+	private final long heapBytes;
+	private final long tempDiskBytes;
+	private final Callable<R> task;
+	private final CompletableFuture<R> result = new CompletableFuture<R>();
+	private final Instant submittedAt = Instant.now();
+
+	private volatile Status status = Status.QUEUED;
+	private volatile Instant startedAt;
+	private volatile Instant finishedAt;
+	/***
+	 * Worker thread, set while the job runs
+	 */
+	private volatile Thread worker;
+	/***
+	 * Exporter run by the task, cancelled with the job, null if not known
+	 */
+	private volatile ExcelExporter<?> exporter;
+
+	ExportJob(ExportJobScheduler scheduler, String id, String tenant, int priority, long sequence, long heapBytes,
+			long tempDiskBytes, Callable<R> task) {
+		this.scheduler = scheduler;
+		this.id = id;
+		this.tenant = tenant;
+		this.priority = priority;
+		this.sequence = sequence;
+		this.heapBytes = heapBytes;
+		this.tempDiskBytes = tempDiskBytes;
+		this.task = task;
+	}
+
+	/***
+	 * Cancels the job, a queued job is removed from the queue and a running job is
+	 * interrupted, its exporter (when submitted with one) is cancelled.
+	 *
+	 * @return false if the job had already finished
+	 */
+	public boolean cancel() {
+		return scheduler.cancel(this);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getTenant() {
+		return tenant;
+	}
+
+	public int getPriority() {
+		return priority;
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	/***
+	 * @return true once the job succeeded, failed or was cancelled
+	 */
+	public boolean isDone() {
+		return result.isDone();
+	}
+
+	/***
+	 * @return the result of the export task
+	 */
+	public CompletableFuture<R> getResult() {
+		return result;
+	}
+
+	public Instant getSubmittedAt() {
+		return submittedAt;
+	}
+
+	/***
+	 * @return when the job started running or null while queued
+	 */
+	public Instant getStartedAt() {
+		return startedAt;
+	}
+
+	/***
+	 * @return when the job finished or null while queued or running
+	 */
+	public Instant getFinishedAt() {
+		return finishedAt;
+	}
+
+	/***
+	 * @return heap the records of the job may take, reserved from the budget while
+	 *         it runs
+	 */
+	public long getHeapBytes() {
+		return heapBytes;
+	}
+
+	/***
+	 * @return temp disk the job may use, reserved from the budget while it runs
+	 */
+	public long getTempDiskBytes() {
+		return tempDiskBytes;
+	}
+
+	long getSequence() {
+		return sequence;
+	}
+
+	Callable<R> getTask() {
+		return task;
+	}
+
+	Thread getWorker() {
+		return worker;
+	}
+
+	void setWorker(Thread worker) {
+		this.worker = worker;
+	}
+
+	ExcelExporter<?> getExporter() {
+		return exporter;
+	}
+
+	void setExporter(ExcelExporter<?> exporter) {
+		this.exporter = exporter;
+	}
+
+	void running() {
+		startedAt = Instant.now();
+		status = Status.RUNNING;
+	}
+
+	void finished(Status status) {
+		finishedAt = Instant.now();
+		this.status = status;
+	}
+
+	@Override
+	public String toString() {
+		return "ExportJob[" + id + ", tenant " + tenant + ", " + status + "]";
+	}
+}
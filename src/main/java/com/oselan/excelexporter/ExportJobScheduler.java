@@ -0,0 +1,436 @@
+package com.oselan.excelexporter;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import lombok.extern.slf4j.Slf4j;
+
+/***
+ * Runs export jobs on a bounded pool of workers with admission control, so a
+ * burst of exports queues up instead of running all at once out of memory or
+ * disk. <br>
+ * Each job declares the heap its queued and in flight records may take and the
+ * temp disk it may use, a job is started only when a worker is free and its
+ * demand fits in what is left of the global budgets. A job larger than the
+ * budgets runs alone. <br>
+ * Queued jobs wait per tenant ordered by priority (higher first) then
+ * submission, tenants are served in turn so one tenant's burst does not hold
+ * back the others. A tenant whose next job does not fit waits while jobs of
+ * other tenants that fit are started.
+ */
+@Slf4j
+public class ExportJobScheduler implements AutoCloseable {
+
+	// finished jobs kept for status lookups
+	private static final int MAX_RETAINED_JOBS = 1000;
+	// heap of a record of an exporter bounded by records
+	private static final long DEFAULT_RECORD_BYTES = 1024;
+	// SXSSF temp file bytes of a cell, the cell XML and a short value
+	private static final long DEFAULT_TEMP_CELL_BYTES = 64;
+	// compressed temp files take about a quarter
+	private static final int TEMP_COMPRESSION_RATIO = 4;
+
+	private static final Comparator<ExportJob<?>> JOB_ORDER = Comparator
+			.comparingInt((ExportJob<?> job) -> -job.getPriority()).thenComparingLong(ExportJob::getSequence);
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final ExecutorService workers;
+
+	private final int maxConcurrentJobs;
+
+	private final long maxHeapBytes;
+
+	private final long maxTempDiskBytes;
+
+	private long recordBytes = DEFAULT_RECORD_BYTES;
+
+	private long tempCellBytes = DEFAULT_TEMP_CELL_BYTES;
+
+	/***
+	 * Queued jobs per tenant
+	 */
+	private final Map<String, PriorityQueue<ExportJob<?>>> pending = new HashMap<String, PriorityQueue<ExportJob<?>>>();
+
+	/***
+	 * Tenants with queued jobs in the order they are served
+	 */
+	private final ArrayDeque<String> tenants = new ArrayDeque<String>();
+
+	private final Map<String, ExportJob<?>> jobs = new HashMap<String, ExportJob<?>>();
+
+	private final ArrayDeque<String> finishedJobs = new ArrayDeque<String>();
+
+	private long sequence;
+	private int running;
+	private int queued;
+	private long reservedHeapBytes;
+	private long reservedTempDiskBytes;
+	private boolean closed;
+
+	/***
+	 *
+	 * @param maxConcurrentJobs number of workers running jobs
+	 * @param maxHeapBytes      budget of heap taken by the records of the running
+	 *                          jobs
+	 * @param maxTempDiskBytes  budget of temp disk used by the running jobs
+	 */
+	public ExportJobScheduler(int maxConcurrentJobs, long maxHeapBytes, long maxTempDiskBytes) {
+		this.maxConcurrentJobs = maxConcurrentJobs;
+		this.maxHeapBytes = maxHeapBytes;
+		this.maxTempDiskBytes = maxTempDiskBytes;
+		this.workers = Executors.newFixedThreadPool(maxConcurrentJobs);
+	}
+
+	/***
+	 * Submits an export job.
+	 *
+	 * @param tenant        tenant the job is queued for
+	 * @param priority      higher runs first within the tenant
+	 * @param heapBytes     heap the records of the job may take
+	 * @param tempDiskBytes temp disk the job may use
+	 * @param task          the export, typically opening an exporter and
+	 *                      generating a report
+	 * @return the job handle
+	 * @throws IllegalStateException if the scheduler is closed
+	 */
+	public <R> ExportJob<R> submit(String tenant, int priority, long heapBytes, long tempDiskBytes,
+			Callable<R> task) {
+		lock.lock();
+		try {
+			if (closed)
+				throw new IllegalStateException("Export job scheduler is closed");
+			ExportJob<R> job = new ExportJob<R>(this, UUID.randomUUID().toString(), tenant, priority, sequence++,
+					heapBytes, tempDiskBytes, task);
+			jobs.put(job.getId(), job);
+			PriorityQueue<ExportJob<?>> tenantJobs = pending.get(tenant);
+			if (tenantJobs == null) {
+				tenantJobs = new PriorityQueue<ExportJob<?>>(JOB_ORDER);
+				pending.put(tenant, tenantJobs);
+				tenants.addLast(tenant);
+			}
+			tenantJobs.add(job);
+			queued++;
+			log.debug("Queued {} needing {} bytes of heap and {} bytes of temp disk", job, heapBytes, tempDiskBytes);
+			dispatch();
+			return job;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * Submits an export job whose demand is taken from the exporter settings, see
+	 * {@link #submit(String, int, ExcelExporter, long, Callable)}. The temp disk
+	 * of a SXSSF export is reserved for one full sheet.
+	 *
+	 * @param tenant   tenant the job is queued for
+	 * @param priority higher runs first within the tenant
+	 * @param exporter the exporter the task runs, configured but not opened. It
+	 *                 is cancelled with the job.
+	 * @param task     the export
+	 * @return the job handle
+	 */
+	public <R> ExportJob<R> submit(String tenant, int priority, ExcelExporter<?> exporter, Callable<R> task) {
+		return submit(tenant, priority, exporter, exporter.getMaxRowsPerSheet(), task);
+	}
+
+	/***
+	 * Submits an export job whose demand is taken from the exporter settings. The
+	 * heap is the queue budget (maxQueueBytes, or maxQueueSize records of
+	 * recordBytes each) plus the records of the pages being fetched and mapped.
+	 * The temp disk of the SXSSF engine is the expected cells times
+	 * tempCellBytes, a quarter of it with compressed temp files. Other engines and
+	 * row sinks reserve no temp disk.
+	 *
+	 * @param tenant       tenant the job is queued for
+	 * @param priority     higher runs first within the tenant
+	 * @param exporter     the exporter the task runs, configured but not opened.
+	 *                     It is cancelled with the job.
+	 * @param expectedRows rows the export is expected to write, e.g. a count of
+	 *                     the data
+	 * @param task         the export
+	 * @return the job handle
+	 */
+	public <R> ExportJob<R> submit(String tenant, int priority, ExcelExporter<?> exporter, long expectedRows,
+			Callable<R> task) {
+		long inFlightRecords = (long) exporter.getDataFetchSize()
+				* (exporter.getPrefetchDepth() + Math.max(1, exporter.getMappingParallelism()));
+		long heapBytes = (exporter.getMaxQueueBytes() > 0 ? exporter.getMaxQueueBytes()
+				: exporter.getMaxQueueSize() * recordBytes) + inFlightRecords * recordBytes;
+		long tempDiskBytes = 0;
+		if (exporter.getRowSinkFactory() == null && exporter.getEngine() == ExportEngine.SXSSF) {
+			tempDiskBytes = expectedRows * exporter.getColumnCount() * tempCellBytes;
+			if (exporter.isCompressTempFiles())
+				tempDiskBytes /= TEMP_COMPRESSION_RATIO;
+		}
+		lock.lock();
+		try {
+			ExportJob<R> job = submit(tenant, priority, heapBytes, tempDiskBytes, task);
+			job.setExporter(exporter);
+			return job;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 *
+	 * @param id
+	 * @return the job, finished jobs are kept for a while
+	 */
+	public Optional<ExportJob<?>> getJob(String id) {
+		lock.lock();
+		try {
+			return Optional.ofNullable(jobs.get(id));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * Heap of a queued record of an exporter bounded by records rather than
+	 * maxQueueBytes, and of the records of the pages in flight. Default is 1KB.
+	 *
+	 * @param recordBytes
+	 */
+	public void setRecordBytes(long recordBytes) {
+		this.recordBytes = recordBytes;
+	}
+
+	public long getRecordBytes() {
+		return recordBytes;
+	}
+
+	/***
+	 * SXSSF temp disk of a cell, used to reserve the temp disk of exports
+	 * submitted with their exporter. Default is 64 bytes.
+	 *
+	 * @param tempCellBytes
+	 */
+	public void setTempCellBytes(long tempCellBytes) {
+		this.tempCellBytes = tempCellBytes;
+	}
+
+	public long getTempCellBytes() {
+		return tempCellBytes;
+	}
+
+	public int getRunningJobs() {
+		lock.lock();
+		try {
+			return running;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getQueuedJobs() {
+		lock.lock();
+		try {
+			return queued;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * @return heap reserved by the running jobs
+	 */
+	public long getReservedHeapBytes() {
+		lock.lock();
+		try {
+			return reservedHeapBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * @return temp disk reserved by the running jobs
+	 */
+	public long getReservedTempDiskBytes() {
+		lock.lock();
+		try {
+			return reservedTempDiskBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * Cancels queued jobs and interrupts running ones.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			for (PriorityQueue<ExportJob<?>> tenantJobs : pending.values())
+				for (ExportJob<?> job : tenantJobs)
+					cancelled(job);
+			pending.clear();
+			tenants.clear();
+			queued = 0;
+		} finally {
+			lock.unlock();
+		}
+		workers.shutdownNow();
+	}
+
+	/***
+	 * Waits for the running jobs to finish after close
+	 *
+	 * @return true if all finished in time
+	 * @throws InterruptedException
+	 */
+	public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+		return workers.awaitTermination(timeout, unit);
+	}
+
+	boolean cancel(ExportJob<?> job) {
+		lock.lock();
+		try {
+			switch (job.getStatus()) {
+			case QUEUED:
+				PriorityQueue<ExportJob<?>> tenantJobs = pending.get(job.getTenant());
+				tenantJobs.remove(job);
+				if (tenantJobs.isEmpty()) {
+					pending.remove(job.getTenant());
+					tenants.remove(job.getTenant());
+				}
+				queued--;
+				cancelled(job);
+				return true;
+			case RUNNING:
+				// marked first so a worker not yet running the task skips it, the
+				// worker releases the budget when the task returns
+				cancelled(job);
+				// stops the producer and writer between pages and rows and frees the
+				// connection and temp files, the interrupt wakes anything else blocking
+				ExcelExporter<?> exporter = job.getExporter();
+				if (exporter != null)
+					exporter.cancel("Job " + job.getId() + " cancelled");
+				Thread worker = job.getWorker();
+				if (worker != null)
+					worker.interrupt();
+				return true;
+			default:
+				return false;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void cancelled(ExportJob<?> job) {
+		job.finished(ExportJob.Status.CANCELLED);
+		job.getResult().cancel(false);
+		retain(job);
+	}
+
+	/***
+	 * Starts queued jobs while workers are free and their demand fits, serving
+	 * the tenants in turn. Called with the lock held.
+	 */
+	private void dispatch() {
+		while (running < maxConcurrentJobs && !tenants.isEmpty()) {
+			ExportJob<?> next = null;
+			for (int i = 0; i < tenants.size() && next == null; i++) {
+				String tenant = tenants.pollFirst();
+				PriorityQueue<ExportJob<?>> tenantJobs = pending.get(tenant);
+				if (fits(tenantJobs.peek())) {
+					next = tenantJobs.poll();
+					if (tenantJobs.isEmpty())
+						pending.remove(tenant);
+					else
+						tenants.addLast(tenant);
+				} else
+					tenants.addLast(tenant);
+			}
+			if (next == null)
+				return;
+			queued--;
+			running++;
+			reservedHeapBytes += next.getHeapBytes();
+			reservedTempDiskBytes += next.getTempDiskBytes();
+			next.running();
+			ExportJob<?> job = next;
+			workers.execute(() -> run(job));
+		}
+	}
+
+	private boolean fits(ExportJob<?> job) {
+		return running == 0 || reservedHeapBytes + job.getHeapBytes() <= maxHeapBytes
+				&& reservedTempDiskBytes + job.getTempDiskBytes() <= maxTempDiskBytes;
+	}
+
+	private <R> void run(ExportJob<R> job) {
+		job.setWorker(Thread.currentThread());
+		try {
+			if (job.getStatus() == ExportJob.Status.RUNNING) {
+				log.debug("Running {}", job);
+				R result = job.getTask().call();
+				finish(job, ExportJob.Status.SUCCEEDED);
+				job.getResult().complete(result);
+			}
+		} catch (Throwable e) {
+			if (job.getStatus() == ExportJob.Status.CANCELLED || e instanceof CancellationException)
+				log.info("{} cancelled", job);
+			else {
+				log.error("{} failed", job, e);
+				finish(job, ExportJob.Status.FAILED);
+				job.getResult().completeExceptionally(e);
+			}
+		} finally {
+			job.setWorker(null);
+			// clear an interrupt of a cancel that raced with the end of the task
+			Thread.interrupted();
+			lock.lock();
+			try {
+				running--;
+				reservedHeapBytes -= job.getHeapBytes();
+				reservedTempDiskBytes -= job.getTempDiskBytes();
+				if (!closed)
+					dispatch();
+			} finally {
+				lock.unlock();
+			}
+		}
+	}
+
+	/***
+	 * Marks a running job finished unless it was cancelled meanwhile
+	 */
+	private void finish(ExportJob<?> job, ExportJob.Status status) {
+		lock.lock();
+		try {
+			if (job.getStatus() == ExportJob.Status.RUNNING) {
+				job.finished(status);
+				retain(job);
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * Keeps a finished job for lookups, forgetting the oldest ones
+	 */
+	private void retain(ExportJob<?> job) {
+		finishedJobs.addLast(job.getId());
+		while (finishedJobs.size() > MAX_RETAINED_JOBS)
+			jobs.remove(finishedJobs.pollFirst());
+	}
+}
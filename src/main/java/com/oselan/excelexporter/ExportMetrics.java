@@ -0,0 +1,127 @@
+package com.oselan.excelexporter;
+
+import java.util.concurrent.TimeUnit;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+
+/***
+ * Meters and the observation of one export. Meters are tagged with the report
+ * (sheet) name and the engine or output format, so exports of the same report add up while the
+ * observation spans a single export from open() to close(). <br>
+ * Meters:
+ * <ul>
+ * <li>excel.export.rows - rows written, its rate is the rows per second</li>
+ * <li>excel.export.queue.depth - rows waiting in the queue when the writer
+ * takes a batch</li>
+ * <li>excel.export.queue.peak - high water mark of the queue per export</li>
+ * <li>excel.export.queue.bytes and excel.export.queue.peak.bytes - the same in
+ * estimated bytes, instead of the rows, for exports with a queue byte
+ * budget</li>
+ * <li>excel.export.producer.blocked - time producers waited on a full
+ * queue</li>
+ * <li>excel.export.writer.starved - time the writer waited on an empty
+ * queue</li>
+ * <li>excel.export.fetch - latency of each page fetch</li>
+ * <li>excel.export.mapping - time mapping each page</li>
+ * <li>excel.export.workbook.write - time writing the workbook on finish</li>
+ * <li>excel.export.bytes - bytes written to the output stream per export</li>
+ * <li>excel.export.temp.bytes - temp disk used per export</li>
+ * </ul>
+ */
+final class ExportMetrics {
+
+	static final String PREFIX = "excel.export";
+
+	private final Counter rows;
+	private final DistributionSummary queueDepth;
+	private final DistributionSummary queuePeak;
+	private final Timer producerBlocked;
+	private final Timer writerStarved;
+	private final Timer fetch;
+	private final Timer mapping;
+	private final Timer workbookWrite;
+	private final DistributionSummary bytes;
+	private final DistributionSummary tempBytes;
+	private final Observation observation;
+
+	/***
+	 *
+	 * @param registry
+	 * @param observationRegistry
+	 * @param report
+	 * @param engine
+	 * @param queueInBytes        true if the queue is weighed in estimated bytes
+	 *                            rather than rows
+	 */
+	ExportMetrics(MeterRegistry registry, ObservationRegistry observationRegistry, String report, String engine,
+			boolean queueInBytes) {
+		Tags tags = Tags.of("report", report, "engine", engine);
+		rows = Counter.builder(PREFIX + ".rows").baseUnit("rows").tags(tags).register(registry);
+		queueDepth = DistributionSummary.builder(PREFIX + (queueInBytes ? ".queue.bytes" : ".queue.depth"))
+				.baseUnit(queueInBytes ? "bytes" : "rows").tags(tags).register(registry);
+		queuePeak = DistributionSummary.builder(PREFIX + (queueInBytes ? ".queue.peak.bytes" : ".queue.peak"))
+				.baseUnit(queueInBytes ? "bytes" : "rows").tags(tags).register(registry);
+		producerBlocked = Timer.builder(PREFIX + ".producer.blocked").tags(tags).register(registry);
+		writerStarved = Timer.builder(PREFIX + ".writer.starved").tags(tags).register(registry);
+		fetch = Timer.builder(PREFIX + ".fetch").tags(tags).register(registry);
+		mapping = Timer.builder(PREFIX + ".mapping").tags(tags).register(registry);
+		workbookWrite = Timer.builder(PREFIX + ".workbook.write").tags(tags).register(registry);
+		bytes = DistributionSummary.builder(PREFIX + ".bytes").baseUnit("bytes").tags(tags).register(registry);
+		tempBytes = DistributionSummary.builder(PREFIX + ".temp.bytes").baseUnit("bytes").tags(tags)
+				.register(registry);
+		observation = Observation.createNotStarted(PREFIX, observationRegistry).contextualName("excel-export")
+				.lowCardinalityKeyValue("report", report).lowCardinalityKeyValue("engine", engine);
+	}
+
+	void start() {
+		observation.start();
+	}
+
+	void error(Throwable error) {
+		observation.error(error);
+	}
+
+	/***
+	 * Ends the export recording its output sizes
+	 */
+	void stop(long queuePeak, long bytesWritten, long tempDiskBytes) {
+		this.queuePeak.record(queuePeak);
+		bytes.record(bytesWritten);
+		tempBytes.record(tempDiskBytes);
+		observation.stop();
+	}
+
+	void rowsWritten(int count) {
+		rows.increment(count);
+	}
+
+	void queueDepth(long depth) {
+		queueDepth.record(depth);
+	}
+
+	void producerBlocked(long nanos) {
+		producerBlocked.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	void writerStarved(long nanos) {
+		writerStarved.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	void fetch(long nanos) {
+		fetch.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	void mapping(long nanos) {
+		mapping.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	void workbookWrite(long nanos) {
+		workbookWrite.record(nanos, TimeUnit.NANOSECONDS);
+	}
+}
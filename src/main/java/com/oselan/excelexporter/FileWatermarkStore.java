@@ -0,0 +1,56 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+
+/***
+ * Keeps the watermarks in a properties file, rewritten to a temp file and moved
+ * over the old one on every save so a crash never leaves it half written.
+ */
+public class FileWatermarkStore implements WatermarkStore {
+
+	private final Path file;
+
+	/***
+	 *
+	 * @param file properties file of the watermarks, created on the first save
+	 */
+	public FileWatermarkStore(Path file) {
+		this.file = file.toAbsolutePath();
+	}
+
+	@Override
+	public synchronized String load(String reportId) throws IOException {
+		return read().getProperty(reportId);
+	}
+
+	@Override
+	public synchronized void save(String reportId, String watermark) throws IOException {
+		Properties watermarks = read();
+		watermarks.setProperty(reportId, watermark);
+		Files.createDirectories(file.getParent());
+		Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			try (OutputStream out = Files.newOutputStream(temp)) {
+				watermarks.store(out, "Delta export watermarks");
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private Properties read() throws IOException {
+		Properties watermarks = new Properties();
+		if (Files.exists(file))
+			try (InputStream in = Files.newInputStream(file)) {
+				watermarks.load(in);
+			}
+		return watermarks;
+	}
+}
@@ -0,0 +1,26 @@
+package com.oselan.excelexporter;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/***
+ * Keeps the caller's stream open when the stream wrapping it (zip, gzip) is
+ * closed
+ */
+class NonClosingOutputStream extends FilterOutputStream {
+
+	NonClosingOutputStream(OutputStream out) {
+		super(out);
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		out.write(b, off, len);
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+	}
+}
@@ -0,0 +1,105 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Function;
+
+/***
+ * Maps pages of data on a pool of workers while keeping their order. Each page
+ * is mapped as soon as it is submitted and handed to the sink only after the
+ * previous page was, so mapping overlaps both fetching and writing. The number
+ * of pages being mapped or waiting for their turn is bounded by the
+ * parallelism, a producer submitting more blocks.
+ *
+ * @param <T> mapped record type
+ */
+class OrderedMappingStage<T> implements AutoCloseable {
+
+	/***
+	 * Receives the mapped pages in order
+	 */
+	interface PageSink<T> {
+		void accept(List<T> records) throws IOException;
+	}
+
+	private final ExecutorService workers;
+	private final Semaphore permits;
+	private final PageSink<T> sink;
+	private final ExportMetrics metrics;
+
+	/***
+	 * Completes when the last submitted page was handed to the sink
+	 */
+	private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+
+	OrderedMappingStage(int parallelism, ExportMetrics metrics, PageSink<T> sink) {
+		this.workers = Executors.newFixedThreadPool(parallelism);
+		this.permits = new Semaphore(parallelism);
+		this.sink = sink;
+		this.metrics = metrics;
+	}
+
+	/***
+	 * Maps a list of data records on the calling thread, the time taken is
+	 * recorded in the metrics
+	 */
+	static <D, T> List<T> map(List<D> content, Function<D, T> mapper, ExportMetrics metrics) {
+		long start = System.nanoTime();
+		List<T> records = new ArrayList<T>(content.size());
+		for (D data : content)
+			records.add(mapper.apply(data));
+		metrics.mapping(System.nanoTime() - start);
+		return records;
+	}
+
+	/***
+	 * Submits a page for mapping, blocks while too many pages are in flight.
+	 *
+	 * @param content
+	 * @param mapper
+	 * @throws IOException          if mapping or handing over a previous page
+	 *                              failed
+	 * @throws InterruptedException
+	 */
+	<D> void submit(List<D> content, Function<D, T> mapper) throws IOException, InterruptedException {
+		permits.acquire();
+		if (tail.isCompletedExceptionally()) {
+			permits.release();
+			flush();
+		}
+		CompletableFuture<List<T>> mapped = CompletableFuture.supplyAsync(() -> map(content, mapper, metrics), workers);
+		tail = mapped.thenCombine(tail, (records, previous) -> records).thenAccept(records -> {
+			try {
+				sink.accept(records);
+			} catch (IOException e) {
+				throw new CompletionException(e);
+			}
+		}).whenComplete((v, e) -> permits.release());
+	}
+
+	/***
+	 * Waits until all submitted pages are handed to the sink.
+	 *
+	 * @throws IOException if a page failed to map or to be handed over
+	 */
+	void flush() throws IOException {
+		try {
+			tail.join();
+		} catch (CompletionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException("Failed to map data records", e.getCause());
+		}
+	}
+
+	@Override
+	public void close() {
+		workers.shutdownNow();
+	}
+}
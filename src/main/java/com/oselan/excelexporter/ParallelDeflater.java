@@ -0,0 +1,127 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/***
+ * Compresses a stream to raw DEFLATE data on several threads, pigz style: the
+ * input is cut in chunks compressed independently, each primed with the last
+ * 32KB of the previous chunk as dictionary and ended with a sync flush, so the
+ * compressed chunks concatenate into one stream. The CRC and sizes needed by
+ * the zip entry are computed along. <br>
+ * Without an executor the chunks are compressed on the calling thread.
+ */
+final class ParallelDeflater {
+
+	private static final int CHUNK_SIZE = 1024 * 1024;
+	private static final int DICTIONARY_SIZE = 32 * 1024;
+
+	private final int level;
+
+	private final ExecutorService executor;
+
+	/***
+	 * Chunks compressed ahead of the one being written
+	 */
+	private final int maxChunksInFlight;
+
+	/***
+	 *
+	 * @param level    Deflater level, 0 (stored blocks) to 9
+	 * @param executor executor compressing the chunks or null for the calling
+	 *                 thread
+	 * @param threads  threads of the executor
+	 */
+	ParallelDeflater(int level, ExecutorService executor, int threads) {
+		this.level = level;
+		this.executor = executor;
+		this.maxChunksInFlight = executor == null ? 0 : threads * 2;
+	}
+
+	/***
+	 * Compresses the input to the output in order
+	 *
+	 * @return crc and sizes of the data
+	 * @throws IOException
+	 */
+	Result deflate(InputStream in, OutputStream out) throws IOException {
+		Result result = new Result();
+		CRC32 crc = new CRC32();
+		Deque<CompletableFuture<byte[]>> inFlight = new ArrayDeque<CompletableFuture<byte[]>>();
+		byte[] previous = null;
+		try {
+			byte[] chunk;
+			while ((chunk = in.readNBytes(CHUNK_SIZE)).length > 0) {
+				crc.update(chunk);
+				result.size += chunk.length;
+				byte[] dictionary = previous == null ? null
+						: Arrays.copyOfRange(previous, Math.max(0, previous.length - DICTIONARY_SIZE), previous.length);
+				byte[] input = chunk;
+				if (executor == null)
+					result.compressedSize += write(compress(input, dictionary, false), out);
+				else {
+					inFlight.addLast(CompletableFuture.supplyAsync(() -> compress(input, dictionary, false), executor));
+					while (inFlight.size() > maxChunksInFlight)
+						result.compressedSize += write(inFlight.pollFirst().join(), out);
+				}
+				previous = chunk;
+			}
+			while (!inFlight.isEmpty())
+				result.compressedSize += write(inFlight.pollFirst().join(), out);
+		} catch (CompletionException e) {
+			throw new IOException("Failed to compress", e.getCause());
+		} finally {
+			inFlight.forEach(future -> future.cancel(true));
+		}
+		// an empty final block ends the stream
+		result.compressedSize += write(compress(new byte[0], null, true), out);
+		result.crc = crc.getValue();
+		return result;
+	}
+
+	private static long write(byte[] compressed, OutputStream out) throws IOException {
+		out.write(compressed);
+		return compressed.length;
+	}
+
+	private byte[] compress(byte[] input, byte[] dictionary, boolean last) {
+		Deflater deflater = new Deflater(level, true);
+		try {
+			if (dictionary != null)
+				deflater.setDictionary(dictionary);
+			deflater.setInput(input);
+			if (last)
+				deflater.finish();
+			byte[] output = new byte[input.length / 2 + 64];
+			int length = 0;
+			while (true) {
+				if (length == output.length)
+					output = Arrays.copyOf(output, output.length * 2);
+				int space = output.length - length;
+				int written = deflater.deflate(output, length, space, last ? Deflater.NO_FLUSH : Deflater.SYNC_FLUSH);
+				length += written;
+				// a sync flush is complete once the output is not filled up
+				if (last ? deflater.finished() : written < space)
+					break;
+			}
+			return Arrays.copyOf(output, length);
+		} finally {
+			deflater.end();
+		}
+	}
+
+	static final class Result {
+		long crc;
+		long size;
+		long compressedSize;
+	}
+}
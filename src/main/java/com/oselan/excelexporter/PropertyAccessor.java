@@ -0,0 +1,373 @@
+package com.oselan.excelexporter;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.RecordComponent;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToLongFunction;
+
+import lombok.SneakyThrows;
+
+/***
+ * A compiled accessor to read a property from a record. Accessors are resolved
+ * once per class and property path and cached, reading a value is then a plain
+ * call to a generated getter instead of a reflective lookup and invoke. <br>
+ * A property path is a dot separated list of segments (e.g. address.city), each
+ * segment is resolved in order to a record component, a getter (getX or isX
+ * for booleans) or finally a field declared on the class or its super classes.
+ * A null value along the path reads as null. Numeric primitive properties can
+ * also be read as a double, and long properties as a long, without boxing.
+ */
+public final class PropertyAccessor {
+
+	private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+	private static final ClassValue<Map<String, PropertyAccessor>> CACHE = new ClassValue<Map<String, PropertyAccessor>>() {
+		@Override
+		protected Map<String, PropertyAccessor> computeValue(Class<?> type) {
+			return new ConcurrentHashMap<String, PropertyAccessor>();
+		}
+	};
+
+	private final String property;
+
+	private final Class<?> type;
+
+	private final Function<Object, Object>[] getters;
+
+	/***
+	 * Unboxed getter of the last segment, null unless it is a numeric primitive
+	 */
+	private final ToDoubleFunction<Object> doubleGetter;
+
+	/***
+	 * Unboxed getter of the last segment, null unless it is a long
+	 */
+	private final ToLongFunction<Object> longGetter;
+
+	private PropertyAccessor(String property, Class<?> type, Function<Object, Object>[] getters,
+			ToDoubleFunction<Object> doubleGetter, ToLongFunction<Object> longGetter) {
+		this.property = property;
+		this.type = type;
+		this.getters = getters;
+		this.doubleGetter = doubleGetter;
+		this.longGetter = longGetter;
+	}
+
+	/***
+	 * Resolves (or fetches from cache) the accessor of a property on a class.
+	 *
+	 * @param recordClass the class of the records
+	 * @param property    property name or dot separated path
+	 * @return the accessor
+	 * @throws IllegalArgumentException if the property can not be found
+	 */
+	public static PropertyAccessor of(Class<?> recordClass, String property) {
+		PropertyAccessor accessor = CACHE.get(recordClass).get(property);
+		if (accessor == null) {
+			accessor = resolve(recordClass, property);
+			CACHE.get(recordClass).putIfAbsent(property, accessor);
+		}
+		return accessor;
+	}
+
+	/***
+	 * Reads the property value from the object.
+	 *
+	 * @param target
+	 * @return the value or null if the value or any object along the path is null
+	 */
+	public Object get(Object target) {
+		Object value = target;
+		for (Function<Object, Object> getter : getters) {
+			if (value == null)
+				return null;
+			value = getter.apply(value);
+		}
+		return value;
+	}
+
+	/***
+	 * Reads the object declaring the last segment of the path.
+	 *
+	 * @param target
+	 * @return the target itself for a simple property or null if any object along
+	 *         the path is null
+	 */
+	Object getParent(Object target) {
+		Object value = target;
+		for (int i = 0; i < getters.length - 1 && value != null; i++)
+			value = getters[i].apply(value);
+		return value;
+	}
+
+	/***
+	 * Reads a numeric primitive property as a double without boxing.
+	 *
+	 * @param parent the object declaring the property, see getParent
+	 * @return the value
+	 */
+	double getDouble(Object parent) {
+		return doubleGetter.applyAsDouble(parent);
+	}
+
+	/***
+	 * Reads a long property without boxing, so no digit is lost to a double.
+	 *
+	 * @param parent the object declaring the property, see getParent
+	 * @return the value
+	 */
+	long getLong(Object parent) {
+		return longGetter.applyAsLong(parent);
+	}
+
+	/***
+	 * @return true if the property is a long readable with getLong
+	 */
+	boolean isPrimitiveLong() {
+		return longGetter != null;
+	}
+
+	/***
+	 * @return true if the property is a numeric primitive readable with getDouble
+	 */
+	boolean isPrimitiveNumber() {
+		return doubleGetter != null;
+	}
+
+	/***
+	 * @return the property path
+	 */
+	public String getProperty() {
+		return property;
+	}
+
+	/***
+	 * @return the declared type of the property (last segment of the path)
+	 */
+	public Class<?> getType() {
+		return type;
+	}
+
+	private static PropertyAccessor resolve(Class<?> recordClass, String property) {
+		// keeps trailing empty segments so "a." is rejected as well
+		String[] segments = property.split("\\.", -1);
+		@SuppressWarnings("unchecked")
+		Function<Object, Object>[] getters = (Function<Object, Object>[]) new Function<?, ?>[segments.length];
+		Class<?> type = recordClass;
+		ToDoubleFunction<Object> doubleGetter = null;
+		ToLongFunction<Object> longGetter = null;
+		for (int i = 0; i < segments.length; i++) {
+			if (segments[i].isEmpty())
+				throw new IllegalArgumentException("Property '" + property + "' has an empty segment");
+			Getter getter = findGetter(type, segments[i]);
+			if (getter == null)
+				throw new IllegalArgumentException(
+						"Property '" + segments[i] + "' of '" + property + "' not found on " + type.getName());
+			getters[i] = getter.function;
+			type = getter.type;
+			doubleGetter = getter.doubleGetter;
+			longGetter = getter.longGetter;
+		}
+		return new PropertyAccessor(property, type, getters, doubleGetter, longGetter);
+	}
+
+	/***
+	 * Finds a getter reading the named segment from the type: record component,
+	 * getter, boolean is-getter then field.
+	 */
+	private static Getter findGetter(Class<?> type, String name) {
+		String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		Method method = null;
+		if (type.isRecord()) {
+			for (RecordComponent component : type.getRecordComponents())
+				if (component.getName().equals(name))
+					method = component.getAccessor();
+		}
+		if (method == null)
+			method = findMethod(type, "get" + capitalized);
+		if (method == null) {
+			method = findMethod(type, "is" + capitalized);
+			if (method != null && method.getReturnType() != boolean.class && method.getReturnType() != Boolean.class)
+				method = null;
+		}
+		try {
+			if (method != null)
+				return toGetter(lookupFor(method.getDeclaringClass(), method.getModifiers()).unreflect(method),
+						isPublic(method.getDeclaringClass(), method.getModifiers()));
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+				for (Field field : c.getDeclaredFields())
+					if (field.getName().equals(name) && !Modifier.isStatic(field.getModifiers()))
+						return toGetter(lookupFor(c, field.getModifiers()).unreflectGetter(field), false);
+			}
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Property '" + name + "' not accessible on " + type.getName(), e);
+		}
+		return null;
+	}
+
+	private static Method findMethod(Class<?> type, String methodName) {
+		try {
+			Method method = type.getMethod(methodName);
+			return method.getReturnType() == void.class || Modifier.isStatic(method.getModifiers()) ? null : method;
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	private static boolean isPublic(Class<?> declaringClass, int modifiers) {
+		return Modifier.isPublic(modifiers) && Modifier.isPublic(declaringClass.getModifiers());
+	}
+
+	private static MethodHandles.Lookup lookupFor(Class<?> declaringClass, int modifiers)
+			throws IllegalAccessException {
+		return isPublic(declaringClass, modifiers) ? LOOKUP : MethodHandles.privateLookupIn(declaringClass, LOOKUP);
+	}
+
+	/***
+	 * Spins a Function implementation calling the getter directly when the member
+	 * is publicly accessible, otherwise wraps the method handle. Numeric
+	 * primitive getters also get a ToDoubleFunction, long getters a
+	 * ToLongFunction.
+	 */
+	@SuppressWarnings("unchecked")
+	private static Getter toGetter(MethodHandle handle, boolean linkable) {
+		Class<?> returnType = handle.type().returnType();
+		Function<Object, Object> function = null;
+		if (linkable) {
+			try {
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, "apply", MethodType.methodType(Function.class),
+						MethodType.methodType(Object.class, Object.class), handle,
+						MethodType.methodType(MethodType.methodType(returnType).wrap().returnType(),
+								handle.type().parameterType(0)));
+				function = (Function<Object, Object>) site.getTarget().invoke();
+			} catch (Throwable e) {
+				// fall back to the method handle
+			}
+		}
+		if (function == null)
+			function = new HandleGetter(handle.asType(MethodType.methodType(Object.class, Object.class)));
+		return new Getter(function, returnType, isPrimitiveNumber(returnType) ? toDoubleGetter(handle, linkable) : null,
+				returnType == long.class ? toLongGetter(handle, linkable) : null);
+	}
+
+	private static boolean isPrimitiveNumber(Class<?> type) {
+		return type.isPrimitive() && type != boolean.class && type != char.class && type != void.class;
+	}
+
+	/***
+	 * Spins a ToDoubleFunction calling a numeric primitive getter, the metafactory
+	 * widens the return value to a double.
+	 */
+	@SuppressWarnings("unchecked")
+	private static ToDoubleFunction<Object> toDoubleGetter(MethodHandle handle, boolean linkable) {
+		if (linkable) {
+			try {
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, "applyAsDouble",
+						MethodType.methodType(ToDoubleFunction.class), MethodType.methodType(double.class, Object.class),
+						handle, MethodType.methodType(double.class, handle.type().parameterType(0)));
+				return (ToDoubleFunction<Object>) site.getTarget().invoke();
+			} catch (Throwable e) {
+				// fall back to the method handle
+			}
+		}
+		return new DoubleHandleGetter(handle.asType(MethodType.methodType(double.class, Object.class)));
+	}
+
+	/***
+	 * Spins a ToLongFunction calling a long getter
+	 */
+	@SuppressWarnings("unchecked")
+	private static ToLongFunction<Object> toLongGetter(MethodHandle handle, boolean linkable) {
+		if (linkable) {
+			try {
+				CallSite site = LambdaMetafactory.metafactory(LOOKUP, "applyAsLong",
+						MethodType.methodType(ToLongFunction.class), MethodType.methodType(long.class, Object.class),
+						handle, MethodType.methodType(long.class, handle.type().parameterType(0)));
+				return (ToLongFunction<Object>) site.getTarget().invoke();
+			} catch (Throwable e) {
+				// fall back to the method handle
+			}
+		}
+		return new LongHandleGetter(handle.asType(MethodType.methodType(long.class, Object.class)));
+	}
+
+	/***
+	 * A resolved path segment
+	 */
+	private static final class Getter {
+		private final Function<Object, Object> function;
+		private final Class<?> type;
+		private final ToDoubleFunction<Object> doubleGetter;
+		private final ToLongFunction<Object> longGetter;
+
+		private Getter(Function<Object, Object> function, Class<?> type, ToDoubleFunction<Object> doubleGetter,
+				ToLongFunction<Object> longGetter) {
+			this.function = function;
+			this.type = type;
+			this.doubleGetter = doubleGetter;
+			this.longGetter = longGetter;
+		}
+	}
+
+	/***
+	 * Fallback getter for members the metafactory can not link to (e.g.
+	 * non-public classes or fields).
+	 */
+	private static final class HandleGetter implements Function<Object, Object> {
+		private final MethodHandle handle;
+
+		private HandleGetter(MethodHandle handle) {
+			this.handle = handle;
+		}
+
+		@Override
+		@SneakyThrows
+		public Object apply(Object target) {
+			return handle.invokeExact(target);
+		}
+	}
+
+	/***
+	 * Fallback unboxed getter for members the metafactory can not link to
+	 */
+	private static final class DoubleHandleGetter implements ToDoubleFunction<Object> {
+		private final MethodHandle handle;
+
+		private DoubleHandleGetter(MethodHandle handle) {
+			this.handle = handle;
+		}
+
+		@Override
+		@SneakyThrows
+		public double applyAsDouble(Object target) {
+			return (double) handle.invokeExact(target);
+		}
+	}
+
+	/***
+	 * Fallback long getter for members the metafactory can not link to
+	 */
+	private static final class LongHandleGetter implements ToLongFunction<Object> {
+		private final MethodHandle handle;
+
+		private LongHandleGetter(MethodHandle handle) {
+			this.handle = handle;
+		}
+
+		@Override
+		@SneakyThrows
+		public long applyAsLong(Object target) {
+			return (long) handle.invokeExact(target);
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package com.oselan.excelexporter;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+/***
+ * Estimates the heap taken by queued records to bound the queue in bytes. The
+ * estimate of a record is its shallow size plus the values of all its instance
+ * fields, exported or not, and of the nested exported properties (e.g.
+ * address.city), assuming 16 byte object headers and 8 byte references. Field
+ * values are not walked further: other nested objects and collections count as
+ * a small object each, so records holding large object graphs should set
+ * {@link ExcelExporter#setRecordSizeEstimator}. A page is estimated from a
+ * sample of evenly spaced records so the cost does not grow with the page size.
+ */
+final class RecordSizeEstimator {
+
+	/***
+	 * Records or values estimated per page or column
+	 */
+	static final int SAMPLE_SIZE = 8;
+
+	private static final long OBJECT_HEADER = 16;
+	private static final long REFERENCE = 8;
+	private static final long ARRAY_HEADER = 16;
+
+	/***
+	 * Shallow size of each record class, a reference per instance field
+	 */
+	private static final ClassValue<Long> SHALLOW_SIZES = new ClassValue<Long>() {
+		@Override
+		protected Long computeValue(Class<?> type) {
+			long bytes = OBJECT_HEADER;
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass())
+				for (Field field : c.getDeclaredFields())
+					if (!Modifier.isStatic(field.getModifiers()))
+						bytes += REFERENCE;
+			return bytes;
+		}
+	};
+
+	/***
+	 * Fields of each record class whose values are estimated, the primitives are
+	 * counted in the shallow size and inaccessible fields are skipped
+	 */
+	private static final ClassValue<Field[]> VALUE_FIELDS = new ClassValue<Field[]>() {
+		@Override
+		protected Field[] computeValue(Class<?> type) {
+			List<Field> fields = new ArrayList<Field>();
+			for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass())
+				for (Field field : c.getDeclaredFields())
+					if (!Modifier.isStatic(field.getModifiers()) && !field.getType().isPrimitive()
+							&& field.trySetAccessible())
+						fields.add(field);
+			return fields.toArray(new Field[0]);
+		}
+	};
+
+	private RecordSizeEstimator() {
+	}
+
+	/***
+	 * Estimates a page of records from a sample
+	 *
+	 * @param records
+	 * @param properties the exported properties, null entries for columns without
+	 *                   property. Not used for Object[] records.
+	 * @return estimated bytes of the page
+	 */
+	static long estimatePage(List<?> records, String[] properties) {
+		int size = records.size();
+		if (size == 0)
+			return 0;
+		int samples = Math.min(SAMPLE_SIZE, size);
+		long sampled = 0;
+		for (int i = 0; i < samples; i++)
+			sampled += estimateRecord(records.get((int) ((long) i * size / samples)), properties);
+		// the list backing array holds a reference per record
+		return ARRAY_HEADER + REFERENCE * size + sampled * size / samples;
+	}
+
+	/***
+	 * Estimates a record with the values of its fields and nested exported
+	 * properties
+	 */
+	static long estimateRecord(Object record, String[] properties) {
+		if (record == null)
+			return 0;
+		if (record instanceof Object[]) {
+			Object[] values = (Object[]) record;
+			long bytes = ARRAY_HEADER + REFERENCE * values.length;
+			for (Object value : values)
+				bytes += estimateValue(value);
+			return bytes;
+		}
+		long bytes = SHALLOW_SIZES.get(record.getClass());
+		for (Field field : VALUE_FIELDS.get(record.getClass())) {
+			try {
+				bytes += estimateValue(field.get(record));
+			} catch (IllegalAccessException e) {
+				bytes += OBJECT_HEADER + 2 * REFERENCE;
+			}
+		}
+		// values of nested properties are not fields of the record
+		for (String property : properties)
+			if (property != null && property.indexOf('.') > 0)
+				bytes += estimateValue(PropertyAccessor.of(record.getClass(), property).get(record));
+		return bytes;
+	}
+
+	/***
+	 * Estimates the first count values of an array from a sample, not counting
+	 * the array
+	 */
+	static long estimateValues(Object[] values, int count) {
+		if (count == 0)
+			return 0;
+		int samples = Math.min(SAMPLE_SIZE, count);
+		long sampled = 0;
+		for (int i = 0; i < samples; i++)
+			sampled += estimateValue(values[(int) ((long) i * count / samples)]);
+		return sampled * count / samples;
+	}
+
+	/***
+	 * Estimates a property value, shared values (booleans, enums) are free and
+	 * primitives are counted with their record
+	 */
+	static long estimateValue(Object value) {
+		if (value == null || value instanceof Boolean || value instanceof Enum)
+			return 0;
+		if (value instanceof String)
+			return estimateString((String) value);
+		if (value instanceof BigDecimal)
+			return 40 + estimateBigInteger(((BigDecimal) value).unscaledValue());
+		if (value instanceof BigInteger)
+			return estimateBigInteger((BigInteger) value);
+		if (value instanceof Number || value instanceof Character || value instanceof LocalDate
+				|| value instanceof java.util.Date || value instanceof java.time.Instant)
+			return 24;
+		if (value instanceof LocalDateTime)
+			return 72;
+		if (value instanceof OffsetDateTime || value instanceof ZonedDateTime)
+			return 96;
+		if (value instanceof byte[])
+			return ARRAY_HEADER + ((byte[]) value).length;
+		if (value instanceof char[])
+			return ARRAY_HEADER + 2L * ((char[]) value).length;
+		// unknown types, e.g. nested objects, count as a small object
+		return OBJECT_HEADER + 2 * REFERENCE;
+	}
+
+	/***
+	 * A string and its byte array, one byte per char unless it holds non latin-1
+	 * chars
+	 */
+	private static long estimateString(String value) {
+		int length = value.length();
+		for (int i = 0; i < length; i++)
+			if (value.charAt(i) > 0xFF)
+				return 24 + ARRAY_HEADER + 2L * length;
+		return 24 + ARRAY_HEADER + length;
+	}
+
+	private static long estimateBigInteger(BigInteger value) {
+		return 40 + ARRAY_HEADER + 4L * ((value.bitLength() + 31) / 32);
+	}
+}
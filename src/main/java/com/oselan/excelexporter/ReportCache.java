@@ -0,0 +1,492 @@
+package com.oselan.excelexporter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.oselan.commons.exceptions.ConflictException;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import lombok.extern.slf4j.Slf4j;
+
+/***
+ * Caches generated reports on disk so the same report requested again is
+ * streamed from a file instead of scanning the data and building the workbook
+ * again. <br>
+ * Reports are keyed by a digest of the data provider, its parameters, the
+ * columns, the sheet name and an optional data version token, see
+ * {@link #key(String, List, String, String, Object...)}. Hits are copied with
+ * FileChannel.transferTo, which the OS does without copying through the heap
+ * when the target is a file or a socket. <br>
+ * The cache is bounded by size, least recently used reports are evicted first,
+ * and reports expire after a time to live. Concurrent requests of a report
+ * being generated wait for that generation instead of starting their own. A
+ * report larger than the cache is generated and streamed but not kept. <br>
+ * Reports are written to a .part file renamed once complete, so on startup the
+ * reports left in the directory by a previous run are indexed again, oldest
+ * first, and expired or partly written ones are deleted.
+ */
+@Slf4j
+public class ReportCache {
+
+	private static final String SUFFIX = ".report";
+	private static final String PART_SUFFIX = ".part";
+	// separates the key from the unique part of a file name
+	private static final char KEY_END = '~';
+
+	/***
+	 * Generates a report to the given stream, typically by opening an exporter on
+	 * it and running a data provider.
+	 */
+	@FunctionalInterface
+	public interface ReportGenerator {
+		void generate(OutputStream stream) throws Exception;
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Path directory;
+
+	private final long maxBytes;
+
+	private final long ttlMillis;
+
+	/***
+	 * Cached reports in least recently used order
+	 */
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+
+	/***
+	 * Reports being generated
+	 */
+	private final Map<String, Entry> inFlight = new HashMap<String, Entry>();
+
+	private long totalBytes;
+
+	private final Counter hits;
+	private final Counter misses;
+	private final Counter evictions;
+
+	/***
+	 * Cache publishing its meters to the global registry
+	 *
+	 * @param directory where the reports are stored, created if missing
+	 * @param maxBytes  size the cached reports are kept within
+	 * @param ttl       time a report is served after it was generated
+	 * @throws IOException
+	 */
+	public ReportCache(Path directory, long maxBytes, Duration ttl) throws IOException {
+		this(directory, maxBytes, ttl, Metrics.globalRegistry);
+	}
+
+	/***
+	 *
+	 * @param directory where the reports are stored, created if missing
+	 * @param maxBytes  size the cached reports are kept within
+	 * @param ttl       time a report is served after it was generated
+	 * @param registry  registry of the excel.export.cache.* meters
+	 * @throws IOException
+	 */
+	public ReportCache(Path directory, long maxBytes, Duration ttl, MeterRegistry registry) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.maxBytes = maxBytes;
+		this.ttlMillis = ttl.toMillis();
+		String prefix = ExportMetrics.PREFIX + ".cache";
+		// requests served without a generation of their own, waiting on one in flight
+		// included
+		hits = Counter.builder(prefix + ".hits").register(registry);
+		misses = Counter.builder(prefix + ".misses").register(registry);
+		evictions = Counter.builder(prefix + ".evictions").register(registry);
+		Gauge.builder(prefix + ".size", this, ReportCache::getSize).baseUnit("bytes").register(registry);
+		load();
+	}
+
+	/***
+	 * Indexes the reports left in the directory by a previous run, deleting the
+	 * expired and partly written ones, then evicts down to the cache size.
+	 */
+	private void load() throws IOException {
+		List<Entry> loaded = new ArrayList<Entry>();
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+			for (Path file : files) {
+				String name = file.getFileName().toString();
+				int keyEnd = name.lastIndexOf(KEY_END);
+				if (keyEnd <= 0)
+					continue;
+				if (name.endsWith(PART_SUFFIX)) {
+					// a generation interrupted by the shutdown
+					Files.deleteIfExists(file);
+				} else if (name.endsWith(SUFFIX)) {
+					Entry entry = new Entry(name.substring(0, keyEnd));
+					entry.file = file;
+					entry.size = Files.size(file);
+					entry.createdAt = Files.getLastModifiedTime(file).toMillis();
+					entry.ready.complete(null);
+					loaded.add(entry);
+				}
+			}
+		}
+		loaded.sort(Comparator.comparingLong((Entry entry) -> entry.createdAt));
+		lock.lock();
+		try {
+			for (Entry entry : loaded) {
+				Entry older = entries.put(entry.key, entry);
+				if (older != null) {
+					totalBytes -= older.size;
+					delete(older);
+				}
+				totalBytes += entry.size;
+			}
+			evict();
+			if (!entries.isEmpty())
+				log.info("Indexed {} cached reports of {} bytes in {}", entries.size(), totalBytes, directory);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * Builds the key of a report, a SHA-256 digest of everything that makes up
+	 * its content.
+	 *
+	 * @param dataProvider identity of the data provider, e.g. the repository
+	 *                     method name
+	 * @param columns      the columns exported
+	 * @param sheetName    the sheet name
+	 * @param dataVersion  token changing when the data changes (e.g. a last
+	 *                     modified timestamp or a table version), null if unknown
+	 * @param parameters   parameters of the data provider, compared by their
+	 *                     string form
+	 * @return the key
+	 */
+	public static String key(String dataProvider, List<ColumnDefinition> columns, String sheetName,
+			String dataVersion, Object... parameters) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		update(digest, dataProvider);
+		update(digest, sheetName);
+		update(digest, dataVersion);
+		update(digest, String.valueOf(columns.size()));
+		for (ColumnDefinition column : columns) {
+			update(digest, String.valueOf(column.getIndex()));
+			update(digest, column.getHeader());
+			update(digest, column.getProperty());
+			update(digest, column.getFormat());
+		}
+		update(digest, String.valueOf(parameters.length));
+		for (Object parameter : parameters)
+			update(digest, parameter instanceof Object[] ? Arrays.deepToString((Object[]) parameter)
+					: String.valueOf(parameter));
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest())
+			key.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		return key.toString();
+	}
+
+	/***
+	 * Length prefixed so adjacent values cannot run into each other
+	 */
+	private static void update(MessageDigest digest, String value) {
+		byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+		digest.update((byte) (value == null ? 0 : 1));
+		digest.update(String.valueOf(bytes.length).getBytes(StandardCharsets.US_ASCII));
+		digest.update((byte) ':');
+		digest.update(bytes);
+	}
+
+	/***
+	 * Writes the cached report to the stream, generating it first on a miss. A
+	 * FileOutputStream is written through its channel.
+	 *
+	 * @param key       key of the report
+	 * @param stream    stream the report is written to, left open
+	 * @param generator generates the report on a miss
+	 * @return bytes written
+	 * @throws IOException
+	 * @throws ConflictException if the generation failed
+	 */
+	public long export(String key, OutputStream stream, ReportGenerator generator)
+			throws IOException, ConflictException {
+		WritableByteChannel target = stream instanceof FileOutputStream ? ((FileOutputStream) stream).getChannel()
+				: Channels.newChannel(stream);
+		return transferTo(key, target, generator);
+	}
+
+	/***
+	 * Transfers the cached report to the channel, generating it first on a miss.
+	 * Pass a socket or file channel to have the OS copy the file.
+	 *
+	 * @param key       key of the report
+	 * @param target    channel the report is written to, left open
+	 * @param generator generates the report on a miss
+	 * @return bytes written
+	 * @throws IOException
+	 * @throws ConflictException if the generation failed
+	 */
+	public long transferTo(String key, WritableByteChannel target, ReportGenerator generator)
+			throws IOException, ConflictException {
+		Entry entry;
+		boolean generating = false;
+		lock.lock();
+		try {
+			entry = entries.get(key);
+			if (entry != null && isExpired(entry)) {
+				remove(entry);
+				entry = null;
+			}
+			if (entry == null)
+				entry = inFlight.get(key);
+			if (entry != null)
+				hits.increment();
+			else {
+				misses.increment();
+				entry = new Entry(key);
+				inFlight.put(key, entry);
+				generating = true;
+			}
+			entry.readers++;
+		} finally {
+			lock.unlock();
+		}
+		try {
+			if (generating)
+				generate(entry, generator);
+			else
+				await(entry);
+			try (FileChannel channel = FileChannel.open(entry.file, StandardOpenOption.READ)) {
+				long position = 0;
+				while (position < entry.size)
+					position += channel.transferTo(position, entry.size - position, target);
+				return position;
+			}
+		} finally {
+			release(entry);
+		}
+	}
+
+	/***
+	 * Removes a report so the next request generates it again
+	 *
+	 * @param key
+	 * @return true if the report was cached
+	 */
+	public boolean invalidate(String key) {
+		lock.lock();
+		try {
+			Entry entry = entries.get(key);
+			if (entry == null)
+				return false;
+			remove(entry);
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * Removes all the cached reports
+	 */
+	public void clear() {
+		lock.lock();
+		try {
+			for (Entry entry : new ArrayList<Entry>(entries.values()))
+				remove(entry);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * @return bytes of the cached reports
+	 */
+	public long getSize() {
+		lock.lock();
+		try {
+			return totalBytes;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/***
+	 * @return number of cached reports
+	 */
+	public int getCount() {
+		lock.lock();
+		try {
+			return entries.size();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void generate(Entry entry, ReportGenerator generator) throws IOException, ConflictException {
+		Path file = null;
+		try {
+			file = Files.createTempFile(directory, entry.key + KEY_END, PART_SUFFIX);
+			try (OutputStream stream = Files.newOutputStream(file)) {
+				generator.generate(stream);
+			}
+			String name = file.getFileName().toString();
+			file = Files.move(file,
+					file.resolveSibling(name.substring(0, name.length() - PART_SUFFIX.length()) + SUFFIX),
+					StandardCopyOption.ATOMIC_MOVE);
+			entry.file = file;
+			entry.size = Files.size(file);
+			entry.createdAt = System.currentTimeMillis();
+		} catch (Exception e) {
+			lock.lock();
+			try {
+				inFlight.remove(entry.key);
+			} finally {
+				lock.unlock();
+			}
+			if (file != null)
+				Files.deleteIfExists(file);
+			entry.ready.completeExceptionally(e);
+			if (e instanceof IOException)
+				throw (IOException) e;
+			if (e instanceof ConflictException)
+				throw (ConflictException) e;
+			throw new ConflictException("Failed to generate report " + entry.key, e);
+		}
+		lock.lock();
+		try {
+			inFlight.remove(entry.key);
+			if (entry.size <= maxBytes) {
+				entries.put(entry.key, entry);
+				totalBytes += entry.size;
+				evict();
+			} else {
+				log.debug("Report {} of {} bytes is larger than the cache, not kept", entry.key, entry.size);
+				// deleted when its last reader is done
+				entry.removed = true;
+			}
+		} finally {
+			lock.unlock();
+		}
+		entry.ready.complete(null);
+	}
+
+	private void await(Entry entry) throws IOException, ConflictException {
+		try {
+			entry.ready.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConflictException("Interrupted waiting for report " + entry.key, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			if (e.getCause() instanceof ConflictException)
+				throw (ConflictException) e.getCause();
+			throw new ConflictException("Failed to generate report " + entry.key, e.getCause());
+		}
+	}
+
+	/***
+	 * Drops expired reports then the least recently used ones until the cache is
+	 * within its size. Called with the lock held.
+	 */
+	private void evict() {
+		Iterator<Entry> iterator = entries.values().iterator();
+		List<Entry> evicted = new ArrayList<Entry>();
+		long remaining = totalBytes;
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (remaining > maxBytes || isExpired(entry)) {
+				evicted.add(entry);
+				remaining -= entry.size;
+			}
+		}
+		for (Entry entry : evicted) {
+			remove(entry);
+			evictions.increment();
+		}
+	}
+
+	private boolean isExpired(Entry entry) {
+		return System.currentTimeMillis() - entry.createdAt > ttlMillis;
+	}
+
+	/***
+	 * Removes a cached report, its file is deleted once no request is reading it.
+	 * Called with the lock held.
+	 */
+	private void remove(Entry entry) {
+		entries.remove(entry.key);
+		totalBytes -= entry.size;
+		entry.removed = true;
+		if (entry.readers == 0)
+			delete(entry);
+	}
+
+	private void release(Entry entry) {
+		lock.lock();
+		try {
+			entry.readers--;
+			if (entry.removed && entry.readers == 0)
+				delete(entry);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void delete(Entry entry) {
+		if (entry.file == null)
+			return;
+		try {
+			Files.deleteIfExists(entry.file);
+		} catch (IOException e) {
+			log.warn("Could not delete cached report {}", entry.file, e);
+		}
+	}
+
+	/***
+	 * A cached report or one being generated
+	 */
+	private static final class Entry {
+		private final String key;
+		private final CompletableFuture<Void> ready = new CompletableFuture<Void>();
+		private Path file;
+		private long size;
+		private long createdAt;
+		// requests reading or waiting for the report
+		private int readers;
+		// no longer served, deleted when the last reader is done
+		private boolean removed;
+
+		private Entry(String key) {
+			this.key = key;
+		}
+	}
+}
@@ -0,0 +1,249 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+
+/***
+ * A batch of rows read straight from a JDBC result set, one array per column
+ * typed from the SQL type of the column. Numbers and booleans are read with the
+ * primitive getters and kept in primitive arrays with a null mask, so no entity
+ * or boxed value is created per row. Decimals wider than 15 digits are read as
+ * BigDecimal, dates as java.time values and other types as the driver's
+ * objects.
+ */
+final class ResultSetBatch implements RowBatch {
+
+	static final byte BLANK = 0;
+	static final byte LONG = 1;
+	static final byte DOUBLE = 2;
+	static final byte BOOLEAN = 3;
+	static final byte STRING = 4;
+	static final byte DATE = 5;
+	static final byte DATE_TIME = 6;
+	static final byte OFFSET_DATE_TIME = 7;
+	static final byte OBJECT = 8;
+
+	private final int capacity;
+
+	private final byte[] kinds;
+
+	/***
+	 * Result set column index of each exporter column, 0 for blank columns
+	 */
+	private final int[] resultSetColumns;
+
+	private final Object[] columns;
+
+	private final boolean[][] nulls;
+
+	private int rowCount;
+
+	/***
+	 *
+	 * @param kinds            kind of each exporter column
+	 * @param resultSetColumns result set column index of each exporter column
+	 * @param capacity         maximum number of rows
+	 */
+	ResultSetBatch(byte[] kinds, int[] resultSetColumns, int capacity) {
+		this.capacity = capacity;
+		this.kinds = kinds;
+		this.resultSetColumns = resultSetColumns;
+		this.columns = new Object[kinds.length];
+		this.nulls = new boolean[kinds.length][];
+		for (int c = 0; c < kinds.length; c++) {
+			switch (kinds[c]) {
+			case LONG:
+				columns[c] = new long[capacity];
+				nulls[c] = new boolean[capacity];
+				break;
+			case DOUBLE:
+				columns[c] = new double[capacity];
+				nulls[c] = new boolean[capacity];
+				break;
+			case BOOLEAN:
+				columns[c] = new boolean[capacity];
+				nulls[c] = new boolean[capacity];
+				break;
+			case BLANK:
+				break;
+			default:
+				columns[c] = new Object[capacity];
+			}
+		}
+	}
+
+	/***
+	 * Chooses how a result set column is read from its SQL type
+	 *
+	 * @param metaData
+	 * @param column   result set column index
+	 * @return the kind of the column
+	 * @throws SQLException
+	 */
+	static byte kindOf(ResultSetMetaData metaData, int column) throws SQLException {
+		switch (metaData.getColumnType(column)) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+			return LONG;
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return DOUBLE;
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			// wider decimals are read as BigDecimal so no digit is lost
+			int precision = metaData.getPrecision(column);
+			return precision > 0 && precision <= 15 ? DOUBLE : OBJECT;
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return BOOLEAN;
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.NCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGNVARCHAR:
+		case Types.CLOB:
+		case Types.NCLOB:
+			return STRING;
+		case Types.DATE:
+			return DATE;
+		case Types.TIMESTAMP:
+			return DATE_TIME;
+		case Types.TIMESTAMP_WITH_TIMEZONE:
+			return OFFSET_DATE_TIME;
+		default:
+			return OBJECT;
+		}
+	}
+
+	/***
+	 * Reads the next rows of the result set until the batch is full or the
+	 * result set is exhausted
+	 *
+	 * @param resultSet
+	 * @return true if the result set may have more rows
+	 * @throws SQLException
+	 */
+	boolean fill(ResultSet resultSet) throws SQLException {
+		rowCount = 0;
+		while (rowCount < capacity) {
+			if (!resultSet.next())
+				return false;
+			int row = rowCount++;
+			for (int c = 0; c < kinds.length; c++) {
+				int index = resultSetColumns[c];
+				switch (kinds[c]) {
+				case LONG:
+					((long[]) columns[c])[row] = resultSet.getLong(index);
+					nulls[c][row] = resultSet.wasNull();
+					break;
+				case DOUBLE:
+					((double[]) columns[c])[row] = resultSet.getDouble(index);
+					nulls[c][row] = resultSet.wasNull();
+					break;
+				case BOOLEAN:
+					((boolean[]) columns[c])[row] = resultSet.getBoolean(index);
+					nulls[c][row] = resultSet.wasNull();
+					break;
+				case STRING:
+					((Object[]) columns[c])[row] = resultSet.getString(index);
+					break;
+				case DATE:
+					((Object[]) columns[c])[row] = resultSet.getObject(index, LocalDate.class);
+					break;
+				case DATE_TIME:
+					((Object[]) columns[c])[row] = resultSet.getObject(index, LocalDateTime.class);
+					break;
+				case OFFSET_DATE_TIME:
+					((Object[]) columns[c])[row] = resultSet.getObject(index, OffsetDateTime.class);
+					break;
+				case OBJECT:
+					((Object[]) columns[c])[row] = resultSet.getObject(index);
+					break;
+				default:
+					break;
+				}
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/***
+	 * Estimates the heap taken by the batch, object values from a sample
+	 *
+	 * @return estimated bytes
+	 */
+	long estimateBytes() {
+		long bytes = 16L * (columns.length + 1);
+		for (int c = 0; c < kinds.length; c++) {
+			switch (kinds[c]) {
+			case LONG:
+			case DOUBLE:
+				bytes += 9L * capacity;
+				break;
+			case BOOLEAN:
+				bytes += 2L * capacity;
+				break;
+			case BLANK:
+				break;
+			default:
+				bytes += 8L * capacity + RecordSizeEstimator.estimateValues((Object[]) columns[c], rowCount);
+			}
+		}
+		return bytes;
+	}
+
+	/***
+	 * Writes the cells of a row, null values are left blank
+	 *
+	 * @param sheet
+	 * @param row           row of the batch
+	 * @param styles        styles of the columns
+	 * @param dateStyle     style of dates in a column without a format
+	 * @param dateTimeStyle style of date times in a column without a format
+	 * @throws IOException
+	 */
+	void writeRow(SheetSink sheet, int row, int[] styles, int dateStyle, int dateTimeStyle) throws IOException {
+		for (int c = 0; c < kinds.length; c++) {
+			switch (kinds[c]) {
+			case LONG:
+				if (!nulls[c][row])
+					ColumnWriter.writeLong(sheet, c, ((long[]) columns[c])[row], styles[c]);
+				break;
+			case DOUBLE:
+				if (!nulls[c][row])
+					sheet.writeNumber(c, ((double[]) columns[c])[row], styles[c]);
+				break;
+			case BOOLEAN:
+				if (!nulls[c][row])
+					sheet.writeBoolean(c, ((boolean[]) columns[c])[row], styles[c]);
+				break;
+			case STRING:
+				Object text = ((Object[]) columns[c])[row];
+				if (text != null)
+					sheet.writeString(c, (String) text, styles[c]);
+				break;
+			case BLANK:
+				// same empty cell as a column without property of the record path
+				sheet.writeString(c, "", styles[c]);
+				break;
+			default:
+				ColumnWriter.writeValue(sheet, c, ((Object[]) columns[c])[row], styles[c], dateStyle, dateTimeStyle);
+			}
+		}
+	}
+}
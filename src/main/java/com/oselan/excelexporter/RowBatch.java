@@ -0,0 +1,14 @@
+package com.oselan.excelexporter;
+
+/***
+ * A batch of rows queued between the data producers and the writer, either a
+ * page of records or a columnar batch.
+ */
+interface RowBatch {
+
+	/***
+	 *
+	 * @return number of rows in the batch
+	 */
+	int getRowCount();
+}
@@ -0,0 +1,88 @@
+package com.oselan.excelexporter;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/***
+ * The writer side of the export pipeline. A sink receives the sheets and rows
+ * drained from the queue and produces the output. Implementations are the POI
+ * SXSSF workbook, the streaming xlsx writer and the delimited text writer,
+ * others can be plugged in through a {@link RowSinkFactory}. <br>
+ * A sink is used by the exporter's writer thread only, except for sheets
+ * written concurrently when supportsConcurrentSheets() is true.
+ */
+public interface RowSink extends Closeable {
+
+	/***
+	 * Style index of cells without a format
+	 */
+	int DEFAULT_STYLE = 0;
+
+	/***
+	 * Max distinct formats per workbook, Excel allows about 64000 cell styles and
+	 * each one bloats styles.xml
+	 */
+	int MAX_FORMATS = 1000;
+
+	/***
+	 * Resolves a number/date format (e.g. #,##0.00, 0.00% or yyyy-mm-dd) to a
+	 * style shared by all the sheets of the workbook. Styles are created once per
+	 * distinct format, once MAX_FORMATS is reached the default style is returned.
+	 * Styles are resolved before the sheets using them are opened.
+	 * 
+	 * @param format Excel format string
+	 * @return the style index to write cells with
+	 */
+	int resolveStyle(String format);
+
+	/***
+	 * Opens a new sheet to write rows to.
+	 * 
+	 * @param name sheet name
+	 * @return the sheet
+	 * @throws IOException
+	 */
+	SheetSink openSheet(String name) throws IOException;
+
+	/***
+	 * @return true if rows may be written to several sheets at the same time from
+	 *         different threads
+	 */
+	boolean supportsConcurrentSheets();
+
+	/***
+	 * @return true if the output has a single sheet, rows are then never split
+	 *         over sheets and openSheet() is called once
+	 */
+	default boolean isSingleSheet() {
+		return false;
+	}
+
+	/***
+	 * Moves a sheet to a position, used to group sheets created concurrently.
+	 * 
+	 * @param name
+	 * @param position
+	 */
+	void moveSheet(String name, int position);
+
+	/***
+	 * Completes the output once all rows are written.
+	 * 
+	 * @throws IOException
+	 */
+	void finish() throws IOException;
+
+	/***
+	 * @return bytes of temp disk used by the sink
+	 */
+	default long getTempDiskBytes() {
+		return 0;
+	}
+
+	/***
+	 * Frees any resources (e.g. temp files), the output stream is not closed.
+	 */
+	@Override
+	void close() throws IOException;
+}
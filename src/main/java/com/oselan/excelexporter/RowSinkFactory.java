@@ -0,0 +1,36 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/***
+ * Creates the {@link RowSink} of an export, replacing the xlsx engines with
+ * another output format.
+ */
+@FunctionalInterface
+public interface RowSinkFactory {
+
+	/***
+	 *
+	 * @param stream output stream of the export, it must not be closed by the
+	 *               sink
+	 * @return a new sink
+	 * @throws IOException
+	 */
+	RowSink create(OutputStream stream) throws IOException;
+
+	/***
+	 * @return name of the output format, the engine tag of the export meters
+	 */
+	default String getName() {
+		return getClass().getSimpleName();
+	}
+
+	/***
+	 * @return extension of the files written, without the leading dot
+	 */
+	default String getFileExtension() {
+		return getName().toLowerCase(Locale.ROOT);
+	}
+}
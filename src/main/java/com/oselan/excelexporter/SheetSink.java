@@ -0,0 +1,40 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+
+/***
+ * A sheet of a {@link RowSink}. Rows are written in order, a row is started,
+ * its cells written in column order and then ended. Columns without a value
+ * are simply skipped. The style of a cell is an index resolved by the sink.
+ */
+public interface SheetSink {
+
+	void startRow(int rowIndex) throws IOException;
+
+	void writeString(int column, String value, int style) throws IOException;
+
+	void writeNumber(int column, double value, int style) throws IOException;
+
+	void writeBoolean(int column, boolean value, int style) throws IOException;
+
+	/***
+	 * Writes a date or date time, dates are passed at the start of their day. The
+	 * default writes the Excel serial number of the date, as xlsx stores dates,
+	 * and dates Excel can not represent (before 1900) as text. Sinks of other
+	 * formats write the date in their own form.
+	 *
+	 * @param column
+	 * @param value  the date time in the time zone it is shown in
+	 * @param style  a date style of the column
+	 * @throws IOException
+	 */
+	default void writeDate(int column, LocalDateTime value, int style) throws IOException {
+		if (ExcelDates.isRepresentable(value))
+			writeNumber(column, ExcelDates.toSerial(value), style);
+		else
+			writeString(column, value.toString(), style);
+	}
+
+	void endRow() throws IOException;
+}
@@ -0,0 +1,550 @@
+package com.oselan.excelexporter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+
+import com.oselan.commons.exceptions.ConflictException;
+
+import lombok.extern.slf4j.Slf4j;
+
+/***
+ * Splits a large export into several files (parts) instead of one workbook
+ * with many sheets. A new part is started once the current one has
+ * maxRowsPerFile rows or maxBytesPerFile bytes, each part is an
+ * {@link ExcelExporter} writing on a thread of its own so finishing a part
+ * (e.g. writing an SXSSF workbook) overlaps with reading the next one. Up to
+ * parallelism parts are written at the same time. <br>
+ * The parts are written to a directory, or to temp files that are added to a
+ * zip stream in order as they complete, deflated unless they are compressed
+ * already (xlsx, gzip). They are named after the file name with a part number,
+ * e.g. Report_001.xlsx. <br>
+ * When a part fails the other parts are cancelled and the files of the parts
+ * not completed are deleted. An export without records fails as an
+ * {@link ExcelExporter} does. <br>
+ * Records are added with addRecords or read from a data provider on the
+ * calling thread, parts are configured (engine, row sink, formats...) by the
+ * part settings.
+ *
+ * @param <T> record type
+ */
+@Slf4j
+public class SplitExporter<T> implements AutoCloseable {
+
+	private static final int DEFAULT_MAX_ROWS_PER_FILE = 1000000;
+	private static final int DEFAULT_DATA_FETCH_SIZE = 2000;
+
+	private final List<ColumnDefinition> columns;
+
+	private final String sheetName;
+
+	private final Class<? extends T> recordClass;
+
+	private int maxRowsPerFile = DEFAULT_MAX_ROWS_PER_FILE;
+	private long maxBytesPerFile = 0;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int dataFetchSize = DEFAULT_DATA_FETCH_SIZE;
+	private String fileName;
+	private Consumer<ExcelExporter<T>> partSettings = exporter -> {
+	};
+	private Executor executor = ExportExecutors.threadPerTask();
+	private Path tempDirectory = null;
+
+	/***
+	 * Directory the parts are written to, null when zipped
+	 */
+	private Path directory;
+
+	private ZipOutputStream zip;
+
+	private String fileExtension;
+
+	/***
+	 * Parts are compressed already and stored as is in the zip
+	 */
+	private boolean compressedParts;
+
+	/***
+	 * The failure that stopped the export, reported again by later calls
+	 */
+	private ConflictException failure;
+
+	private Part current;
+
+	/***
+	 * Parts with all their records added, still being written, oldest first
+	 */
+	private final Deque<Part> pending = new ArrayDeque<Part>();
+
+	private final List<String> fileNames = new ArrayList<String>();
+
+	private long totalRows;
+
+	/***
+	 *
+	 * @param columns
+	 * @param sheetName   sheet name of every part
+	 * @param recordClass class of the records used to resolve the column
+	 *                    properties
+	 */
+	public SplitExporter(List<ColumnDefinition> columns, String sheetName, Class<? extends T> recordClass) {
+		this.columns = columns;
+		this.sheetName = sheetName;
+		this.recordClass = recordClass;
+		this.fileName = sheetName;
+	}
+
+	public int getMaxRowsPerFile() {
+		return maxRowsPerFile;
+	}
+
+	/***
+	 * Rows per part. Default is 1000000. Must be set before calling open()
+	 *
+	 * @param maxRowsPerFile
+	 */
+	public void setMaxRowsPerFile(int maxRowsPerFile) {
+		this.maxRowsPerFile = maxRowsPerFile;
+	}
+
+	public long getMaxBytesPerFile() {
+		return maxBytesPerFile;
+	}
+
+	/***
+	 * Bytes per part, checked as records are added so a part ends larger by up to
+	 * a page and the bytes the sink buffers. Only engines writing as rows arrive
+	 * (STREAMING, delimited text) are split by size, an SXSSF workbook is written
+	 * when its part ends. Default is 0, no limit. Must be set before calling open()
+	 *
+	 * @param maxBytesPerFile
+	 */
+	public void setMaxBytesPerFile(long maxBytesPerFile) {
+		this.maxBytesPerFile = maxBytesPerFile;
+	}
+
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/***
+	 * Parts written at the same time, each holding its queue and workbook buffers.
+	 * Default is the number of processors. Must be set before calling open()
+	 *
+	 * @param parallelism
+	 */
+	public void setParallelism(int parallelism) {
+		this.parallelism = parallelism;
+	}
+
+	public int getDataFetchSize() {
+		return dataFetchSize;
+	}
+
+	/***
+	 * Records fetched per page from the data providers. Default is 2000.
+	 *
+	 * @param dataFetchSize
+	 */
+	public void setDataFetchSize(int dataFetchSize) {
+		this.dataFetchSize = dataFetchSize;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	/***
+	 * Name of the parts before the part number. Default is the sheet name. Must be
+	 * set before calling open()
+	 *
+	 * @param fileName
+	 */
+	public void setFileName(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/***
+	 * Configures the exporter of each part before it is opened, e.g. its engine,
+	 * row sink factory or queue size. Must be set before calling open()
+	 *
+	 * @param partSettings
+	 */
+	public void setPartSettings(Consumer<ExcelExporter<T>> partSettings) {
+		this.partSettings = partSettings;
+	}
+
+	public Executor getExecutor() {
+		return executor;
+	}
+
+	/***
+	 * Executor the parts are written on. Default is
+	 * {@link ExportExecutors#threadPerTask()}. Must be set before calling open()
+	 *
+	 * @param executor
+	 */
+	public void setExecutor(Executor executor) {
+		this.executor = executor;
+	}
+
+	public Path getTempDirectory() {
+		return tempDirectory;
+	}
+
+	/***
+	 * Directory of the part files waiting to be zipped. Default is null for
+	 * java.io.tmpdir. Must be set before calling open()
+	 *
+	 * @param tempDirectory
+	 */
+	public void setTempDirectory(Path tempDirectory) {
+		this.tempDirectory = tempDirectory;
+	}
+
+	/***
+	 * @return names of the parts written so far
+	 */
+	public List<String> getFileNames() {
+		return Collections.unmodifiableList(fileNames);
+	}
+
+	/***
+	 * @return records added so far
+	 */
+	public long getTotalRows() {
+		return totalRows;
+	}
+
+	/***
+	 * Writes the parts to files in a directory, created if missing
+	 *
+	 * @param directory
+	 * @throws ConflictException
+	 */
+	public void open(Path directory) throws ConflictException {
+		try {
+			this.directory = Files.createDirectories(directory);
+		} catch (IOException e) {
+			throw new ConflictException("Failed to create the directory " + directory, e);
+		}
+		open();
+	}
+
+	/***
+	 * Writes the parts as entries of a zip, the stream is not closed
+	 *
+	 * @param stream
+	 * @throws ConflictException
+	 */
+	public void open(OutputStream stream) throws ConflictException {
+		this.zip = new ZipOutputStream(new NonClosingOutputStream(stream));
+		open();
+	}
+
+	private void open() {
+		// the part settings may change the row sink and with it the file extension
+		ExcelExporter<T> probe = createExporter(OutputStream.nullOutputStream());
+		fileExtension = probe.getRowSinkFactory() == null ? "xlsx" : probe.getRowSinkFactory().getFileExtension();
+		compressedParts = probe.getRowSinkFactory() == null ? probe.getCompressionLevel() != 0
+				: fileExtension.endsWith("gz") || fileExtension.equals("zip") || fileExtension.equals("xlsx");
+		failure = null;
+	}
+
+	/***
+	 * Adds records to the current part, starting new parts as parts fill up.
+	 * Blocks while the current part's queue is full or parallelism parts are being
+	 * written.
+	 *
+	 * @param records
+	 * @throws IOException
+	 * @throws ConflictException if a part failed
+	 */
+	public void addRecords(List<T> records) throws IOException, ConflictException {
+		if (failure != null)
+			throw failure;
+		if (fileExtension == null)
+			throw new IOException("Exporter not open - call open() before attempting to send data ");
+		int offset = 0;
+		while (offset < records.size()) {
+			if (current == null || current.rows >= maxRowsPerFile
+					|| maxBytesPerFile > 0 && current.stream.getCount() >= maxBytesPerFile)
+				startPart();
+			int count = Math.min(records.size() - offset, maxRowsPerFile - current.rows);
+			current.exporter.addRecords(offset == 0 && count == records.size() ? records
+					: new ArrayList<T>(records.subList(offset, offset + count)));
+			current.rows += count;
+			totalRows += count;
+			offset += count;
+		}
+	}
+
+	/***
+	 * Reads the pages of the data provider and adds them to the parts
+	 *
+	 * @param pagedDataProvider A function that takes a page request and returns
+	 *                          the page of data
+	 * @param mapper            A function that maps the data from provider to
+	 *                          record data type or null if both are the same.
+	 * @throws ConflictException
+	 */
+	public <D> void generateReportFromDataProvider(Function<PageRequest, Slice<D>> pagedDataProvider,
+			Function<D, T> mapper) throws ConflictException {
+		try {
+			PageRequest page = PageRequest.of(0, dataFetchSize);
+			Slice<D> slice;
+			do {
+				log.debug("Retrieving page {} of {} records", page.getPageNumber(), dataFetchSize);
+				slice = pagedDataProvider.apply(page);
+				addPage(slice.getContent(), mapper);
+				page = page.withPage(page.getPageNumber() + 1);
+			} while (slice.hasNext());
+		} catch (Exception e) {
+			throw failed(e);
+		}
+	}
+
+	/***
+	 * Seeks through the keyset data provider and adds the records to the parts
+	 *
+	 * @param keysetDataProvider A function that takes the last key read (null for
+	 *                           the first page) and the page size and returns the
+	 *                           next records ordered by key.
+	 * @param keyExtractor       A function returning the sort key of a record
+	 * @param mapper             A function that maps the data from provider to
+	 *                           record data type or null if both are the same.
+	 * @throws ConflictException
+	 */
+	public <K, D> void generateReportFromKeysetProvider(BiFunction<K, Integer, List<D>> keysetDataProvider,
+			Function<D, K> keyExtractor, Function<D, T> mapper) throws ConflictException {
+		try {
+			K lastKey = null;
+			List<D> records;
+			do {
+				log.debug("Retrieving next batch of {} records after key {}", dataFetchSize, lastKey);
+				records = keysetDataProvider.apply(lastKey, dataFetchSize);
+				if (!records.isEmpty()) {
+					lastKey = keyExtractor.apply(records.get(records.size() - 1));
+					addPage(records, mapper);
+				}
+			} while (records.size() >= dataFetchSize);
+		} catch (Exception e) {
+			throw failed(e);
+		}
+	}
+
+	/***
+	 * Reads the stream in one pass and adds the records to the parts in batches of
+	 * dataFetchSize. The stream is closed when done.
+	 *
+	 * @param streamProvider A function that takes the fetch size and opens the
+	 *                       stream, it must run in a transaction if it needs one
+	 * @param mapper         A function that maps the data from provider to record
+	 *                       data type or null if both are the same.
+	 * @throws ConflictException
+	 */
+	public <D> void generateReportFromStream(IntFunction<Stream<D>> streamProvider, Function<D, T> mapper)
+			throws ConflictException {
+		try (Stream<D> stream = streamProvider.apply(dataFetchSize)) {
+			Iterator<D> records = stream.iterator();
+			List<D> batch = new ArrayList<D>(dataFetchSize);
+			while (records.hasNext()) {
+				batch.add(records.next());
+				if (batch.size() >= dataFetchSize || !records.hasNext()) {
+					addPage(batch, mapper);
+					batch = new ArrayList<D>(dataFetchSize);
+				}
+			}
+		} catch (Exception e) {
+			throw failed(e);
+		}
+	}
+
+	/***
+	 * Waits for the parts to be written and completes the zip
+	 *
+	 * @throws ConflictException if a part failed or no records were added
+	 */
+	@Override
+	public void close() throws ConflictException {
+		if (fileExtension == null)
+			return;
+		if (totalRows == 0)
+			// the zip is left unfinished so nothing is written to the stream
+			throw failed(new ConflictException("No data found to generate report."));
+		try {
+			if (current != null) {
+				current.exporter.closeData();
+				pending.addLast(current);
+				current = null;
+			}
+			while (!pending.isEmpty())
+				completeOldest();
+			if (zip != null)
+				zip.close();
+			log.info("Export of {} split into {} files, {} rows", fileName, fileNames.size(), totalRows);
+		} catch (Exception e) {
+			throw failed(e);
+		} finally {
+			fileExtension = null;
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private <D> void addPage(List<D> content, Function<D, T> mapper) throws IOException, ConflictException {
+		if (mapper == null)
+			addRecords((List<T>) content);
+		else {
+			List<T> records = new ArrayList<T>(content.size());
+			for (D data : content)
+				records.add(mapper.apply(data));
+			addRecords(records);
+		}
+	}
+
+	private ExcelExporter<T> createExporter(OutputStream stream) {
+		ExcelExporter<T> exporter = new ExcelExporter<T>(stream, columns, sheetName, recordClass);
+		partSettings.accept(exporter);
+		return exporter;
+	}
+
+	/***
+	 * Ends the current part and starts the next one once fewer than parallelism
+	 * parts are being written
+	 */
+	private void startPart() throws IOException, ConflictException {
+		if (current != null) {
+			current.exporter.closeData();
+			pending.addLast(current);
+			current = null;
+		}
+		while (pending.size() >= Math.max(1, parallelism))
+			completeOldest();
+		String name = String.format("%s_%03d.%s", fileName, fileNames.size() + pending.size() + 1, fileExtension);
+		Path file = directory != null ? directory.resolve(name)
+				: tempDirectory != null ? Files.createTempFile(tempDirectory, "part", "." + fileExtension)
+						: Files.createTempFile("part", "." + fileExtension);
+		Part part = new Part(name, file);
+		try {
+			part.exporter.open();
+		} catch (ConflictException e) {
+			part.stream.close();
+			Files.deleteIfExists(file);
+			throw e;
+		}
+		part.writing = CompletableFuture.runAsync(() -> {
+			try {
+				part.exporter.export();
+			} catch (ConflictException e) {
+				throw new CompletionException(e);
+			}
+		}, executor);
+		current = part;
+		log.debug("Started part {}", name);
+	}
+
+	/***
+	 * Waits for the oldest part to be written and adds it to the zip
+	 */
+	private void completeOldest() throws IOException, ConflictException {
+		Part part = pending.peekFirst();
+		try {
+			part.writing.join();
+		} catch (CompletionException e) {
+			throw failed(new ConflictException("Failed to write " + part.name, e.getCause()));
+		}
+		pending.pollFirst();
+		part.exporter.close();
+		part.stream.close();
+		if (zip != null) {
+			ZipEntry entry = new ZipEntry(part.name);
+			if (compressedParts) {
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(part.stream.getCount());
+				entry.setCompressedSize(part.stream.getCount());
+				entry.setCrc(part.crc.getValue());
+			}
+			zip.putNextEntry(entry);
+			Files.copy(part.file, zip);
+			zip.closeEntry();
+			Files.delete(part.file);
+		}
+		fileNames.add(part.name);
+		log.info("Part {} written, {} rows {} bytes", part.name, part.rows, part.stream.getCount());
+	}
+
+	/***
+	 * Cancels the parts being written and deletes their files, the parts already
+	 * completed are kept
+	 */
+	private ConflictException failed(Exception e) {
+		if (failure != null)
+			return failure;
+		if (current != null) {
+			pending.addLast(current);
+			current = null;
+		}
+		for (Part part : pending)
+			part.exporter.cancel("Split export of " + fileName + " failed");
+		for (Part part : pending) {
+			part.writing.exceptionally(error -> null).join();
+			part.exporter.close();
+			try {
+				part.stream.close();
+				Files.deleteIfExists(part.file);
+			} catch (IOException closing) {
+				log.warn("Failed to clean up part {}", part.name, closing);
+			}
+		}
+		pending.clear();
+		fileExtension = null;
+		log.error("Split export of {} failed", fileName, e);
+		failure = e instanceof ConflictException ? (ConflictException) e
+				: new ConflictException("Failed to generate the report ", e);
+		return failure;
+	}
+
+	/***
+	 * A part file and its exporter
+	 */
+	private final class Part {
+		private final String name;
+		private final Path file;
+		private final CRC32 crc = new CRC32();
+		private final CountingOutputStream stream;
+		private final ExcelExporter<T> exporter;
+		private CompletableFuture<Void> writing;
+		private int rows;
+
+		private Part(String name, Path file) throws IOException {
+			this.name = name;
+			this.file = file;
+			this.stream = new CountingOutputStream(
+					new CheckedOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024), crc));
+			this.exporter = createExporter(stream);
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package com.oselan.excelexporter;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.poi.ss.usermodel.BuiltinFormats;
+import org.apache.poi.ss.util.WorkbookUtil;
+
+/***
+ * Row sink writing the xlsx zip entries straight to the output stream as rows
+ * arrive. Strings are inlined in the cells so there is no shared strings table
+ * and no temp files, sheets are written one after the other and the workbook
+ * parts that list them are written on finish. Sheet names follow the SXSSF
+ * engine: cut to 31 chars, without []:*?/\ and unique ignoring case.
+ */
+class StreamingXlsxSink implements RowSink {
+
+	private static final String MAIN_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+	private static final String REL_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+	private static final String PKG_REL_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+	private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int MAX_SHEET_NAME = 31;
+
+	private final ZipOutputStream zip;
+
+	private final Writer writer;
+
+	private final List<String> sheetNames = new ArrayList<String>();
+
+	private StreamingSheetSink activeSheet;
+
+	/***
+	 * Number format id of each style, index 0 is the default style
+	 */
+	private final List<Integer> styleFormatIds = new ArrayList<Integer>(List.of(0));
+
+	private final Map<String, Integer> styleIndexes = new LinkedHashMap<String, Integer>();
+
+	/***
+	 * Custom number formats by id, ids start at 164
+	 */
+	private final Map<Integer, String> customFormats = new LinkedHashMap<Integer, String>();
+
+	/***
+	 *
+	 * @param compressionLevel Deflater level of the entries
+	 * @param stream           output stream to write to, it is not closed
+	 * @throws IOException
+	 */
+	StreamingXlsxSink(int compressionLevel, OutputStream stream) throws IOException {
+		this.zip = new ZipOutputStream(new BufferedOutputStream(new NonClosingOutputStream(stream), BUFFER_SIZE));
+		zip.setLevel(compressionLevel);
+		this.writer = new OutputStreamWriter(zip, StandardCharsets.UTF_8);
+		writeEntry("[Content_Types].xml", XML_HEADER
+				+ "<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">"
+				+ "<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>"
+				+ "<Default Extension=\"xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>"
+				+ "<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>"
+				+ "<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>"
+				+ "</Types>");
+		writeEntry("_rels/.rels", XML_HEADER + "<Relationships xmlns=\"" + PKG_REL_NS + "\">"
+				+ "<Relationship Id=\"rId1\" Type=\"" + REL_NS + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+				+ "</Relationships>");
+	}
+
+	@Override
+	public SheetSink openSheet(String name) throws IOException {
+		// same rules as the SXSSF engine, Excel repairs a workbook breaking them
+		String sheetName = name.length() > MAX_SHEET_NAME ? name.substring(0, MAX_SHEET_NAME) : name;
+		WorkbookUtil.validateSheetName(sheetName);
+		for (String existing : sheetNames)
+			if (existing.equalsIgnoreCase(sheetName))
+				throw new IllegalArgumentException("The workbook already contains a sheet named '" + sheetName + "'");
+		closeActiveSheet();
+		sheetNames.add(sheetName);
+		zip.putNextEntry(new ZipEntry("xl/worksheets/sheet" + sheetNames.size() + ".xml"));
+		writer.write(XML_HEADER);
+		writer.write("<worksheet xmlns=\"" + MAIN_NS + "\"><sheetData>");
+		activeSheet = new StreamingSheetSink();
+		return activeSheet;
+	}
+
+	@Override
+	public int resolveStyle(String format) {
+		if (format == null || format.isEmpty())
+			return DEFAULT_STYLE;
+		Integer index = styleIndexes.get(format);
+		if (index == null) {
+			if (styleFormatIds.size() > MAX_FORMATS)
+				return DEFAULT_STYLE;
+			int formatId = BuiltinFormats.getBuiltinFormat(format);
+			if (formatId < 0) {
+				formatId = 164 + customFormats.size();
+				customFormats.put(formatId, format);
+			}
+			index = styleFormatIds.size();
+			styleFormatIds.add(formatId);
+			styleIndexes.put(format, index);
+		}
+		return index;
+	}
+
+	@Override
+	public boolean supportsConcurrentSheets() {
+		return false;
+	}
+
+	@Override
+	public void moveSheet(String name, int position) {
+		throw new UnsupportedOperationException("Sheets are written in order");
+	}
+
+	@Override
+	public void finish() throws IOException {
+		closeActiveSheet();
+		StringBuilder workbook = new StringBuilder(XML_HEADER).append("<workbook xmlns=\"").append(MAIN_NS)
+				.append("\" xmlns:r=\"").append(REL_NS).append("\"><sheets>");
+		StringBuilder rels = new StringBuilder(XML_HEADER).append("<Relationships xmlns=\"").append(PKG_REL_NS)
+				.append("\">");
+		for (int i = 1; i <= sheetNames.size(); i++) {
+			workbook.append("<sheet name=\"").append(escape(sheetNames.get(i - 1))).append("\" sheetId=\"").append(i)
+					.append("\" r:id=\"rId").append(i).append("\"/>");
+			rels.append("<Relationship Id=\"rId").append(i).append("\" Type=\"").append(REL_NS)
+					.append("/worksheet\" Target=\"worksheets/sheet").append(i).append(".xml\"/>");
+		}
+		workbook.append("</sheets></workbook>");
+		rels.append("<Relationship Id=\"rId").append(sheetNames.size() + 1).append("\" Type=\"").append(REL_NS)
+				.append("/styles\" Target=\"styles.xml\"/></Relationships>");
+		writeEntry("xl/workbook.xml", workbook.toString());
+		writeEntry("xl/_rels/workbook.xml.rels", rels.toString());
+		writeEntry("xl/styles.xml", stylesXml());
+		zip.finish();
+		zip.flush();
+	}
+
+	@Override
+	public void close() throws IOException {
+		// closes the zip, the underlying stream is left open
+		zip.close();
+	}
+
+	/***
+	 * Styles part with a cell format per resolved style
+	 */
+	private String stylesXml() {
+		StringBuilder styles = new StringBuilder(XML_HEADER).append("<styleSheet xmlns=\"").append(MAIN_NS)
+				.append("\">");
+		if (!customFormats.isEmpty()) {
+			styles.append("<numFmts count=\"").append(customFormats.size()).append("\">");
+			customFormats.forEach((id, format) -> styles.append("<numFmt numFmtId=\"").append(id)
+					.append("\" formatCode=\"").append(escape(format)).append("\"/>"));
+			styles.append("</numFmts>");
+		}
+		styles.append("<fonts count=\"1\"><font><sz val=\"11\"/><name val=\"Calibri\"/></font></fonts>"
+				+ "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill><fill><patternFill patternType=\"gray125\"/></fill></fills>"
+				+ "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+				+ "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>");
+		styles.append("<cellXfs count=\"").append(styleFormatIds.size()).append("\">");
+		for (int formatId : styleFormatIds) {
+			styles.append("<xf numFmtId=\"").append(formatId).append("\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"");
+			styles.append(formatId == 0 ? "/>" : " applyNumberFormat=\"1\"/>");
+		}
+		return styles.append("</cellXfs></styleSheet>").toString();
+	}
+
+	private void closeActiveSheet() throws IOException {
+		if (activeSheet == null)
+			return;
+		writer.write("</sheetData></worksheet>");
+		writer.flush();
+		zip.closeEntry();
+		activeSheet = null;
+	}
+
+	private void writeEntry(String name, String content) throws IOException {
+		zip.putNextEntry(new ZipEntry(name));
+		writer.write(content);
+		writer.flush();
+		zip.closeEntry();
+	}
+
+	/***
+	 * Escapes xml markup and drops characters not allowed in xml.
+	 */
+	private static String escape(String value) {
+		StringBuilder escaped = null;
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			String replacement = null;
+			switch (c) {
+			case '<':
+				replacement = "&lt;";
+				break;
+			case '>':
+				replacement = "&gt;";
+				break;
+			case '&':
+				replacement = "&amp;";
+				break;
+			case '"':
+				replacement = "&quot;";
+				break;
+			default:
+				if (c < 0x20 && c != '\t' && c != '\n' && c != '\r' || c == 0xFFFE || c == 0xFFFF)
+					replacement = "";
+			}
+			if (replacement != null) {
+				if (escaped == null)
+					escaped = new StringBuilder(value.length() + 16).append(value, 0, i);
+				escaped.append(replacement);
+			} else if (escaped != null)
+				escaped.append(c);
+		}
+		return escaped == null ? value : escaped.toString();
+	}
+
+	/***
+	 * Column letters of a zero based column index (0 = A, 26 = AA)
+	 */
+	static String columnName(int column) {
+		StringBuilder name = new StringBuilder(3);
+		for (int c = column + 1; c > 0; c = (c - 1) / 26)
+			name.insert(0, (char) ('A' + (c - 1) % 26));
+		return name.toString();
+	}
+
+	private final class StreamingSheetSink implements SheetSink {
+		private final List<String> columnNames = new ArrayList<String>();
+		private String rowNumber;
+
+		@Override
+		public void startRow(int rowIndex) throws IOException {
+			rowNumber = Integer.toString(rowIndex + 1);
+			writer.write("<row r=\"");
+			writer.write(rowNumber);
+			writer.write("\">");
+		}
+
+		private void startCell(int column, String type, int style) throws IOException {
+			while (columnNames.size() <= column)
+				columnNames.add(columnName(columnNames.size()));
+			writer.write("<c r=\"");
+			writer.write(columnNames.get(column));
+			writer.write(rowNumber);
+			if (style != DEFAULT_STYLE) {
+				writer.write("\" s=\"");
+				writer.write(Integer.toString(style));
+			}
+			if (type != null) {
+				writer.write("\" t=\"");
+				writer.write(type);
+			}
+			writer.write("\">");
+		}
+
+		@Override
+		public void writeString(int column, String value, int style) throws IOException {
+			startCell(column, "inlineStr", style);
+			writer.write("<is><t xml:space=\"preserve\">");
+			writer.write(escape(value));
+			writer.write("</t></is></c>");
+		}
+
+		@Override
+		public void writeNumber(int column, double value, int style) throws IOException {
+			if (!Double.isFinite(value)) {
+				writeString(column, Double.toString(value), style);
+				return;
+			}
+			startCell(column, null, style);
+			writer.write("<v>");
+			if (value == Math.rint(value) && Math.abs(value) < 1e15)
+				writer.write(Long.toString((long) value));
+			else
+				writer.write(Double.toString(value));
+			writer.write("</v></c>");
+		}
+
+		@Override
+		public void writeBoolean(int column, boolean value, int style) throws IOException {
+			startCell(column, "b", style);
+			writer.write(value ? "<v>1</v></c>" : "<v>0</v></c>");
+		}
+
+		@Override
+		public void endRow() throws IOException {
+			writer.write("</row>");
+		}
+	}
+}
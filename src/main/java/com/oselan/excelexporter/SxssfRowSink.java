@@ -0,0 +1,401 @@
+package com.oselan.excelexporter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import org.apache.commons.compress.archivers.zip.Zip64Mode;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.poi.openxml4j.util.ZipArchiveThresholdInputStream;
+import org.apache.poi.openxml4j.util.ZipEntrySource;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.model.SharedStringsTable;
+import org.apache.poi.xssf.streaming.GZIPSheetDataWriter;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.streaming.SheetDataWriter;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+
+import lombok.extern.slf4j.Slf4j;
+
+/***
+ * Row sink writing to a POI SXSSF workbook. Rows beyond the window are flushed
+ * to temp files and the workbook is written to the stream on finish. <br>
+ * The sheet temp files are created in a directory of their own (under the
+ * configured temp directory) that is deleted on close, optionally gzip
+ * compressed, and their size is accounted for. <br>
+ * When the workbook is written the sheet parts are compressed at the
+ * configured level, on several threads if set, see {@link ParallelDeflater}.
+ * Without a level or threads the workbook is written by POI.
+ */
+@Slf4j
+class SxssfRowSink implements RowSink {
+
+	/***
+	 * POI creates the sheet temp file from the SheetDataWriter constructor, before
+	 * a subclass can be handed any state, so the sink creating it is passed along
+	 * the creating thread.
+	 */
+	private static final ThreadLocal<SxssfRowSink> CREATING_SINK = new ThreadLocal<SxssfRowSink>();
+
+	private final TunedSXSSFWorkbook workbook;
+
+	private final OutputStream stream;
+
+	private final boolean useSharedStringsTable;
+
+	/***
+	 * Directory of this export's temp files
+	 */
+	private final Path tempDirectory;
+
+	private final List<File> tempFiles = new CopyOnWriteArrayList<File>();
+
+	private long tempDiskBytes;
+
+	private final int compressionLevel;
+
+	private final int compressionThreads;
+
+	/***
+	 * Styles by index, index 0 is the default style
+	 */
+	private final List<CellStyle> styles = new ArrayList<CellStyle>();
+
+	private final Map<String, Integer> styleIndexes = new HashMap<String, Integer>();
+
+	/***
+	 *
+	 * @param rowAccessWindowSize   rows kept in memory per sheet
+	 * @param compressTempFiles     gzip the sheet temp files
+	 * @param useSharedStringsTable write strings to a shared strings table
+	 * @param tempDirectory         parent directory of the temp files or null for
+	 *                              java.io.tmpdir
+	 * @param compressionLevel      Deflater level of the workbook entries
+	 * @param compressionThreads    threads compressing the sheet parts, 1 for the
+	 *                              writing thread
+	 * @param stream                output stream to write to
+	 * @throws IOException
+	 */
+	SxssfRowSink(int rowAccessWindowSize, boolean compressTempFiles, boolean useSharedStringsTable,
+			Path tempDirectory, int compressionLevel, int compressionThreads, OutputStream stream)
+			throws IOException {
+		this.tempDirectory = tempDirectory == null ? Files.createTempDirectory("excel-export-")
+				: Files.createTempDirectory(Files.createDirectories(tempDirectory), "excel-export-");
+		this.workbook = new TunedSXSSFWorkbook(rowAccessWindowSize, compressTempFiles, useSharedStringsTable);
+		this.useSharedStringsTable = useSharedStringsTable;
+		this.compressionLevel = compressionLevel;
+		this.compressionThreads = compressionThreads;
+		this.stream = stream;
+		styles.add(null);
+	}
+
+	@Override
+	public synchronized int resolveStyle(String format) {
+		if (format == null || format.isEmpty())
+			return DEFAULT_STYLE;
+		Integer index = styleIndexes.get(format);
+		if (index == null) {
+			if (styles.size() > MAX_FORMATS) {
+				log.warn("Max of {} formats reached, format {} ignored", MAX_FORMATS, format);
+				return DEFAULT_STYLE;
+			}
+			CellStyle style = workbook.createCellStyle();
+			style.setDataFormat(workbook.createDataFormat().getFormat(format));
+			index = styles.size();
+			styles.add(style);
+			styleIndexes.put(format, index);
+		}
+		return index;
+	}
+
+	@Override
+	public SheetSink openSheet(String name) {
+		Sheet sheet;
+		// partitions share the workbook
+		synchronized (workbook) {
+			sheet = workbook.createSheet(name);
+		}
+		return new SxssfSheetSink(sheet, styles.toArray(new CellStyle[0]));
+	}
+
+	/***
+	 * The shared strings table is not thread safe.
+	 */
+	@Override
+	public boolean supportsConcurrentSheets() {
+		return !useSharedStringsTable;
+	}
+
+	@Override
+	public void moveSheet(String name, int position) {
+		workbook.setSheetOrder(name, position);
+	}
+
+	@Override
+	public void finish() throws IOException {
+		workbook.write(stream);
+		// all rows are flushed to the temp files by now
+		tempDiskBytes = currentTempDiskBytes();
+		log.info("Workbook written, {} temp files used {} bytes of disk", tempFiles.size(), tempDiskBytes);
+	}
+
+	@Override
+	public long getTempDiskBytes() {
+		return Math.max(tempDiskBytes, currentTempDiskBytes());
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			workbook.close();
+		} finally {
+			// free file resources
+			workbook.dispose();
+			deleteTempDirectory();
+		}
+	}
+
+	private long currentTempDiskBytes() {
+		long bytes = 0;
+		for (File file : tempFiles)
+			bytes += file.length();
+		return bytes;
+	}
+
+	private void deleteTempDirectory() throws IOException {
+		try (Stream<Path> paths = Files.walk(tempDirectory)) {
+			paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+		}
+	}
+
+	/***
+	 * Creates a sheet temp file in this export's temp directory
+	 */
+	private File createTempFile(String suffix) throws IOException {
+		File file = Files.createTempFile(tempDirectory, "poi-sxssf-sheet", suffix).toFile();
+		tempFiles.add(file);
+		return file;
+	}
+
+	/***
+	 * Workbook creating its sheet writers through this sink
+	 */
+	private final class TunedSXSSFWorkbook extends SXSSFWorkbook {
+		private TunedSXSSFWorkbook(int rowAccessWindowSize, boolean compressTempFiles,
+				boolean useSharedStringsTable) {
+			super(null, rowAccessWindowSize, compressTempFiles, useSharedStringsTable);
+		}
+
+		/***
+		 * Writes the template entries with the rows injected in the sheet parts.
+		 * POI writes them when neither a level nor threads are set, otherwise the
+		 * sheet parts are compressed at the level as they are streamed to the zip,
+		 * or by the parallel deflater to a temp file added as a raw entry.
+		 */
+		@Override
+		protected void injectData(ZipEntrySource zipEntrySource, OutputStream out) throws IOException {
+			if (compressionThreads <= 1 && compressionLevel == Deflater.DEFAULT_COMPRESSION) {
+				super.injectData(zipEntrySource, out);
+				return;
+			}
+			Map<String, SXSSFSheet> sheetsByEntry = new HashMap<String, SXSSFSheet>();
+			for (Sheet sheet : getXSSFWorkbook())
+				sheetsByEntry.put(((XSSFSheet) sheet).getPackagePart().getPartName().getName().substring(1),
+						getSheet(sheet.getSheetName()));
+			ExecutorService compressors = compressionThreads > 1
+					? Executors.newFixedThreadPool(compressionThreads, ExportExecutors.daemonThreads("excel-export-deflate-"))
+					: null;
+			ParallelDeflater deflater = compressors != null
+					? new ParallelDeflater(compressionLevel, compressors, compressionThreads)
+					: null;
+			ZipArchiveOutputStream zip = new ZipArchiveOutputStream(out);
+			zip.setUseZip64(Zip64Mode.AsNeeded);
+			zip.setLevel(compressionLevel);
+			try {
+				Enumeration<? extends ZipArchiveEntry> entries = zipEntrySource.getEntries();
+				while (entries.hasMoreElements()) {
+					ZipArchiveEntry entry = entries.nextElement();
+					try (InputStream template = zipEntrySource.getInputStream(entry)) {
+						// the template is written by POI, no need to guard against zip bombs
+						if (template instanceof ZipArchiveThresholdInputStream)
+							((ZipArchiveThresholdInputStream) template).setGuardState(false);
+						SXSSFSheet sheet = sheetsByEntry.get(entry.getName());
+						if (sheet != null && deflater != null)
+							writeSheet(zip, entry, worksheet(template, sheet), deflater);
+						else
+							copyEntry(zip, entry, sheet != null ? worksheet(template, sheet) : template);
+					}
+				}
+			} finally {
+				zip.finish();
+				zipEntrySource.close();
+				if (compressors != null)
+					compressors.shutdownNow();
+			}
+		}
+
+		/***
+		 * The template sheet with its empty sheetData replaced by the rows, the
+		 * template is small
+		 */
+		private InputStream worksheet(InputStream template, SXSSFSheet sheet) throws IOException {
+			String xml = new String(template.readAllBytes(), StandardCharsets.UTF_8);
+			int start = xml.indexOf("<sheetData");
+			if (start < 0)
+				return new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+			int tagEnd = xml.indexOf('>', start);
+			int end = xml.charAt(tagEnd - 1) == '/' ? tagEnd + 1
+					: xml.indexOf("</sheetData>", tagEnd) + "</sheetData>".length();
+			return new SequenceInputStream(Collections.enumeration(List.of(
+					new ByteArrayInputStream((xml.substring(0, start) + "<sheetData>\n").getBytes(StandardCharsets.UTF_8)),
+					sheet.getWorksheetXMLInputStream(),
+					new ByteArrayInputStream(("</sheetData>" + xml.substring(end)).getBytes(StandardCharsets.UTF_8)))));
+		}
+
+		/***
+		 * Compresses the entry as it is copied to the zip, on the writing thread
+		 */
+		private void copyEntry(ZipArchiveOutputStream zip, ZipArchiveEntry entry, InputStream data) throws IOException {
+			ZipArchiveEntry copy = new ZipArchiveEntry(entry.getName());
+			copy.setTime(entry.getTime());
+			zip.putArchiveEntry(copy);
+			try (InputStream in = data) {
+				IOUtils.copy(in, zip);
+			}
+			zip.closeArchiveEntry();
+		}
+
+		/***
+		 * Compresses the sheet on the deflater threads to a temp file, the zip needs
+		 * the sizes and crc of a raw entry before its data
+		 */
+		private void writeSheet(ZipArchiveOutputStream zip, ZipArchiveEntry entry, InputStream worksheet,
+				ParallelDeflater deflater) throws IOException {
+			File compressed = createTempFile(".deflate");
+			try {
+				ParallelDeflater.Result result;
+				try (InputStream in = worksheet;
+						OutputStream spool = new BufferedOutputStream(new FileOutputStream(compressed), 64 * 1024)) {
+					result = deflater.deflate(in, spool);
+				}
+				ZipArchiveEntry raw = new ZipArchiveEntry(entry.getName());
+				raw.setTime(entry.getTime());
+				raw.setMethod(ZipArchiveEntry.DEFLATED);
+				raw.setCrc(result.crc);
+				raw.setSize(result.size);
+				raw.setCompressedSize(result.compressedSize);
+				try (InputStream in = new FileInputStream(compressed)) {
+					zip.addRawArchiveEntry(raw, in);
+				}
+			} finally {
+				compressed.delete();
+				tempFiles.remove(compressed);
+			}
+		}
+
+		@Override
+		protected SheetDataWriter createSheetDataWriter() throws IOException {
+			CREATING_SINK.set(SxssfRowSink.this);
+			try {
+				return isCompressTempFiles() ? new TempDirectoryGZIPSheetDataWriter(getSharedStringSource())
+						: new TempDirectorySheetDataWriter(getSharedStringSource());
+			} finally {
+				CREATING_SINK.remove();
+			}
+		}
+	}
+
+	private static final class TempDirectorySheetDataWriter extends SheetDataWriter {
+		private TempDirectorySheetDataWriter(SharedStringsTable sharedStringsTable)
+				throws IOException {
+			super(sharedStringsTable);
+		}
+
+		@Override
+		public File createTempFile() throws IOException {
+			return CREATING_SINK.get().createTempFile(".xml");
+		}
+	}
+
+	private static final class TempDirectoryGZIPSheetDataWriter extends GZIPSheetDataWriter {
+		private TempDirectoryGZIPSheetDataWriter(SharedStringsTable sharedStringsTable)
+				throws IOException {
+			super(sharedStringsTable);
+		}
+
+		@Override
+		public File createTempFile() throws IOException {
+			return CREATING_SINK.get().createTempFile(".gz");
+		}
+	}
+
+	private static final class SxssfSheetSink implements SheetSink {
+		private final Sheet sheet;
+		private final CellStyle[] styles;
+		private Row row;
+
+		private SxssfSheetSink(Sheet sheet, CellStyle[] styles) {
+			this.sheet = sheet;
+			this.styles = styles;
+		}
+
+		private Cell createCell(int column, int style) {
+			Cell cell = row.createCell(column);
+			if (style != DEFAULT_STYLE)
+				cell.setCellStyle(styles[style]);
+			return cell;
+		}
+
+		@Override
+		public void startRow(int rowIndex) {
+			row = sheet.createRow(rowIndex);
+		}
+
+		@Override
+		public void writeString(int column, String value, int style) {
+			createCell(column, style).setCellValue(value);
+		}
+
+		@Override
+		public void writeNumber(int column, double value, int style) {
+			createCell(column, style).setCellValue(value);
+		}
+
+		@Override
+		public void writeBoolean(int column, boolean value, int style) {
+			createCell(column, style).setCellValue(value);
+		}
+
+		@Override
+		public void endRow() {
+			row = null;
+		}
+	}
+}
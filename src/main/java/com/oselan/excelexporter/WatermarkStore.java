@@ -0,0 +1,27 @@
+package com.oselan.excelexporter;
+
+import java.io.IOException;
+
+/***
+ * Persists the watermark of delta exports, the key of the last record exported
+ * per report, so the next run exports only the records past it.
+ */
+public interface WatermarkStore {
+
+	/***
+	 *
+	 * @param reportId identity of the report definition
+	 * @return the last watermark saved or null if the report was never exported
+	 * @throws IOException
+	 */
+	String load(String reportId) throws IOException;
+
+	/***
+	 * Saves the watermark of a report once its export is written
+	 *
+	 * @param reportId  identity of the report definition
+	 * @param watermark key of the last record exported
+	 * @throws IOException
+	 */
+	void save(String reportId, String watermark) throws IOException;
+}
@@ -1,9 +1,18 @@
 package com.oselan.sample;
 
+import java.util.List;
+
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
 
 interface UserRepository extends JpaRepository<User,Long> {
 
-    
+    /***
+     * Keyset page of users with id greater than the last id read
+     * @param id last id read
+     * @param pageable size of the page, offset should be 0
+     * @return
+     */
+    List<User> findByIdGreaterThanOrderByIdAsc(Long id, Pageable pageable);
     
 }
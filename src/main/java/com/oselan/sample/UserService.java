@@ -2,17 +2,32 @@ package com.oselan.sample;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.Executor;
 
+import javax.sql.DataSource;
+
+import org.hibernate.jpa.HibernateHints;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.data.domain.Sort;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
 
 import com.oselan.commons.exceptions.ConflictException;
 import com.oselan.excelexporter.ColumnDefinition;
+import com.oselan.excelexporter.ColumnProjection;
 import com.oselan.excelexporter.ExcelExporter;
+import com.oselan.excelexporter.ExportJob;
+import com.oselan.excelexporter.ExportJobScheduler;
+import com.oselan.excelexporter.FileWatermarkStore;
+import com.oselan.excelexporter.WatermarkStore;
 
+import jakarta.persistence.EntityManager;
+import jakarta.persistence.PersistenceContext;
 import lombok.extern.slf4j.Slf4j;
 
 @Service
@@ -21,28 +36,70 @@ public class UserService  {
  
 	@Autowired
 	private UserRepository userRepository;
+
+	@PersistenceContext
+	private EntityManager entityManager;
+
+	@Autowired
+	private PlatformTransactionManager transactionManager;
+
+	@Autowired
+	@Qualifier("exportExecutor")
+	private Executor exportExecutor;
+
+	@Autowired
+	private ExportJobScheduler exportJobScheduler;
+
+	@Autowired
+	private DataSource dataSource;
+
+	private final WatermarkStore watermarkStore = new FileWatermarkStore(Path.of("FileStore", "watermarks.properties"));
 	 
-	@Async 
-//	@SneakyThrows(InterruptedException.class)
-	public void generateReport(OutputStream stream) throws ConflictException, IOException {
+	/***
+	 * Queues the users report on the export job scheduler
+	 * @param stream
+	 * @return the job generating the report
+	 */
+	public ExportJob<Void> generateReport(OutputStream stream) {
+		return generateReport("default", stream);
+	}
+
+	/***
+	 * Queues the users report on the export job scheduler for a tenant
+	 * @param tenant
+	 * @param stream
+	 * @return the job generating the report
+	 */
+	public ExportJob<Void> generateReport(String tenant, OutputStream stream) {
 
 		log.info("Generating report ... "); 
 		List<ColumnDefinition> columnsDef = ColumnDefinition.listBuilder()
 				.withColumn("Id", "id")
 				.withColumn("First Name", "firstName")
 				.withColumn("Last Name", "lastName") .build();
-		ExcelExporter<UserDTO> exporter = new ExcelExporter<UserDTO>(stream, columnsDef, "User Sheet");
+		ExcelExporter<UserDTO> exporter = new ExcelExporter<UserDTO>(stream, columnsDef, "User Sheet",
+				UserDTO.class);
+		exporter.setExecutor(exportExecutor);
+		exporter.setDataFetchSize(5000);
+		//an abandoned report must not hold a pooled connection for long
+		exporter.setDeadline(Duration.ofMinutes(30));
+		return exportJobScheduler.submit(tenant, 0, exporter, () -> {
+			generateReport(exporter);
+			return null;
+		});
+	}
+
+	private void generateReport(ExcelExporter<UserDTO> exporter) throws ConflictException, IOException {
 		try (exporter) { 
 			log.info("generating users report" );
 			exporter.open();
-			exporter.setDataFetchSize(5000);
 //     		exporter.setMaxRowsPerSheet(5989);
-			exporter.generateReportFromDataProvider(
-					//function that retrieves data page and takes a parameter a pageable 
-					(pageable) ->{
-						pageable = pageable.withSort(Sort.by("id","firstName"));
-						return userRepository.findAll( pageable);
-					},
+			exporter.generateReportFromKeysetProvider(
+					//function that retrieves the page of users after the last id read 
+					(lastId, limit) -> userRepository.findByIdGreaterThanOrderByIdAsc(
+							lastId == null ? Long.MIN_VALUE : lastId, PageRequest.ofSize(limit)),
+					//key the pages are seeked on
+					User::getId,
 					//function that maps the data to a dto containing the properties defined in the columnsDef. 
 					   u ->  UserDTO.builder().id(u.getId())
 									.firstName(u.getFirstName())
@@ -55,4 +112,117 @@ public class UserService  {
 			throw e;
 		}
 	}
+
+	/***
+	 * Exports only the users added since the last delta export, the last id
+	 * exported is kept in FileStore/watermarks.properties
+	 * @param stream
+	 * @throws ConflictException
+	 * @throws IOException
+	 */
+	@Async
+	public void generateDeltaReport(OutputStream stream) throws ConflictException, IOException {
+		List<ColumnDefinition> columnsDef = ColumnDefinition.listBuilder()
+				.withColumn("Id", "id")
+				.withColumn("First Name", "firstName")
+				.withColumn("Last Name", "lastName") .build();
+		ExcelExporter<User> exporter = new ExcelExporter<User>(stream, columnsDef, "New Users", User.class);
+		try (exporter) {
+			exporter.setExecutor(exportExecutor);
+			exporter.open();
+			exporter.setDataFetchSize(5000);
+			exporter.generateDeltaReportFromKeysetProvider(watermarkStore,
+					"users-delta",
+					Long::valueOf,
+					(lastId, limit) -> userRepository.findByIdGreaterThanOrderByIdAsc(
+							lastId == null ? Long.MIN_VALUE : lastId, PageRequest.ofSize(limit)),
+					User::getId, null);
+		} catch (Exception e) {
+			log.error("Exception occured generating report", e);
+			throw e;
+		}
+	}
+
+	/***
+	 * Same report read in one pass through a server side cursor instead of pages
+	 * @param stream
+	 * @throws ConflictException
+	 * @throws IOException
+	 */
+	@Async
+	public void generateStreamedReport(OutputStream stream) throws ConflictException, IOException {
+		List<ColumnDefinition> columnsDef = ColumnDefinition.listBuilder()
+				.withColumn("Id", "id")
+				.withColumn("First Name", "firstName")
+				.withColumn("Last Name", "lastName") .build();
+		ExcelExporter<User> exporter = new ExcelExporter<User>(stream, columnsDef, "User Sheet", User.class);
+		try (exporter) {
+			exporter.setExecutor(exportExecutor);
+			exporter.open();
+			exporter.setDataFetchSize(5000);
+			exporter.generateReportFromStream(
+					//cursor over users, fetch size and read-only hints avoid buffering and dirty checking
+					(fetchSize) -> entityManager.createQuery("select u from User u order by u.id", User.class)
+							.setHint(HibernateHints.HINT_FETCH_SIZE, fetchSize)
+							.setHint(HibernateHints.HINT_READ_ONLY, true)
+							.getResultStream()
+							//keep the persistence context from growing with the export
+							.peek(entityManager::detach),
+					null, transactionManager);
+		} catch (Exception e) {
+			log.error("Exception occured generating report", e);
+			throw e;
+		}
+	}
+
+	/***
+	 * Same report read with plain JDBC, the query columns are written to the cells
+	 * without loading User entities
+	 * @param stream
+	 * @throws ConflictException
+	 * @throws IOException
+	 */
+	@Async
+	public void generateJdbcReport(OutputStream stream) throws ConflictException, IOException {
+		List<ColumnDefinition> columnsDef = ColumnDefinition.listBuilder()
+				.withColumn("Id", "id")
+				.withColumn("First Name", "first_name")
+				.withColumn("Last Name", "last_name") .build();
+		ExcelExporter<Object> exporter = new ExcelExporter<Object>(stream, columnsDef, "User Sheet");
+		try (exporter) {
+			exporter.setExecutor(exportExecutor);
+			exporter.open();
+			exporter.setDataFetchSize(5000);
+			exporter.generateReportFromJdbc(dataSource,
+					"select \"id\", \"first_name\", \"last_name\" from \"user\" order by \"id\"");
+		} catch (Exception e) {
+			log.error("Exception occured generating report", e);
+			throw e;
+		}
+	}
+
+	/***
+	 * Same report selecting only the report columns of the users table
+	 * @param stream
+	 * @throws ConflictException
+	 * @throws IOException
+	 */
+	@Async
+	public void generateProjectedReport(OutputStream stream) throws ConflictException, IOException {
+		List<ColumnDefinition> columnsDef = ColumnDefinition.listBuilder()
+				.withColumn("Id", "id")
+				.withColumn("First Name", "firstName")
+				.withColumn("Last Name", "lastName") .build();
+		ColumnProjection<User> projection = new ColumnProjection<User>(entityManager, User.class, columnsDef);
+		ExcelExporter<Object[]> exporter = new ExcelExporter<Object[]>(stream, columnsDef, "User Sheet", Object[].class);
+		try (exporter) {
+			exporter.setExecutor(exportExecutor);
+			exporter.open();
+			exporter.setDataFetchSize(5000);
+			exporter.generateReportFromDataProvider(projection::findSlice);
+		} catch (Exception e) {
+			log.error("Exception occured generating report", e);
+			throw e;
+		}
+	}
 }
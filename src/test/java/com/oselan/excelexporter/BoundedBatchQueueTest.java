@@ -0,0 +1,104 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+class BoundedBatchQueueTest {
+
+	private static BoundedBatchQueue<List<Integer>> queue(long capacity) {
+		return new BoundedBatchQueue<List<Integer>>(capacity, List::size);
+	}
+
+	@Test
+	void producerBlocksWhileFullUntilTaken() throws Exception {
+		BoundedBatchQueue<List<Integer>> queue = queue(3);
+		assertTrue(queue.put(List.of(1, 2, 3)));
+		CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> put(queue, List.of(4)));
+		Thread.sleep(200);
+		assertFalse(blocked.isDone(), "put must block while the queue is at capacity");
+		assertEquals(List.of(1, 2, 3), queue.take(1, TimeUnit.SECONDS));
+		assertTrue(blocked.get(1, TimeUnit.SECONDS));
+		assertEquals(List.of(4), queue.take(1, TimeUnit.SECONDS));
+		assertEquals(3, queue.peakWeight());
+	}
+
+	@Test
+	void batchHeavierThanCapacityIsAcceptedIntoEmptyQueue() throws Exception {
+		BoundedBatchQueue<List<Integer>> queue = queue(2);
+		assertTrue(queue.put(List.of(1, 2, 3, 4)));
+		assertEquals(4, queue.weight());
+	}
+
+	@Test
+	void reservationsCountAgainstCapacity() throws Exception {
+		BoundedBatchQueue<List<Integer>> queue = queue(4);
+		assertTrue(queue.tryReserve(3));
+		assertFalse(queue.tryReserve(2), "no room left besides the reservation");
+		assertTrue(queue.put(List.of(1)));
+		CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> put(queue, List.of(2)));
+		Thread.sleep(200);
+		assertFalse(blocked.isDone(), "put must block on the reserved room");
+		queue.release(3);
+		assertTrue(blocked.get(1, TimeUnit.SECONDS));
+		assertEquals(1, queue.lastWeight());
+	}
+
+	@Test
+	void closeWakesConsumerAfterDrain() throws Exception {
+		BoundedBatchQueue<List<Integer>> queue = queue(10);
+		queue.put(List.of(1));
+		CompletableFuture<List<Integer>> first = CompletableFuture.supplyAsync(() -> take(queue));
+		assertEquals(List.of(1), first.get(1, TimeUnit.SECONDS));
+		CompletableFuture<List<Integer>> waiting = CompletableFuture.supplyAsync(() -> take(queue));
+		Thread.sleep(100);
+		queue.close();
+		assertNull(waiting.get(1, TimeUnit.SECONDS));
+		assertFalse(queue.put(List.of(2)), "no batch is added after close");
+	}
+
+	@Test
+	void abortReleasesBlockedProducerAndDiscardsBatches() throws Exception {
+		BoundedBatchQueue<List<Integer>> queue = queue(1);
+		queue.put(List.of(1));
+		CompletableFuture<Boolean> blocked = CompletableFuture.supplyAsync(() -> put(queue, List.of(2)));
+		Thread.sleep(100);
+		queue.abort();
+		assertFalse(blocked.get(1, TimeUnit.SECONDS));
+		assertNull(queue.take(1, TimeUnit.SECONDS));
+		assertEquals(0, queue.weight());
+	}
+
+	@Test
+	void takeTimesOutWhenNoBatchArrives() {
+		BoundedBatchQueue<List<Integer>> queue = queue(1);
+		long start = System.nanoTime();
+		assertThrows(TimeoutException.class, () -> queue.take(100, TimeUnit.MILLISECONDS));
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+	}
+
+	private static boolean put(BoundedBatchQueue<List<Integer>> queue, List<Integer> batch) {
+		try {
+			return queue.put(batch);
+		} catch (InterruptedException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static List<Integer> take(BoundedBatchQueue<List<Integer>> queue) {
+		try {
+			return queue.take(5, TimeUnit.SECONDS);
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
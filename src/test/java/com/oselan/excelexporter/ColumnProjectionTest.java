@@ -0,0 +1,44 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+import com.oselan.sample.User;
+
+import jakarta.persistence.EntityManager;
+
+@SpringBootTest
+class ColumnProjectionTest {
+
+	@Autowired
+	private EntityManager entityManager;
+
+	private List<ColumnDefinition> columns(String property) {
+		return ColumnDefinition.listBuilder().withColumn("Id", "id").withColumn("Note", null)
+				.withColumn("Value", property).build();
+	}
+
+	@Test
+	void attributePathsAreAccepted() {
+		assertDoesNotThrow(() -> new ColumnProjection<User>(entityManager, User.class, columns("firstName")));
+	}
+
+	@Test
+	void unknownPathsFailInTheConstructor() {
+		IllegalArgumentException failure = assertThrows(IllegalArgumentException.class,
+				() -> new ColumnProjection<User>(entityManager, User.class, columns("frstName")));
+		assertTrue(failure.getMessage().contains("frstName"), failure.getMessage());
+		// a basic attribute has no nested attributes
+		assertThrows(IllegalArgumentException.class,
+				() -> new ColumnProjection<User>(entityManager, User.class, columns("firstName.length")));
+		assertThrows(IllegalArgumentException.class,
+				() -> new ColumnProjection<User>(entityManager, User.class, columns("firstName.")));
+	}
+}
@@ -0,0 +1,69 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.SliceImpl;
+
+class ColumnWriterTest {
+
+	public record Amounts(long id, Long count, BigInteger big, BigDecimal amount, Object any) {
+	}
+
+	@Test
+	void numbersADoubleCanNotHoldAreWrittenAsText() throws Exception {
+		Row row = export(new Amounts(Long.MAX_VALUE, (1L << 53) + 1, new BigInteger("123456789012345678901"),
+				new BigDecimal("1234567890.123456789"), new BigDecimal("-9007199254740993")));
+		assertText("9223372036854775807", row.getCell(0));
+		assertText("9007199254740993", row.getCell(1));
+		assertText("123456789012345678901", row.getCell(2));
+		assertText("1234567890.123456789", row.getCell(3));
+		assertText("-9007199254740993", row.getCell(4));
+	}
+
+	@Test
+	void numbersADoubleHoldsExactlyAreWrittenAsNumbers() throws Exception {
+		Row row = export(new Amounts(1L << 53, -42L, BigInteger.TEN, new BigDecimal("0.10"), 12.5d));
+		assertNumber(9007199254740992d, row.getCell(0));
+		assertNumber(-42, row.getCell(1));
+		assertNumber(10, row.getCell(2));
+		assertNumber(0.1, row.getCell(3));
+		assertNumber(12.5, row.getCell(4));
+	}
+
+	private static Row export(Amounts amounts) throws Exception {
+		List<ColumnDefinition> columns = new ArrayList<ColumnDefinition>(ColumnDefinition.listBuilder()
+				.withColumn("Id", "id").withColumn("Count", "count").withColumn("Big", "big")
+				.withColumn("Amount", "amount").withColumn("Any", "any").build());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ExcelExporter<Amounts> exporter = new ExcelExporter<Amounts>(out, columns, "Amounts", Amounts.class)) {
+			exporter.open();
+			exporter.generateReportFromDataProvider(pageable -> new SliceImpl<Amounts>(
+					pageable.getPageNumber() > 0 ? List.of() : List.of(amounts), pageable, false));
+		}
+		try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+			return workbook.getSheetAt(0).getRow(1);
+		}
+	}
+
+	private static void assertText(String expected, Cell cell) {
+		assertEquals(CellType.STRING, cell.getCellType());
+		assertEquals(expected, cell.getStringCellValue());
+	}
+
+	private static void assertNumber(double expected, Cell cell) {
+		assertEquals(CellType.NUMERIC, cell.getCellType());
+		assertEquals(expected, cell.getNumericCellValue());
+	}
+}
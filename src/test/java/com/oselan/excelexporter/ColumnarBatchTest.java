@@ -0,0 +1,105 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.SliceImpl;
+
+class ColumnarBatchTest {
+
+	public record Reading(long id, double value, int count, String name) {
+	}
+
+	private static List<ColumnDefinition> columns() {
+		return new ArrayList<ColumnDefinition>(ColumnDefinition.listBuilder().withColumn("Id", "id")
+				.withColumn("Note", null).withColumn("Value", "value").withColumn("Count", "count")
+				.withColumn("Name", "name").build());
+	}
+
+	private static List<Reading> readings(int size) {
+		List<Reading> readings = new ArrayList<Reading>();
+		for (int i = 0; i < size; i++)
+			readings.add(new Reading(i + 1, i * 0.5, -i, i % 3 == 0 ? null : "reading " + i));
+		return readings;
+	}
+
+	@Test
+	void columnarRowsMatchTheRecordPath() throws Exception {
+		List<Reading> readings = readings(250);
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		try (ExcelExporter<Reading> exporter = new ExcelExporter<Reading>(records, columns(), "Readings",
+				Reading.class)) {
+			exporter.setMaxRowsPerSheet(100);
+			exporter.open();
+			exporter.generateReportFromDataProvider(pageable -> new SliceImpl<Reading>(
+					pageable.getPageNumber() > 0 ? List.of() : readings, pageable, false));
+		}
+		ByteArrayOutputStream columnar = new ByteArrayOutputStream();
+		try (ExcelExporter<Reading> exporter = new ExcelExporter<Reading>(columnar, columns(), "Readings",
+				Reading.class)) {
+			exporter.setMaxRowsPerSheet(100);
+			exporter.open();
+			// batches of 64 rows with room to spare, the note column never requested
+			for (int first = 0; first < readings.size(); first += 64) {
+				ColumnarBatch batch = new ColumnarBatch(5, 80);
+				long[] ids = batch.longColumn(0);
+				double[] values = batch.doubleColumn(2);
+				int[] counts = batch.intColumn(3);
+				String[] names = batch.stringColumn(4);
+				int rows = Math.min(64, readings.size() - first);
+				for (int r = 0; r < rows; r++) {
+					Reading reading = readings.get(first + r);
+					ids[r] = reading.id();
+					values[r] = reading.value();
+					counts[r] = reading.count();
+					names[r] = reading.name();
+				}
+				batch.setRowCount(rows);
+				exporter.addBatch(batch, first + 64 >= readings.size());
+			}
+			exporter.export();
+		}
+		List<List<List<String>>> sheets = ExcelExporterTest.readWorkbook(columnar.toByteArray());
+		assertEquals(3, sheets.size());
+		assertEquals(List.of("1", "", "0", "0"), sheets.get(0).get(1));
+		assertEquals(ExcelExporterTest.readWorkbook(records.toByteArray()), sheets);
+	}
+
+	@Test
+	void columnsPastTheBatchAreEmptyCells() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ExcelExporter<Reading> exporter = new ExcelExporter<Reading>(out, columns(), "Readings",
+				Reading.class)) {
+			exporter.open();
+			ColumnarBatch batch = new ColumnarBatch(1, 2);
+			batch.longColumn(0)[0] = 7;
+			batch.longColumn(0)[1] = 8;
+			exporter.addBatch(batch, true);
+			exporter.export();
+		}
+		List<List<String>> rows = ExcelExporterTest.readWorkbook(out.toByteArray()).get(0);
+		assertEquals(List.of("7", "", "", "", ""), rows.get(1));
+		assertEquals(List.of("8", "", "", "", ""), rows.get(2));
+	}
+
+	@Test
+	void misusedBatchesAreRejected() throws Exception {
+		ColumnarBatch batch = new ColumnarBatch(2, 10);
+		batch.longColumn(0);
+		assertThrows(IllegalStateException.class, () -> batch.doubleColumn(0));
+		assertThrows(IllegalArgumentException.class, () -> batch.setRowCount(11));
+		try (ExcelExporter<Reading> exporter = new ExcelExporter<Reading>(new ByteArrayOutputStream(), columns(),
+				"Readings", Reading.class)) {
+			exporter.open();
+			assertThrows(IOException.class, () -> exporter.addBatch(new ColumnarBatch(6, 1)));
+			exporter.addBatch(new ColumnarBatch(1, 1), true);
+			exporter.export();
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.SliceImpl;
+
+class CsvRowSinkTest {
+
+	public record Order(long id, String customer, BigDecimal total, boolean paid, LocalDate day,
+			LocalDateTime placed) {
+	}
+
+	private static final List<Order> ORDERS = List.of(
+			new Order(1, "Tom, \"Jerry\"", new BigDecimal("12.50"), true, LocalDate.of(2024, 2, 29),
+					LocalDateTime.of(2024, 2, 29, 13, 45, 10, 999_000_000)),
+			new Order(2, null, null, false, LocalDate.of(1850, 1, 1), null));
+
+	private static List<ColumnDefinition> columns() {
+		return new ArrayList<ColumnDefinition>(ColumnDefinition.listBuilder().withColumn("Id", "id")
+				.withColumn("Customer", "customer").withColumn("Total", "total").withColumn("Paid", "paid")
+				.withColumn("Day", "day").withColumn("Placed", "placed").build());
+	}
+
+	@Test
+	void valuesAreWrittenAsText() throws Exception {
+		assertEquals("Id,Customer,Total,Paid,Day,Placed\r\n"
+				+ "1,\"Tom, \"\"Jerry\"\"\",12.5,true,2024-02-29,2024-02-29 13:45:10\r\n"
+				+ "2,,,false,1850-01-01,\r\n", new String(export(CsvFormat.csv(), columns()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void nonNumericQuotesTextOnly() throws Exception {
+		CsvFormat format = CsvFormat.builder().quoteMode(CsvFormat.QuoteMode.NON_NUMERIC).build();
+		assertEquals("\"Id\",\"Customer\",\"Total\",\"Paid\",\"Day\",\"Placed\"\r\n"
+				+ "1,\"Tom, \"\"Jerry\"\"\",12.5,true,2024-02-29,2024-02-29 13:45:10\r\n"
+				+ "2,,,false,1850-01-01,\r\n", new String(export(format, columns()), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void dateFormatOfAColumnWritesTheDateOnly() throws Exception {
+		List<ColumnDefinition> columns = new ArrayList<ColumnDefinition>(ColumnDefinition.listBuilder()
+				.withColumn("Id", "id").withColumn("Placed", "placed", "dd/mm/yyyy").build());
+		CsvFormat format = CsvFormat.builder().delimiter('\t').header(false).lineSeparator("\n").build();
+		assertEquals("1\t2024-02-29\n2\t\n", new String(export(format, columns), StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void gzipOutputReadsBack() throws Exception {
+		byte[] gzipped = export(CsvFormat.builder().gzip(true).build(), columns());
+		try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzipped))) {
+			assertEquals(new String(export(CsvFormat.csv(), columns()), StandardCharsets.UTF_8),
+					new String(in.readAllBytes(), StandardCharsets.UTF_8));
+		}
+	}
+
+	private static byte[] export(CsvFormat format, List<ColumnDefinition> columns) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ExcelExporter<Order> exporter = new ExcelExporter<Order>(out, columns, "Orders", Order.class)) {
+			exporter.setRowSinkFactory(format);
+			exporter.open();
+			exporter.generateReportFromDataProvider(pageable -> new SliceImpl<Order>(
+					pageable.getPageNumber() > 0 ? List.of() : ORDERS, pageable, false));
+		}
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,118 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.SliceImpl;
+
+import com.oselan.commons.exceptions.ConflictException;
+import com.oselan.excelexporter.ExcelExporterTest.Item;
+
+class DeltaReportTest {
+
+	@TempDir
+	Path temp;
+
+	private final List<Item> table = new ArrayList<Item>();
+
+	private void insert(long first, long last) {
+		for (long id = first; id <= last; id++)
+			table.add(new Item(id, "item " + id));
+	}
+
+	/***
+	 * Rows of the table after the key, ordered by id
+	 */
+	private List<Item> after(Long key, int size) {
+		return table.stream().filter(item -> key == null || item.id() > key).limit(size).toList();
+	}
+
+	private int export(ExcelExporter<Item> exporter, WatermarkStore store) throws ConflictException {
+		exporter.setDataFetchSize(10);
+		exporter.open();
+		return exporter.generateDeltaReportFromKeysetProvider(store, "items", Long::valueOf, this::after, Item::id,
+				null);
+	}
+
+	@Test
+	void deltaResumesAfterTheSavedWatermarkAcrossRestarts() throws Exception {
+		Path file = temp.resolve("watermarks.properties");
+		insert(1, 25);
+		ByteArrayOutputStream first = new ByteArrayOutputStream();
+		try (ExcelExporter<Item> exporter = new ExcelExporter<Item>(first, ExcelExporterTest.columns(), "Items",
+				Item.class)) {
+			assertEquals(25, export(exporter, new FileWatermarkStore(file)));
+		}
+		ExcelExporterTest.assertIds(ExcelExporterTest.readWorkbook(first.toByteArray()).get(0), 1, 25);
+		insert(26, 30);
+		// a new store reads the watermark saved by the previous run
+		ByteArrayOutputStream second = new ByteArrayOutputStream();
+		WatermarkStore restarted = new FileWatermarkStore(file);
+		assertEquals("25", restarted.load("items"));
+		try (ExcelExporter<Item> exporter = new ExcelExporter<Item>(second, ExcelExporterTest.columns(), "Items",
+				Item.class)) {
+			assertEquals(5, export(exporter, restarted));
+		}
+		ExcelExporterTest.assertIds(ExcelExporterTest.readWorkbook(second.toByteArray()).get(0), 26, 30);
+		assertEquals("30", new FileWatermarkStore(file).load("items"));
+	}
+
+	@Test
+	void emptyDeltaWritesHeadersAndKeepsTheWatermark() throws Exception {
+		insert(1, 5);
+		List<String> saves = new ArrayList<String>();
+		WatermarkStore store = new WatermarkStore() {
+			@Override
+			public String load(String reportId) {
+				return "5";
+			}
+
+			@Override
+			public void save(String reportId, String watermark) {
+				saves.add(watermark);
+			}
+		};
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ExcelExporter<Item> exporter = new ExcelExporter<Item>(out, ExcelExporterTest.columns(), "Items",
+				Item.class);
+		try (exporter) {
+			assertEquals(0, export(exporter, store));
+		}
+		assertEquals(List.of(), saves);
+		assertEquals(List.of(List.of("Id", "Name")), ExcelExporterTest.readWorkbook(out.toByteArray()).get(0));
+		// the next report of the exporter fails on no data again
+		exporter.open();
+		ConflictException failure = assertThrows(ConflictException.class, () -> exporter
+				.generateReportFromDataProvider(pageable -> new SliceImpl<Item>(List.of(), pageable, false)));
+		assertTrue(failure.getMessage().contains("No data"), failure.getMessage());
+		exporter.close();
+	}
+
+	@Test
+	void fileStoreKeepsReportsApartAndCreatesItsDirectory() throws IOException {
+		Path file = temp.resolve("store").resolve("watermarks.properties");
+		FileWatermarkStore store = new FileWatermarkStore(file);
+		assertNull(store.load("items"));
+		store.save("items", "10");
+		store.save("users", "7");
+		store.save("items", "12");
+		assertEquals("12", store.load("items"));
+		assertEquals("7", new FileWatermarkStore(file).load("users"));
+		// only the properties file is left, no temp file of the saves
+		try (Stream<Path> files = Files.list(file.getParent())) {
+			assertEquals(List.of(file), files.toList());
+		}
+	}
+}
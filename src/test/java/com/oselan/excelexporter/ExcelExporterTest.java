@@ -0,0 +1,389 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
+
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+import org.springframework.data.domain.SliceImpl;
+
+import com.oselan.commons.exceptions.ConflictException;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ExcelExporterTest {
+
+	public record Item(long id, String name) {
+	}
+
+	static List<ColumnDefinition> columns() {
+		return new ArrayList<ColumnDefinition>(
+				ColumnDefinition.listBuilder().withColumn("Id", "id").withColumn("Name", "name").build());
+	}
+
+	/***
+	 * Pages of total items, each fetch sleeping up to maxDelayMillis
+	 */
+	static Slice<Item> page(PageRequest pageable, int total, int maxDelayMillis) {
+		if (maxDelayMillis > 0) {
+			try {
+				Thread.sleep(ThreadLocalRandom.current().nextInt(maxDelayMillis));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		List<Item> items = new ArrayList<Item>();
+		long first = pageable.getOffset() + 1;
+		for (long id = first; id < first + pageable.getPageSize() && id <= total; id++)
+			items.add(new Item(id, "item " + id));
+		return new SliceImpl<Item>(items, pageable, first + pageable.getPageSize() <= total);
+	}
+
+	/***
+	 * Reads the formatted cells of every sheet, sheet by sheet
+	 */
+	static List<List<List<String>>> readWorkbook(byte[] xlsx) throws IOException {
+		List<List<List<String>>> sheets = new ArrayList<List<List<String>>>();
+		DataFormatter formatter = new DataFormatter();
+		try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(xlsx))) {
+			for (Sheet sheet : workbook) {
+				List<List<String>> rows = new ArrayList<List<String>>();
+				for (Row row : sheet) {
+					List<String> cells = new ArrayList<String>();
+					for (Cell cell : row)
+						cells.add(formatter.formatCellValue(cell));
+					rows.add(cells);
+				}
+				sheets.add(rows);
+			}
+		}
+		return sheets;
+	}
+
+	static void assertIds(List<List<String>> rows, long first, long last) {
+		assertEquals(List.of("Id", "Name"), rows.get(0));
+		assertEquals(last - first + 1, rows.size() - 1);
+		for (int r = 1; r < rows.size(); r++)
+			assertEquals(String.valueOf(first + r - 1), rows.get(r).get(0), "row " + r);
+	}
+
+	@Test
+	void prefetchedPagesAreWrittenInOrder() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ExcelExporter<Item> exporter = new ExcelExporter<Item>(out, columns(), "Items", Item.class)) {
+			exporter.setDataFetchSize(50);
+			exporter.setPrefetchDepth(4);
+			exporter.open();
+			// random latencies complete the prefetched pages out of order
+			exporter.generateReportFromDataProvider(pageable -> page(pageable, 1000, 20));
+		}
+		List<List<List<String>>> sheets = readWorkbook(out.toByteArray());
+		assertEquals(1, sheets.size());
+		assertIds(sheets.get(0), 1, 1000);
+	}
+
+	@Test
+	void prefetchedPagesStayWithinTheQueueBoundOnTheExecutor() throws Exception {
+		AtomicInteger fetching = new AtomicInteger();
+		AtomicInteger peakFetching = new AtomicInteger();
+		AtomicInteger executed = new AtomicInteger();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ExcelExporter<Item> exporter = new ExcelExporter<Item>(out, columns(), "Items", Item.class)) {
+			exporter.setMaxQueueSize(100);
+			exporter.setDataFetchSize(50);
+			exporter.setPrefetchDepth(8);
+			exporter.setExecutor(task -> {
+				executed.incrementAndGet();
+				ExportExecutors.threadPerTask().execute(task);
+			});
+			exporter.open();
+			exporter.generateReportFromDataProvider(pageable -> {
+				peakFetching.accumulateAndGet(fetching.incrementAndGet(), Math::max);
+				try {
+					return page(pageable, 1000, 20);
+				} finally {
+					fetching.decrementAndGet();
+				}
+			});
+		}
+		assertIds(readWorkbook(out.toByteArray()).get(0), 1, 1000);
+		// the next page and the two pages the queue has room for
+		assertTrue(peakFetching.get() <= 3, "peak of " + peakFetching.get() + " pages in flight");
+		assertTrue(executed.get() > 1, "prefetches run on the configured executor");
+	}
+
+	@Test
+	void cancelInterruptsPrefetchedFetches() throws Exception {
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch interrupted = new CountDownLatch(1);
+		ExcelExporter<Item> exporter = new ExcelExporter<Item>(new ByteArrayOutputStream(), columns(), "Items",
+				Item.class);
+		exporter.setDataFetchSize(10);
+		exporter.setPrefetchDepth(3);
+		exporter.open();
+		Thread canceller = new Thread(() -> {
+			try {
+				blocked.await();
+				exporter.cancel("test");
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		});
+		canceller.start();
+		assertThrows(ConflictException.class, () -> assertTimeoutPreemptively(Duration.ofSeconds(10),
+				() -> exporter.generateReportFromDataProvider(pageable -> {
+					if (pageable.getPageNumber() >= 2) {
+						// a slow query still running when the export is cancelled
+						try {
+							blocked.countDown();
+							Thread.sleep(30_000);
+						} catch (InterruptedException e) {
+							interrupted.countDown();
+						}
+					}
+					return page(pageable, 1000, 0);
+				})));
+		assertTrue(interrupted.await(5, TimeUnit.SECONDS), "the running fetch is interrupted");
+		assertTimeoutPreemptively(Duration.ofSeconds(5), exporter::close);
+	}
+
+	@Test
+	void exportingBeforeOpenFailsAsNotOpen() throws Exception {
+		AtomicInteger fetches = new AtomicInteger();
+		ExcelExporter<Item> exporter = new ExcelExporter<Item>(new ByteArrayOutputStream(), columns(), "Items",
+				Item.class);
+		ConflictException failure = assertThrows(ConflictException.class, exporter::export);
+		assertTrue(failure.getMessage().contains("not open"), failure.getMessage());
+		failure = assertThrows(ConflictException.class, () -> exporter.generateReportFromDataProvider(pageable -> {
+			fetches.incrementAndGet();
+			return page(pageable, 10, 0);
+		}));
+		assertTrue(failure.getMessage().contains("not open"), failure.getMessage());
+		assertEquals(0, fetches.get(), "no producer runs before open");
+	}
+
+	/***
+	 * Keyset pages of total items after the key, recording the keys asked for
+	 */
+	static List<Item> keysetPage(List<Long> keys, Long key, int size, int total) {
+		keys.add(key);
+		List<Item> items = new ArrayList<Item>();
+		for (long id = key == null ? 1 : key + 1; id <= total && items.size() < size; id++)
+			items.add(new Item(id, "item " + id));
+		return items;
+	}
+
+	@Test
+	void keysetPagesStartAfterTheLastKeyAndStopOnAShortPage() throws Exception {
+		List<Long> keys = new ArrayList<Long>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ExcelExporter<Item> exporter = new ExcelExporter<Item>(out, columns(), "Items", Item.class)) {
+			exporter.setDataFetchSize(10);
+			exporter.open();
+			exporter.generateReportFromKeysetProvider((Long key, Integer size) -> keysetPage(keys, key, size, 25),
+					Item::id, null);
+		}
+		// the third page is short, no fourth fetch
+		assertEquals(Arrays.asList(null, 10L, 20L), keys);
+		assertIds(readWorkbook(out.toByteArray()).get(0), 1, 25);
+	}
+
+	@Test
+	void keysetPagesStopOnAnEmptyPage() throws Exception {
+		List<Long> keys = new ArrayList<Long>();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ExcelExporter<Item> exporter = new ExcelExporter<Item>(out, columns(), "Items", Item.class)) {
+			exporter.setDataFetchSize(10);
+			exporter.open();
+			exporter.generateReportFromKeysetProvider((Long key, Integer size) -> keysetPage(keys, key, size, 20),
+					Item::id, null);
+		}
+		assertEquals(Arrays.asList(null, 10L, 20L), keys);
+		assertIds(readWorkbook(out.toByteArray()).get(0), 1, 20);
+		// no data at all is still a failure
+		try (ExcelExporter<Item> exporter = new ExcelExporter<Item>(new ByteArrayOutputStream(), columns(), "Items",
+				Item.class)) {
+			exporter.open();
+			assertThrows(ConflictException.class, () -> exporter.generateReportFromKeysetProvider(
+					(Long key, Integer size) -> List.<Item>of(), Item::id, null));
+		}
+	}
+
+	@Test
+	void streamIsReadInBatchesOfTheFetchSizeAndClosed() throws Exception {
+		AtomicBoolean closed = new AtomicBoolean();
+		int[] fetchSize = new int[1];
+		SimpleMeterRegistry registry = new SimpleMeterRegistry();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ExcelExporter<Item> exporter = new ExcelExporter<Item>(out, columns(), "Items", Item.class)) {
+			exporter.setDataFetchSize(10);
+			exporter.setMeterRegistry(registry);
+			exporter.open();
+			exporter.generateReportFromStream(size -> {
+				fetchSize[0] = size;
+				return LongStream.rangeClosed(1, 25).mapToObj(id -> id).onClose(() -> closed.set(true));
+			}, id -> new Item(id, "item " + id));
+		}
+		assertEquals(10, fetchSize[0]);
+		assertTrue(closed.get(), "the stream is closed once read");
+		// batches of 10, 10 and 5 records
+		assertEquals(3, registry.get("excel.export.fetch").timer().count());
+		assertIds(readWorkbook(out.toByteArray()).get(0), 1, 25);
+	}
+
+	@Test
+	void streamIsClosedWhenReadingFails() throws Exception {
+		AtomicBoolean closed = new AtomicBoolean();
+		try (ExcelExporter<Item> exporter = new ExcelExporter<Item>(new ByteArrayOutputStream(), columns(), "Items",
+				Item.class)) {
+			exporter.setDataFetchSize(10);
+			exporter.open();
+			assertThrows(ConflictException.class,
+					() -> exporter.generateReportFromStream(size -> LongStream.rangeClosed(1, 25).mapToObj(id -> {
+						if (id == 15)
+							throw new IllegalStateException("cursor lost");
+						return new Item(id, "item " + id);
+					}).onClose(() -> closed.set(true)), null));
+		}
+		assertTrue(closed.get(), "the stream is closed after a failure");
+	}
+
+	@Test
+	void rejectedProducerFailsTheExportAndReleasesClose() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		executor.shutdown();
+		ExcelExporter<Item> exporter = new ExcelExporter<Item>(new ByteArrayOutputStream(), columns(), "Items",
+				Item.class);
+		exporter.setExecutor(executor);
+		exporter.open();
+		assertThrows(ConflictException.class,
+				() -> exporter.generateReportFromDataProvider(pageable -> page(pageable, 10, 0)));
+		assertTimeoutPreemptively(Duration.ofSeconds(5), exporter::close);
+	}
+
+	/***
+	 * Files left under a directory
+	 */
+	static long countFiles(Path directory) throws IOException {
+		try (Stream<Path> paths = Files.walk(directory)) {
+			return paths.filter(Files::isRegularFile).count();
+		}
+	}
+
+	@Test
+	void cancelStopsTheProducerAndDeletesTempFiles(@TempDir Path temp) throws Exception {
+		AtomicInteger fetches = new AtomicInteger();
+		long[] tempFilesWhileRunning = new long[1];
+		ExcelExporter<Item> exporter = new ExcelExporter<Item>(new ByteArrayOutputStream(), columns(), "Items",
+				Item.class);
+		exporter.setTempDirectory(temp);
+		exporter.setDataFetchSize(100);
+		exporter.open();
+		// endless pages, cancelled from the provider once a few were written
+		ConflictException failure = assertThrows(ConflictException.class,
+				() -> assertTimeoutPreemptively(Duration.ofSeconds(10),
+						() -> exporter.generateReportFromDataProvider(pageable -> {
+							if (fetches.incrementAndGet() == 5) {
+								try {
+									tempFilesWhileRunning[0] = countFiles(temp);
+								} catch (IOException e) {
+									throw new UncheckedIOException(e);
+								}
+								exporter.cancel("test");
+							}
+							return page(pageable, Integer.MAX_VALUE, 5);
+						})));
+		assertTrue(failure.getMessage().contains("test"), failure.getMessage());
+		assertTrue(tempFilesWhileRunning[0] > 0, "the sheet is spooled to a temp file");
+		int fetched = fetches.get();
+		Thread.sleep(200);
+		assertEquals(fetched, fetches.get(), "no page is fetched after the cancel");
+		assertTrue(fetched <= 6, "fetched " + fetched + " pages");
+		assertEquals(0, countFiles(temp));
+		assertTimeoutPreemptively(Duration.ofSeconds(5), exporter::close);
+		assertEquals(0, countFiles(temp));
+	}
+
+	@Test
+	void deadlineStopsTheProducerAndDeletesTempFiles(@TempDir Path temp) throws Exception {
+		AtomicInteger fetches = new AtomicInteger();
+		ExcelExporter<Item> exporter = new ExcelExporter<Item>(new ByteArrayOutputStream(), columns(), "Items",
+				Item.class);
+		exporter.setTempDirectory(temp);
+		exporter.setDataFetchSize(100);
+		exporter.setDeadline(Duration.ofMillis(300));
+		exporter.open();
+		ConflictException failure = assertThrows(ConflictException.class,
+				() -> assertTimeoutPreemptively(Duration.ofSeconds(10),
+						() -> exporter.generateReportFromDataProvider(pageable -> {
+							fetches.incrementAndGet();
+							return page(pageable, Integer.MAX_VALUE, 20);
+						})));
+		assertTrue(failure.getMessage().contains("Deadline"), failure.getMessage());
+		assertTrue(exporter.isCancelled());
+		int fetched = fetches.get();
+		Thread.sleep(200);
+		assertEquals(fetched, fetches.get(), "no page is fetched after the deadline");
+		assertEquals(0, countFiles(temp));
+		assertTimeoutPreemptively(Duration.ofSeconds(5), exporter::close);
+		assertEquals(0, countFiles(temp));
+	}
+
+	@Test
+	void partitionsAreWrittenToTheirOwnSheetsInOrder() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		List<String> sheetNames = new ArrayList<String>();
+		try (ExcelExporter<Item> exporter = new ExcelExporter<Item>(out, columns(), "Items", Item.class)) {
+			exporter.setDataFetchSize(40);
+			exporter.setMaxRowsPerSheet(200);
+			exporter.open();
+			// three key ranges of 250 ids, each overflowing to a second sheet
+			exporter.generateReportFromPartitions(List.of(0, 1, 2), (partition, pageable) -> {
+				Slice<Item> slice = page(pageable, 250, 5);
+				return new SliceImpl<Item>(slice.getContent().stream()
+						.map(item -> new Item(item.id() + partition * 250, item.name())).toList(), pageable,
+						slice.hasNext());
+			}, null);
+		}
+		try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+			for (Sheet sheet : workbook)
+				sheetNames.add(sheet.getSheetName());
+		}
+		assertEquals(List.of("Items", "Items_1", "Items_P1", "Items_P1_1", "Items_P2", "Items_P2_1"), sheetNames);
+		List<List<List<String>>> sheets = readWorkbook(out.toByteArray());
+		for (int partition = 0; partition < 3; partition++) {
+			List<List<String>> rows = new ArrayList<List<String>>(sheets.get(2 * partition));
+			rows.addAll(sheets.get(2 * partition + 1).subList(1, sheets.get(2 * partition + 1).size()));
+			assertIds(rows, partition * 250 + 1, partition * 250 + 250);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+class ExportJobSchedulerTest {
+
+	private ExportJobScheduler scheduler;
+
+	@AfterEach
+	void close() throws InterruptedException {
+		scheduler.close();
+		scheduler.awaitTermination(5, TimeUnit.SECONDS);
+	}
+
+	@Test
+	void jobsStartOnlyWhenTheirDemandFits() throws Exception {
+		scheduler = new ExportJobScheduler(3, 100, 1000);
+		CountDownLatch release = new CountDownLatch(1);
+		ExportJob<Void> large = scheduler.submit("a", 0, 60, 0, () -> await(release));
+		ExportJob<Void> tooLarge = scheduler.submit("a", 0, 60, 0, () -> await(release));
+		ExportJob<Void> small = scheduler.submit("b", 0, 30, 0, () -> await(release));
+		ExportJob<Void> tooMuchDisk = scheduler.submit("c", 0, 0, 2000, () -> null);
+		assertEquals(ExportJob.Status.RUNNING, large.getStatus());
+		assertEquals(ExportJob.Status.QUEUED, tooLarge.getStatus(), "60 + 60 exceeds the heap budget");
+		assertEquals(ExportJob.Status.RUNNING, small.getStatus(), "a job of another tenant that fits starts");
+		assertEquals(ExportJob.Status.QUEUED, tooMuchDisk.getStatus());
+		assertEquals(90, scheduler.getReservedHeapBytes());
+		release.countDown();
+		large.getResult().get(5, TimeUnit.SECONDS);
+		tooLarge.getResult().get(5, TimeUnit.SECONDS);
+		// larger than the budget, it runs alone once nothing else runs
+		tooMuchDisk.getResult().get(5, TimeUnit.SECONDS);
+		assertEquals(ExportJob.Status.SUCCEEDED, tooMuchDisk.getStatus());
+	}
+
+	@Test
+	void tenantsAreServedInTurnByPriority() throws Exception {
+		scheduler = new ExportJobScheduler(1, 100, 100);
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> order = Collections.synchronizedList(new ArrayList<String>());
+		ExportJob<Void> blocker = scheduler.submit("a", 0, 0, 0, () -> await(release));
+		List<ExportJob<?>> jobs = new ArrayList<ExportJob<?>>();
+		jobs.add(scheduler.submit("a", 0, 0, 0, () -> order.add("a1")));
+		jobs.add(scheduler.submit("a", 0, 0, 0, () -> order.add("a2")));
+		jobs.add(scheduler.submit("a", 5, 0, 0, () -> order.add("a3")));
+		jobs.add(scheduler.submit("b", 0, 0, 0, () -> order.add("b1")));
+		jobs.add(scheduler.submit("b", 0, 0, 0, () -> order.add("b2")));
+		assertEquals(5, scheduler.getQueuedJobs());
+		release.countDown();
+		blocker.getResult().get(5, TimeUnit.SECONDS);
+		for (ExportJob<?> job : jobs)
+			job.getResult().get(5, TimeUnit.SECONDS);
+		assertEquals(List.of("a3", "b1", "a1", "b2", "a2"), order);
+	}
+
+	@Test
+	void cancelledQueuedJobNeverRuns() throws Exception {
+		scheduler = new ExportJobScheduler(1, 100, 100);
+		CountDownLatch release = new CountDownLatch(1);
+		ExportJob<Void> blocker = scheduler.submit("a", 0, 0, 0, () -> await(release));
+		ExportJob<String> queued = scheduler.submit("a", 0, 0, 0, () -> "ran");
+		assertTrue(queued.cancel());
+		assertEquals(ExportJob.Status.CANCELLED, queued.getStatus());
+		assertEquals(0, scheduler.getQueuedJobs());
+		release.countDown();
+		blocker.getResult().get(5, TimeUnit.SECONDS);
+		assertTrue(queued.getResult().isCancelled());
+	}
+
+	@Test
+	void demandIsEstimatedFromTheExporter() throws Exception {
+		scheduler = new ExportJobScheduler(1, Long.MAX_VALUE, Long.MAX_VALUE);
+		scheduler.setRecordBytes(100);
+		ExcelExporter<ExcelExporterTest.Item> exporter = exporter();
+		exporter.setMaxQueueSize(1000);
+		exporter.setDataFetchSize(50);
+		// queue of 1000 records and 2 pages in flight, 2 columns of 1000 rows
+		ExportJob<Void> job = scheduler.submit("a", 0, exporter, 1000, () -> null);
+		assertEquals((1000 + 2 * 50) * 100, job.getHeapBytes());
+		assertEquals(1000 * 2 * 64, job.getTempDiskBytes());
+
+		exporter = exporter();
+		exporter.setMaxQueueBytes(1 << 20);
+		exporter.setDataFetchSize(50);
+		exporter.setCompressTempFiles(true);
+		job = scheduler.submit("a", 0, exporter, 1000, () -> null);
+		assertEquals((1 << 20) + 2 * 50 * 100, job.getHeapBytes());
+		assertEquals(1000 * 2 * 64 / 4, job.getTempDiskBytes());
+
+		exporter = exporter();
+		exporter.setEngine(ExportEngine.STREAMING);
+		job = scheduler.submit("a", 0, exporter, 1000, () -> null);
+		assertEquals(0, job.getTempDiskBytes(), "the streaming engine uses no temp files");
+	}
+
+	private static ExcelExporter<ExcelExporterTest.Item> exporter() {
+		return new ExcelExporter<ExcelExporterTest.Item>(new ByteArrayOutputStream(), ExcelExporterTest.columns(),
+				"Items", ExcelExporterTest.Item.class);
+	}
+
+	private static Void await(CountDownLatch latch) throws InterruptedException {
+		latch.await(5, TimeUnit.SECONDS);
+		return null;
+	}
+}
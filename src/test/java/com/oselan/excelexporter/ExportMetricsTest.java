@@ -0,0 +1,109 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.oselan.commons.exceptions.ConflictException;
+import com.oselan.excelexporter.ExcelExporterTest.Item;
+
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationHandler;
+import io.micrometer.observation.ObservationRegistry;
+
+class ExportMetricsTest {
+
+	private final SimpleMeterRegistry registry = new SimpleMeterRegistry();
+
+	/***
+	 * Events of the observations, e.g. "start excel.export"
+	 */
+	private final List<String> events = new ArrayList<String>();
+
+	private ObservationRegistry observations() {
+		ObservationRegistry observations = ObservationRegistry.create();
+		observations.observationConfig().observationHandler(new ObservationHandler<Observation.Context>() {
+			@Override
+			public void onStart(Observation.Context context) {
+				events.add("start " + context.getName());
+			}
+
+			@Override
+			public void onError(Observation.Context context) {
+				events.add("error " + context.getError().getClass().getSimpleName());
+			}
+
+			@Override
+			public void onStop(Observation.Context context) {
+				events.add("stop " + context.getLowCardinalityKeyValue("report").getValue());
+			}
+
+			@Override
+			public boolean supportsContext(Observation.Context context) {
+				return true;
+			}
+		});
+		return observations;
+	}
+
+	private ExcelExporter<Item> exporter(ByteArrayOutputStream out) {
+		ExcelExporter<Item> exporter = new ExcelExporter<Item>(out, ExcelExporterTest.columns(), "Items", Item.class);
+		exporter.setMeterRegistry(registry);
+		exporter.setObservationRegistry(observations());
+		exporter.setDataFetchSize(40);
+		return exporter;
+	}
+
+	@Test
+	void exportRecordsTaggedMetersAndOneObservation() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ExcelExporter<Item> exporter = exporter(out)) {
+			exporter.open();
+			exporter.generateReportFromDataProvider(pageable -> ExcelExporterTest.page(pageable, 100, 0));
+		}
+		Tags tags = Tags.of("report", "Items", "engine", "SXSSF");
+		assertEquals(100, registry.get("excel.export.rows").tags(tags).counter().count());
+		// pages of 40, 40 and 20 records
+		assertEquals(3, registry.get("excel.export.fetch").tags(tags).timer().count());
+		assertEquals(3, registry.get("excel.export.queue.depth").tags(tags).summary().count());
+		assertEquals(3, registry.get("excel.export.writer.starved").tags(tags).timer().count());
+		assertTrue(registry.get("excel.export.producer.blocked").tags(tags).timer().count() >= 3);
+		assertEquals(1, registry.get("excel.export.workbook.write").tags(tags).timer().count());
+		// recorded once per export when it closes
+		assertEquals(1, registry.get("excel.export.queue.peak").tags(tags).summary().count());
+		assertEquals(out.size(), registry.get("excel.export.bytes").tags(tags).summary().totalAmount());
+		assertEquals(1, registry.get("excel.export.temp.bytes").tags(tags).summary().count());
+		assertEquals(List.of("start excel.export", "stop Items"), events);
+	}
+
+	@Test
+	void byteBoundedQueueIsMeteredInBytes() throws Exception {
+		try (ExcelExporter<Item> exporter = exporter(new ByteArrayOutputStream())) {
+			exporter.setMaxQueueBytes(1024 * 1024);
+			exporter.open();
+			exporter.generateReportFromDataProvider(pageable -> ExcelExporterTest.page(pageable, 100, 0));
+		}
+		assertTrue(registry.get("excel.export.queue.bytes").summary().totalAmount() > 0);
+		assertTrue(registry.get("excel.export.queue.peak.bytes").summary().max() > 0);
+		assertTrue(registry.find("excel.export.queue.depth").summary() == null);
+	}
+
+	@Test
+	void failureIsRecordedOnTheObservation() throws Exception {
+		try (ExcelExporter<Item> exporter = exporter(new ByteArrayOutputStream())) {
+			exporter.open();
+			assertThrows(ConflictException.class, () -> exporter.generateReportFromDataProvider(pageable -> {
+				throw new IllegalStateException("database down");
+			}));
+		}
+		assertEquals(List.of("start excel.export", "error ConflictException", "stop Items"), events);
+	}
+}
@@ -0,0 +1,60 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import io.micrometer.observation.ObservationRegistry;
+
+class OrderedMappingStageTest {
+
+	private final ExportMetrics metrics = new ExportMetrics(new SimpleMeterRegistry(), ObservationRegistry.NOOP,
+			"test", "SXSSF", false);
+
+	@Test
+	void pagesReachTheSinkInSubmissionOrder() throws Exception {
+		List<String> written = new ArrayList<String>();
+		try (OrderedMappingStage<String> stage = new OrderedMappingStage<String>(4, metrics, written::addAll)) {
+			for (int page = 0; page < 50; page++) {
+				List<Integer> content = IntStream.range(page * 10, page * 10 + 10).boxed().collect(Collectors.toList());
+				// random mapping times finish the pages out of order
+				stage.submit(content, n -> {
+					if (n % 10 == 0)
+						sleep(ThreadLocalRandom.current().nextInt(10));
+					return "#" + n;
+				});
+			}
+			stage.flush();
+		}
+		assertEquals(IntStream.range(0, 500).mapToObj(n -> "#" + n).collect(Collectors.toList()), written);
+	}
+
+	@Test
+	void mappingFailureIsReportedOnFlush() throws Exception {
+		try (OrderedMappingStage<String> stage = new OrderedMappingStage<String>(2, metrics, records -> {
+		})) {
+			stage.submit(List.of(1, 2), n -> {
+				throw new IllegalStateException("bad record " + n);
+			});
+			IOException failure = assertThrows(IOException.class, stage::flush);
+			assertEquals(IllegalStateException.class, failure.getCause().getClass());
+		}
+	}
+
+	private static void sleep(int millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,90 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.jupiter.api.Test;
+
+class ParallelDeflaterTest {
+
+	/***
+	 * Several chunks of repetitive rows with random values
+	 */
+	private static byte[] data() {
+		Random random = new Random(42);
+		StringBuilder xml = new StringBuilder();
+		for (int row = 0; xml.length() < 3_500_000; row++)
+			xml.append("<row r=\"").append(row).append("\"><c><v>").append(random.nextLong()).append("</v></c></row>");
+		return xml.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	@Test
+	void chunksCompressedInParallelMakeAValidZipEntry() throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			assertRoundTrip(new ParallelDeflater(1, executor, 4));
+			assertRoundTrip(new ParallelDeflater(9, executor, 4));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void chunksCompressedOnTheCallingThreadMakeAValidZipEntry() throws Exception {
+		assertRoundTrip(new ParallelDeflater(6, null, 1));
+	}
+
+	@Test
+	void emptyInputMakesAValidZipEntry() throws Exception {
+		byte[] compressed = zip(new ParallelDeflater(6, null, 1), new byte[0]);
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(compressed))) {
+			assertEquals("sheet.xml", zip.getNextEntry().getName());
+			assertEquals(0, zip.readAllBytes().length);
+		}
+	}
+
+	private static void assertRoundTrip(ParallelDeflater deflater) throws Exception {
+		byte[] data = data();
+		byte[] compressed = zip(deflater, data);
+		assertTrue(compressed.length < data.length / 2, "compressed to " + compressed.length);
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(compressed))) {
+			ZipEntry entry = zip.getNextEntry();
+			// ZipInputStream checks the crc and sizes of the entry as it is read
+			assertArrayEquals(data, zip.readAllBytes());
+			assertEquals(data.length, entry.getSize());
+		}
+	}
+
+	private static byte[] zip(ParallelDeflater deflater, byte[] data) throws Exception {
+		ByteArrayOutputStream raw = new ByteArrayOutputStream();
+		ParallelDeflater.Result result = deflater.deflate(new ByteArrayInputStream(data), raw);
+		CRC32 crc = new CRC32();
+		crc.update(data);
+		assertEquals(crc.getValue(), result.crc);
+		assertEquals(data.length, result.size);
+		assertEquals(raw.size(), result.compressedSize);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(out)) {
+			ZipArchiveEntry entry = new ZipArchiveEntry("sheet.xml");
+			entry.setMethod(ZipArchiveEntry.DEFLATED);
+			entry.setCrc(result.crc);
+			entry.setSize(result.size);
+			entry.setCompressedSize(result.compressedSize);
+			zip.addRawArchiveEntry(entry, new ByteArrayInputStream(raw.toByteArray()));
+		}
+		return out.toByteArray();
+	}
+}
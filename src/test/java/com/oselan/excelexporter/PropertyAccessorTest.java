@@ -0,0 +1,110 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.oselan.commons.exceptions.ConflictException;
+
+class PropertyAccessorTest {
+
+	public record Address(String city, int zip) {
+	}
+
+	public static class Person {
+		private final String name;
+		private final boolean active;
+		private final Address address;
+		@SuppressWarnings("unused")
+		private final long secret;
+
+		public Person(String name, boolean active, Address address, long secret) {
+			this.name = name;
+			this.active = active;
+			this.address = address;
+			this.secret = secret;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isActive() {
+			return active;
+		}
+
+		public Address getAddress() {
+			return address;
+		}
+	}
+
+	private final Person person = new Person("Ann", true, new Address("Beirut", 1107), 42L);
+
+	@Test
+	void readsGettersIsGettersAndFields() {
+		assertEquals("Ann", PropertyAccessor.of(Person.class, "name").get(person));
+		assertEquals(Boolean.TRUE, PropertyAccessor.of(Person.class, "active").get(person));
+		// private field without getter
+		assertEquals(42L, PropertyAccessor.of(Person.class, "secret").get(person));
+	}
+
+	@Test
+	void readsRecordComponentsAndNestedPaths() {
+		PropertyAccessor zip = PropertyAccessor.of(Person.class, "address.zip");
+		assertEquals(1107, zip.get(person));
+		assertEquals(int.class, zip.getType());
+		assertTrue(zip.isPrimitiveNumber());
+		assertEquals(1107d, zip.getDouble(zip.getParent(person)));
+		assertEquals("Beirut", PropertyAccessor.of(Person.class, "address.city").get(person));
+	}
+
+	@Test
+	void longsAreReadWithoutBoxing() {
+		PropertyAccessor id = PropertyAccessor.of(ExcelExporterTest.Item.class, "id");
+		assertTrue(id.isPrimitiveLong());
+		assertEquals(Long.MAX_VALUE, id.getLong(new ExcelExporterTest.Item(Long.MAX_VALUE, "max")));
+		// private field read through the method handle
+		PropertyAccessor secret = PropertyAccessor.of(Person.class, "secret");
+		assertTrue(secret.isPrimitiveLong());
+		assertEquals(42L, secret.getLong(person));
+		assertFalse(PropertyAccessor.of(Person.class, "address.zip").isPrimitiveLong());
+	}
+
+	@Test
+	void nullAlongThePathReadsAsNull() {
+		Person homeless = new Person("Bob", false, null, 0);
+		assertNull(PropertyAccessor.of(Person.class, "address.city").get(homeless));
+		assertNull(PropertyAccessor.of(Person.class, "address.zip").getParent(homeless));
+	}
+
+	@Test
+	void accessorsAreCached() {
+		assertTrue(PropertyAccessor.of(Person.class, "name") == PropertyAccessor.of(Person.class, "name"));
+	}
+
+	@Test
+	void unknownOrMalformedPropertiesFailWithIllegalArgument() {
+		assertThrows(IllegalArgumentException.class, () -> PropertyAccessor.of(Person.class, "nmae"));
+		assertThrows(IllegalArgumentException.class, () -> PropertyAccessor.of(Person.class, "address..city"));
+		assertThrows(IllegalArgumentException.class, () -> PropertyAccessor.of(Person.class, "address."));
+		assertThrows(IllegalArgumentException.class, () -> PropertyAccessor.of(Person.class, ".name"));
+	}
+
+	@Test
+	void misspelledPropertyFailsInOpen() {
+		List<ColumnDefinition> columns = new ArrayList<ColumnDefinition>(
+				ColumnDefinition.listBuilder().withColumn("Name", "name").withColumn("City", "address..city").build());
+		ExcelExporter<Person> exporter = new ExcelExporter<Person>(new ByteArrayOutputStream(), columns, "People",
+				Person.class);
+		ConflictException failure = assertThrows(ConflictException.class, exporter::open);
+		assertTrue(failure.getMessage().contains("address..city"), failure.getMessage());
+	}
+}
@@ -0,0 +1,48 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class RecordSizeEstimatorTest {
+
+	public record Address(String city, String street) {
+	}
+
+	public record Customer(long id, String name, String notes, Address address) {
+	}
+
+	private static final String[] ID_ONLY = { "id", null };
+
+	@Test
+	void fieldsNotExportedAreCounted() {
+		Customer small = new Customer(1, "Ann", null, null);
+		Customer large = new Customer(2, "Ann", "x".repeat(10_000), null);
+		// the notes are not exported but still take the heap of the record
+		assertTrue(RecordSizeEstimator.estimateRecord(large, ID_ONLY)
+				- RecordSizeEstimator.estimateRecord(small, ID_ONLY) >= 10_000);
+	}
+
+	@Test
+	void nestedExportedPropertiesAreCounted() {
+		Customer customer = new Customer(1, "Ann", null, new Address("x".repeat(5_000), "y".repeat(3_000)));
+		long unexported = RecordSizeEstimator.estimateRecord(customer, ID_ONLY);
+		long exported = RecordSizeEstimator.estimateRecord(customer, new String[] { "id", "address.city" });
+		// the address itself is a small object, its exported city is counted
+		assertTrue(exported - unexported >= 5_000);
+		assertTrue(exported - unexported < 8_000);
+	}
+
+	@Test
+	void pagesScaleTheSampledRecords() {
+		List<Customer> page = new ArrayList<Customer>();
+		for (int i = 0; i < 1000; i++)
+			page.add(new Customer(i, "name", "notes", null));
+		long record = RecordSizeEstimator.estimateRecord(page.get(0), ID_ONLY);
+		assertEquals(16 + 8 * 1000 + record * 1000, RecordSizeEstimator.estimatePage(page, ID_ONLY));
+	}
+}
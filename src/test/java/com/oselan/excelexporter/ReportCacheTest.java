@@ -0,0 +1,158 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.oselan.commons.exceptions.ConflictException;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ReportCacheTest {
+
+	@TempDir
+	Path directory;
+
+	private final MeterRegistry registry = new SimpleMeterRegistry();
+
+	private final AtomicInteger generations = new AtomicInteger();
+
+	@Test
+	void concurrentRequestsShareOneGeneration() throws Exception {
+		ReportCache cache = new ReportCache(directory, 1 << 20, Duration.ofHours(1), registry);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		CompletableFuture<byte[]> first = CompletableFuture.supplyAsync(() -> export(cache, "a", stream -> {
+			generations.incrementAndGet();
+			started.countDown();
+			release.await(5, TimeUnit.SECONDS);
+			stream.write(new byte[] { 1, 2, 3 });
+		}));
+		started.await(5, TimeUnit.SECONDS);
+		CompletableFuture<byte[]> second = CompletableFuture.supplyAsync(() -> export(cache, "a", failing()));
+		Thread.sleep(100);
+		assertFalse(second.isDone(), "the second request waits for the generation in flight");
+		release.countDown();
+		assertArrayEquals(new byte[] { 1, 2, 3 }, first.get(5, TimeUnit.SECONDS));
+		assertArrayEquals(new byte[] { 1, 2, 3 }, second.get(5, TimeUnit.SECONDS));
+		assertEquals(1, generations.get());
+		assertEquals(1, registry.counter("excel.export.cache.hits").count());
+		assertEquals(1, registry.counter("excel.export.cache.misses").count());
+	}
+
+	@Test
+	void leastRecentlyUsedReportIsEvictedFirst() throws Exception {
+		ReportCache cache = new ReportCache(directory, 250, Duration.ofHours(1), registry);
+		export(cache, "a", generating(100));
+		export(cache, "b", generating(100));
+		export(cache, "a", failing());
+		export(cache, "c", generating(100));
+		assertEquals(2, cache.getCount());
+		assertEquals(200, cache.getSize());
+		export(cache, "a", failing());
+		export(cache, "b", generating(100));
+		assertEquals(4, generations.get());
+		// b then c evicted
+		assertEquals(2, registry.counter("excel.export.cache.evictions").count());
+	}
+
+	@Test
+	void expiredReportIsGeneratedAgain() throws Exception {
+		ReportCache cache = new ReportCache(directory, 1 << 20, Duration.ofMillis(100), registry);
+		export(cache, "a", generating(10));
+		export(cache, "a", failing());
+		Thread.sleep(150);
+		export(cache, "a", generating(10));
+		assertEquals(2, generations.get());
+		assertEquals(1, countFiles());
+	}
+
+	@Test
+	void largerThanTheCacheIsStreamedButNotKept() throws Exception {
+		ReportCache cache = new ReportCache(directory, 50, Duration.ofHours(1), registry);
+		assertEquals(100, export(cache, "a", generating(100)).length);
+		assertEquals(0, cache.getCount());
+		assertEquals(0, countFiles());
+	}
+
+	@Test
+	void failedGenerationIsNotCached() throws Exception {
+		ReportCache cache = new ReportCache(directory, 1 << 20, Duration.ofHours(1), registry);
+		assertThrows(ConflictException.class, () -> cache.export("a", new ByteArrayOutputStream(), failing()));
+		assertEquals(0, countFiles());
+		export(cache, "a", generating(10));
+		assertEquals(1, generations.get());
+	}
+
+	@Test
+	void reportsLeftByAPreviousRunAreIndexedAgain() throws Exception {
+		ReportCache previous = new ReportCache(directory, 1 << 20, Duration.ofHours(1), registry);
+		byte[] report = export(previous, "a", generating(10));
+		// a generation cut short by the shutdown
+		Files.write(directory.resolve("b~123.part"), new byte[] { 1 });
+		ReportCache cache = new ReportCache(directory, 1 << 20, Duration.ofHours(1), new SimpleMeterRegistry());
+		assertEquals(1, cache.getCount());
+		assertEquals(10, cache.getSize());
+		assertArrayEquals(report, export(cache, "a", failing()));
+		assertEquals(List.of("a~"), listFiles().stream().map(name -> name.substring(0, 2)).toList());
+	}
+
+	@Test
+	void expiredReportsLeftByAPreviousRunAreDeleted() throws Exception {
+		ReportCache previous = new ReportCache(directory, 1 << 20, Duration.ofHours(1), registry);
+		export(previous, "a", generating(10));
+		Thread.sleep(50);
+		ReportCache cache = new ReportCache(directory, 1 << 20, Duration.ofMillis(10), registry);
+		assertEquals(0, cache.getCount());
+		assertEquals(0, countFiles());
+	}
+
+	private ReportCache.ReportGenerator generating(int bytes) {
+		return stream -> {
+			generations.incrementAndGet();
+			stream.write(new byte[bytes]);
+		};
+	}
+
+	private static ReportCache.ReportGenerator failing() {
+		return stream -> {
+			throw new ConflictException("not expected to generate");
+		};
+	}
+
+	private static byte[] export(ReportCache cache, String key, ReportCache.ReportGenerator generator) {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			cache.export(key, out, generator);
+			return out.toByteArray();
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private List<String> listFiles() throws Exception {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.map(file -> file.getFileName().toString()).toList();
+		}
+	}
+
+	private int countFiles() throws Exception {
+		return listFiles().size();
+	}
+}
@@ -0,0 +1,49 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.SliceImpl;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import com.oselan.excelexporter.ExcelExporterTest.Item;
+
+class ResultSetBatchTest {
+
+	private static List<ColumnDefinition> columns() {
+		return new ArrayList<ColumnDefinition>(ColumnDefinition.listBuilder().withColumn("Id", "id")
+				.withColumn("Note", null).withColumn("Name", "name").build());
+	}
+
+	@Test
+	void blankColumnsMatchTheRecordPath() throws Exception {
+		DriverManagerDataSource dataSource = new DriverManagerDataSource(
+				"jdbc:h2:mem:resultsetbatch;DB_CLOSE_DELAY=-1");
+		try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+			statement.execute("create table item (id bigint, name varchar(50))");
+			statement.execute("insert into item values (1, 'item 1'), (2, 'item 2'), (3, null)");
+		}
+		ByteArrayOutputStream jdbc = new ByteArrayOutputStream();
+		try (ExcelExporter<Item> exporter = new ExcelExporter<Item>(jdbc, columns(), "Items", Item.class)) {
+			exporter.open();
+			exporter.generateReportFromJdbc(dataSource, "select id, name from item order by id");
+		}
+		ByteArrayOutputStream records = new ByteArrayOutputStream();
+		try (ExcelExporter<Item> exporter = new ExcelExporter<Item>(records, columns(), "Items", Item.class)) {
+			exporter.open();
+			List<Item> items = List.of(new Item(1, "item 1"), new Item(2, "item 2"), new Item(3, null));
+			exporter.generateReportFromDataProvider(pageable -> new SliceImpl<Item>(items, pageable, false));
+		}
+		List<List<String>> rows = ExcelExporterTest.readWorkbook(jdbc.toByteArray()).get(0);
+		// the blank column is an empty cell, not a missing one
+		assertEquals(List.of("1", "", "item 1"), rows.get(1));
+		assertEquals(List.of("3", ""), rows.get(3));
+		assertEquals(ExcelExporterTest.readWorkbook(records.toByteArray()), List.of(rows));
+	}
+}
@@ -0,0 +1,140 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Slice;
+
+import com.oselan.commons.exceptions.ConflictException;
+
+class SplitExporterTest {
+
+	@TempDir
+	Path directory;
+
+	public record Checked(long id, String name) {
+		@Override
+		public String name() {
+			if (id == 250)
+				throw new IllegalStateException("unreadable record " + id);
+			return name;
+		}
+	}
+
+	private static SplitExporter<ExcelExporterTest.Item> exporter() {
+		SplitExporter<ExcelExporterTest.Item> exporter = new SplitExporter<ExcelExporterTest.Item>(
+				ExcelExporterTest.columns(), "Items", ExcelExporterTest.Item.class);
+		exporter.setMaxRowsPerFile(100);
+		exporter.setDataFetchSize(40);
+		exporter.setParallelism(2);
+		return exporter;
+	}
+
+	@Test
+	void xlsxPartsAreStoredInTheZipInOrder() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (SplitExporter<ExcelExporterTest.Item> exporter = exporter()) {
+			exporter.open(out);
+			exporter.generateReportFromDataProvider(pageable -> ExcelExporterTest.page(pageable, 250, 0), null);
+		}
+		List<ZipEntry> entries = new ArrayList<ZipEntry>();
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			ZipEntry entry;
+			for (int part = 0; (entry = zip.getNextEntry()) != null; part++) {
+				entries.add(entry);
+				List<List<List<String>>> sheets = ExcelExporterTest.readWorkbook(zip.readAllBytes());
+				ExcelExporterTest.assertIds(sheets.get(0), part * 100 + 1, Math.min(250, part * 100 + 100));
+			}
+		}
+		assertEquals(List.of("Items_001.xlsx", "Items_002.xlsx", "Items_003.xlsx"),
+				entries.stream().map(ZipEntry::getName).toList());
+		assertTrue(entries.stream().allMatch(entry -> entry.getMethod() == ZipEntry.STORED));
+	}
+
+	@Test
+	void textPartsAreDeflatedInTheZip() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (SplitExporter<ExcelExporterTest.Item> exporter = exporter()) {
+			exporter.setPartSettings(part -> part.setRowSinkFactory(CsvFormat.csv()));
+			exporter.open(out);
+			exporter.generateReportFromDataProvider(pageable -> ExcelExporterTest.page(pageable, 150, 0), null);
+		}
+		try (ZipInputStream zip = new ZipInputStream(new ByteArrayInputStream(out.toByteArray()))) {
+			ZipEntry entry = zip.getNextEntry();
+			assertEquals("Items_001.csv", entry.getName());
+			assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+			String text = new String(zip.readAllBytes(), StandardCharsets.UTF_8);
+			assertTrue(text.startsWith("Id,Name\r\n1,item 1\r\n"), text);
+			assertEquals(101, text.split("\r\n").length);
+			assertEquals("Items_002.csv", zip.getNextEntry().getName());
+		}
+	}
+
+	@Test
+	void failingProviderDeletesThePartNotCompleted() throws Exception {
+		SplitExporter<ExcelExporterTest.Item> exporter = exporter();
+		exporter.setParallelism(1);
+		exporter.open(directory);
+		assertThrows(ConflictException.class, () -> exporter.generateReportFromDataProvider(pageable -> {
+			if (pageable.getOffset() >= 240)
+				throw new IllegalStateException("connection lost");
+			return ExcelExporterTest.page(pageable, 1000, 0);
+		}, null));
+		// parallelism 1 completes a part before starting the next
+		assertEquals(List.of("Items_001.xlsx", "Items_002.xlsx"), exporter.getFileNames());
+		assertEquals(exporter.getFileNames(), files());
+		exporter.close();
+	}
+
+	@Test
+	void failingPartCancelsTheOthersAndDeletesTheirFiles() throws Exception {
+		SplitExporter<Checked> exporter = new SplitExporter<Checked>(ExcelExporterTest.columns(), "Items",
+				Checked.class);
+		exporter.setMaxRowsPerFile(100);
+		exporter.setDataFetchSize(40);
+		exporter.setParallelism(4);
+		exporter.open(directory);
+		ConflictException failure = assertThrows(ConflictException.class, () -> {
+			exporter.generateReportFromDataProvider((PageRequest pageable) -> {
+				Slice<ExcelExporterTest.Item> page = ExcelExporterTest.page(pageable, 1000, 0);
+				return page.map(item -> new Checked(item.id(), item.name()));
+			}, null);
+			exporter.close();
+		});
+		assertTrue(failure.getMessage().contains("Items_003.xlsx"), failure.getMessage());
+		assertEquals(List.of("Items_001.xlsx", "Items_002.xlsx"), exporter.getFileNames());
+		assertEquals(exporter.getFileNames(), files());
+	}
+
+	@Test
+	void emptyExportFailsAndWritesNothing() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		SplitExporter<ExcelExporterTest.Item> exporter = exporter();
+		exporter.open(out);
+		exporter.generateReportFromDataProvider(pageable -> ExcelExporterTest.page(pageable, 0, 0), null);
+		ConflictException failure = assertThrows(ConflictException.class, exporter::close);
+		assertEquals("No data found to generate report.", failure.getMessage());
+		assertEquals(0, out.size());
+	}
+
+	private List<String> files() throws Exception {
+		try (Stream<Path> files = Files.list(directory)) {
+			return files.map(file -> file.getFileName().toString()).sorted().toList();
+		}
+	}
+}
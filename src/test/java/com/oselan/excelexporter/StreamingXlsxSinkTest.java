@@ -0,0 +1,92 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.SliceImpl;
+
+class StreamingXlsxSinkTest {
+
+	public record Order(long id, String customer, BigDecimal total, boolean paid, LocalDate day,
+			LocalDateTime placed) {
+	}
+
+	@Test
+	void streamedWorkbookReadsBackWithValuesAndFormats() throws Exception {
+		List<ColumnDefinition> columns = new ArrayList<ColumnDefinition>(ColumnDefinition.listBuilder()
+				.withColumn("Id", "id").withColumn("Customer", "customer").withColumn("Total", "total", "0.00")
+				.withColumn("Paid", "paid").withColumn("Day", "day").withColumn("Placed", "placed").build());
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ExcelExporter<Order> exporter = new ExcelExporter<Order>(out, columns, "Orders", Order.class)) {
+			exporter.setEngine(ExportEngine.STREAMING);
+			exporter.open();
+			exporter.generateReportFromDataProvider(pageable -> new SliceImpl<Order>(pageable.getPageNumber() > 0
+					? List.of()
+					: List.of(new Order(1, "Tom & \"Jerry\" <co>", new BigDecimal("12.5"), true,
+							LocalDate.of(2024, 2, 29), LocalDateTime.of(2024, 2, 29, 13, 45, 10)),
+							new Order(2, null, null, false, null, null)),
+					pageable, false));
+		}
+		List<List<List<String>>> sheets = ExcelExporterTest.readWorkbook(out.toByteArray());
+		assertEquals(1, sheets.size());
+		List<List<String>> rows = sheets.get(0);
+		assertEquals(List.of("Id", "Customer", "Total", "Paid", "Day", "Placed"), rows.get(0));
+		assertEquals(List.of("1", "Tom & \"Jerry\" <co>", "12.50", "TRUE", "2024-02-29", "2024-02-29 13:45:10"),
+				rows.get(1));
+		// null values leave the cells empty
+		assertEquals(List.of("2", "FALSE"), rows.get(2));
+	}
+
+	@Test
+	void sheetNamesFollowTheSxssfRules() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		StreamingXlsxSink sink = new StreamingXlsxSink(Deflater.DEFAULT_COMPRESSION, out);
+		try {
+			sink.openSheet("Orders");
+			assertThrows(IllegalArgumentException.class, () -> sink.openSheet("orders"));
+			assertThrows(IllegalArgumentException.class, () -> sink.openSheet("Q1/Q2"));
+			assertThrows(IllegalArgumentException.class, () -> sink.openSheet("[Orders]"));
+			sink.openSheet("Orders of the first quarter of 2024");
+			sink.finish();
+		} finally {
+			sink.close();
+		}
+		List<String> names = new ArrayList<String>();
+		try (XSSFWorkbook workbook = new XSSFWorkbook(new ByteArrayInputStream(out.toByteArray()))) {
+			for (Sheet sheet : workbook)
+				names.add(sheet.getSheetName());
+		}
+		// cut to 31 chars like Excel and SXSSF
+		assertEquals(List.of("Orders", "Orders of the first quarter of "), names);
+	}
+
+	@Test
+	void rowsOverflowToNumberedSheets() throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ExcelExporter<ExcelExporterTest.Item> exporter = new ExcelExporter<ExcelExporterTest.Item>(out,
+				ExcelExporterTest.columns(), "Items", ExcelExporterTest.Item.class)) {
+			exporter.setEngine(ExportEngine.STREAMING);
+			exporter.setDataFetchSize(100);
+			exporter.setMaxRowsPerSheet(400);
+			exporter.open();
+			exporter.generateReportFromDataProvider(pageable -> ExcelExporterTest.page(pageable, 1000, 0));
+		}
+		List<List<List<String>>> sheets = ExcelExporterTest.readWorkbook(out.toByteArray());
+		assertEquals(3, sheets.size());
+		ExcelExporterTest.assertIds(sheets.get(0), 1, 400);
+		ExcelExporterTest.assertIds(sheets.get(1), 401, 800);
+		ExcelExporterTest.assertIds(sheets.get(2), 801, 1000);
+	}
+}
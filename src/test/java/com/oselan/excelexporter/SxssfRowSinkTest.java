@@ -0,0 +1,58 @@
+package com.oselan.excelexporter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class SxssfRowSinkTest {
+
+	@TempDir
+	Path tempDirectory;
+
+	@Test
+	void workbookWrittenByPoiReadsBack() throws Exception {
+		assertWorkbook(Deflater.DEFAULT_COMPRESSION, 1, false);
+	}
+
+	@Test
+	void workbookCompressedAtALevelReadsBack() throws Exception {
+		assertWorkbook(Deflater.BEST_SPEED, 1, true);
+		assertWorkbook(Deflater.NO_COMPRESSION, 1, false);
+	}
+
+	@Test
+	void workbookCompressedInParallelReadsBack() throws Exception {
+		assertWorkbook(Deflater.DEFAULT_COMPRESSION, 4, false);
+		assertWorkbook(Deflater.BEST_COMPRESSION, 3, true);
+	}
+
+	private void assertWorkbook(int level, int threads, boolean compressTempFiles) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ExcelExporter<ExcelExporterTest.Item> exporter = new ExcelExporter<ExcelExporterTest.Item>(out,
+				ExcelExporterTest.columns(), "Items", ExcelExporterTest.Item.class)) {
+			exporter.setCompressionLevel(level);
+			exporter.setCompressionThreads(threads);
+			exporter.setCompressTempFiles(compressTempFiles);
+			exporter.setTempDirectory(tempDirectory);
+			exporter.setMaxRowsPerSheet(8_000);
+			exporter.setDataFetchSize(2000);
+			exporter.open();
+			exporter.generateReportFromDataProvider(pageable -> ExcelExporterTest.page(pageable, 12_000, 0));
+		}
+		List<List<List<String>>> sheets = ExcelExporterTest.readWorkbook(out.toByteArray());
+		assertEquals(2, sheets.size());
+		ExcelExporterTest.assertIds(sheets.get(0), 1, 8_000);
+		ExcelExporterTest.assertIds(sheets.get(1), 8_001, 12_000);
+		try (Stream<Path> files = Files.list(tempDirectory)) {
+			assertEquals(0, files.count(), "temp files are deleted on close");
+		}
+	}
+}